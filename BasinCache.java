@@ -0,0 +1,123 @@
+/*
+ * Cache of the basins the search has already converged in, shared by both normalizers.
+ *
+ * Wherever every vertex keeps the same best gradient, the noise is one smooth function, so the gradient index assignment
+ * (one index per lattice vertex) names the region a walker is in. Once a restart has converged, the assignment at its
+ * maximum, and the one it finished in if that's different, map to the maximum it found. A later walker that settles into
+ * one of those regions would only climb back to the same place, so it can stop there and report the known maximum.
+ *
+ * This assumes each region holds one local maximum, which is the usual case, but isn't guaranteed. Walkers only get cut
+ * short after holding the same assignment for a few steps, so passing through a region on the way somewhere else is fine.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+public final class BasinCache {
+    
+    public static final class Basin {
+        private double value;
+        private double[] coord;
+        private final AtomicLong hits = new AtomicLong();
+        
+        Basin(double value, double[] coord) {
+            this.value = value;
+            this.coord = coord;
+        }
+        
+        public synchronized double value() {
+            return value;
+        }
+        
+        public synchronized double[] coord() {
+            return coord.clone();
+        }
+        
+        // Restarts which ended in this basin, whether they converged or got cut short.
+        public long hits() {
+            return hits.get();
+        }
+        
+        // Keeps the higher of two convergences into the same basin.
+        private synchronized void update(double value, double[] coord) {
+            if (value > this.value) {
+                this.value = value;
+                this.coord = coord.clone();
+            }
+        }
+    }
+    
+    // Hash keys on int[] contents. The array is copied, so the caller can keep reusing its own.
+    private static final class AssignmentKey {
+        private final int[] gradientIndices;
+        private final int hash;
+        
+        AssignmentKey(int[] gradientIndices) {
+            this.gradientIndices = gradientIndices.clone();
+            this.hash = Arrays.hashCode(gradientIndices);
+        }
+        
+        public int hashCode() {
+            return hash;
+        }
+        
+        public boolean equals(Object other) {
+            return other instanceof AssignmentKey && Arrays.equals(gradientIndices, ((AssignmentKey)other).gradientIndices);
+        }
+    }
+    
+    private final ConcurrentHashMap<AssignmentKey, Basin> basins = new ConcurrentHashMap<>();
+    private final AtomicLong distinctBasins = new AtomicLong();
+    private final AtomicLong cutShort = new AtomicLong();
+    
+    // Records a converged restart: its maximum, the assignment there, and the assignment it finished in.
+    public void converged(double value, double[] coord, int[] maximizingGradientIndices, int[] finalGradientIndices) {
+        Basin basin = basins.computeIfAbsent(new AssignmentKey(maximizingGradientIndices), key -> {
+            distinctBasins.incrementAndGet();
+            return new Basin(value, coord.clone());
+        });
+        basin.update(value, coord);
+        basin.hits.incrementAndGet();
+        if (!Arrays.equals(maximizingGradientIndices, finalGradientIndices)) {
+            basins.putIfAbsent(new AssignmentKey(finalGradientIndices), basin);
+        }
+    }
+    
+    // The basin a walker holding this assignment would converge in, or null if it isn't known yet.
+    // If there is one, it's counted as a hit, and the walker is expected to stop there.
+    public Basin lookup(int[] gradientIndices) {
+        Basin basin = basins.get(new AssignmentKey(gradientIndices));
+        if (basin != null) {
+            basin.hits.incrementAndGet();
+            cutShort.incrementAndGet();
+        }
+        return basin;
+    }
+    
+    // Distinct basins, highest value first. Regions which lead to the same basin only count once.
+    public List<Basin> basins() {
+        return basins.values().stream().distinct().sorted(Comparator.comparingDouble(Basin::value).reversed()).collect(Collectors.toList());
+    }
+    
+    // Number of distinct basins, without sorting them.
+    public long size() {
+        return distinctBasins.get();
+    }
+    
+    // Restarts that were stopped early by a lookup.
+    public long cutShort() {
+        return cutShort.get();
+    }
+    
+    public void clear() {
+        basins.clear();
+        distinctBasins.set(0);
+        cutShort.set(0);
+    }
+}
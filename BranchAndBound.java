@@ -0,0 +1,192 @@
+/*
+ * Certified upper bound on the noise, by branch-and-bound over the cell. Shared by both normalizers.
+ *
+ * Gradient ascent only ever finds values the noise actually takes, so its maximum is a lower bound. This recursively
+ * bisects the cell (in cube space, so boxes stay boxes), and bounds the value over each box from above with interval
+ * arithmetic, which the noise-specific BoxObjective provides. A box whose upper bound is within the tolerance of the
+ * best value found so far can't hold anything meaningfully higher, so it's dropped. The rest get split further. Boxes
+ * holding no point of the symmetry group's fundamental domain are left out as soon as they're split off, since the
+ * copies of their points are elsewhere. The boxes left at the end cover the fundamental domain, so the largest of their
+ * upper bounds is a bound on the whole noise.
+ *
+ * Boxes are processed best-first, from a shared queue ordered by upper bound, by one worker per pool thread. The bound is
+ * always the top of the queue, so it only ever goes down, and if the box budget runs out first, what's left is still a
+ * valid bound, just a looser one. Box centres get evaluated along the way, in case one beats the value the bound started from.
+ * The intervals are computed in plain floating point, so the bound gets a small relative margin on top to cover rounding.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+public final class BranchAndBound {
+    
+    // Relative margin on the final bound, for floating point rounding in the interval arithmetic
+    private static double ROUNDING_MARGIN = 1e-12;
+    
+    // Boxes narrower than this on every axis don't get split any more
+    private static double MIN_BOX_WIDTH = 1e-13;
+    
+    // How long an idle worker waits for another worker's boxes before checking whether everything's done
+    private static long IDLE_POLL_MILLIS = 1;
+    
+    public interface BoxObjective {
+        
+        // An upper bound on the noise value over the box [lo, hi], in cube space coordinates. Has to be safe to call from several threads.
+        double upperBound(double[] lo, double[] hi);
+        
+        // The noise value at a point in cube space coordinates. Same for this one.
+        double valueAt(double[] coord);
+        
+        // The noise space point for cube space coordinates, for reporting.
+        default double[] coordAt(double[] cubeCoord) {
+            return cubeCoord.clone();
+        }
+    }
+    
+    public static final class Bracket {
+        public final double found, bound;
+        public final double[] foundCoord;
+        public final long boxes;
+        public final boolean complete;
+        
+        Bracket(double found, double[] foundCoord, double bound, long boxes, boolean complete) {
+            this.found = found;
+            this.foundCoord = foundCoord;
+            this.bound = bound;
+            this.boxes = boxes;
+            this.complete = complete;
+        }
+    }
+    
+    private static final class Box {
+        final double[] lo, hi;
+        final double upperBound;
+        
+        Box(double[] lo, double[] hi, double upperBound) {
+            this.lo = lo;
+            this.hi = hi;
+            this.upperBound = upperBound;
+        }
+    }
+    
+    private final BoxObjective objective;
+    private final SymmetryGroup symmetryGroup;
+    private final int nDimensions;
+    private final double relativeTolerance;
+    private final long maxBoxes;
+    
+    private volatile double incumbent;
+    private double[] incumbentCoord;
+    private final PriorityBlockingQueue<Box> queue = new PriorityBlockingQueue<>(1024, Comparator.comparingDouble((Box box) -> -box.upperBound));
+    private final AtomicLong openBoxes = new AtomicLong(); // Queued or being worked on
+    private final DoubleAccumulator closedBound = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    private final AtomicLong boxCount = new AtomicLong();
+    private final AtomicBoolean complete = new AtomicBoolean(true);
+    
+    // Stops splitting boxes whose bound is within relativeTolerance of the best value. After maxBoxes boxes, the remaining
+    // ones are kept as they are, and the bound still holds, but it's looser and the bracket is reported as incomplete.
+    // The symmetry group works in the same coordinates as the boxes, see SymmetryGroup.outsideFundamentalDomain.
+    public BranchAndBound(BoxObjective objective, SymmetryGroup symmetryGroup, int nDimensions, double relativeTolerance, long maxBoxes) {
+        this.objective = objective;
+        this.symmetryGroup = symmetryGroup;
+        this.nDimensions = nDimensions;
+        this.relativeTolerance = relativeTolerance;
+        this.maxBoxes = maxBoxes;
+    }
+    
+    // Bounds the noise over the unit cell in cube space, starting from a value it's already known to reach.
+    public Bracket run(double knownValue, ForkJoinPool pool) {
+        incumbent = knownValue;
+        incumbentCoord = null;
+        double[] lo = new double[nDimensions], hi = new double[nDimensions];
+        for (int i = 0; i < nDimensions; i++) hi[i] = 1;
+        openBoxes.set(1);
+        queue.add(new Box(lo, hi, objective.upperBound(lo, hi)));
+        
+        ForkJoinTask<?>[] workers = new ForkJoinTask<?>[pool.getParallelism()];
+        for (int t = 0; t < workers.length; t++) workers[t] = pool.submit(this::runWorker);
+        for (ForkJoinTask<?> worker : workers) worker.join();
+        
+        // Whatever the budget left in the queue still counts towards the bound.
+        for (Box box : queue) closedBound.accumulate(box.upperBound);
+        double bound = Math.max(incumbent, closedBound.get());
+        bound += Math.abs(bound) * ROUNDING_MARGIN;
+        return new Bracket(incumbent, incumbentCoord, bound, boxCount.get(), complete.get());
+    }
+    
+    private synchronized void offerIncumbent(double value, double[] coord) {
+        if (value > incumbent) {
+            incumbent = value;
+            incumbentCoord = coord.clone();
+        }
+    }
+    
+    private void runWorker() {
+        double[] centre = new double[nDimensions];
+        while (openBoxes.get() > 0) {
+            Box box;
+            try {
+                box = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            
+            // Another worker is still splitting a box, and its children may need help.
+            if (box == null) continue;
+            
+            // Out of budget. The box stays as it is, and so does the rest of the queue.
+            if (boxCount.incrementAndGet() > maxBoxes) {
+                closedBound.accumulate(box.upperBound);
+                complete.set(false);
+                openBoxes.decrementAndGet();
+                return;
+            }
+            
+            int splitAxis = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                centre[i] = (box.lo[i] + box.hi[i]) * 0.5;
+                if (box.hi[i] - box.lo[i] > box.hi[splitAxis] - box.lo[splitAxis]) splitAxis = i;
+            }
+            double centreValue = objective.valueAt(centre);
+            if (centreValue > incumbent) offerIncumbent(centreValue, centre);
+            
+            // Nothing in here beats the best value by more than the tolerance.
+            double current = incumbent;
+            if (box.upperBound <= current + relativeTolerance * Math.abs(current)) {
+                closedBound.accumulate(box.upperBound);
+                openBoxes.decrementAndGet();
+                continue;
+            }
+            
+            // Out of precision.
+            if (box.hi[splitAxis] - box.lo[splitAxis] < MIN_BOX_WIDTH) {
+                closedBound.accumulate(box.upperBound);
+                complete.set(false);
+                openBoxes.decrementAndGet();
+                continue;
+            }
+            
+            // Bisect along the longest axis. The children are counted as open before the parent stops being open.
+            double[] lowerHi = box.hi.clone(), upperLo = box.lo.clone();
+            lowerHi[splitAxis] = upperLo[splitAxis] = centre[splitAxis];
+            addChild(box.lo, lowerHi);
+            addChild(upperLo, box.hi);
+            openBoxes.decrementAndGet();
+        }
+    }
+    
+    private void addChild(double[] lo, double[] hi) {
+        if (symmetryGroup.outsideFundamentalDomain(lo, hi)) return;
+        openBoxes.incrementAndGet();
+        queue.add(new Box(lo, hi, objective.upperBound(lo, hi)));
+    }
+}
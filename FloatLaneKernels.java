@@ -0,0 +1,153 @@
+/*
+ * Single-precision version of LaneKernels, for the exploring half of the mixed-precision batched mode (see SearchEngine).
+ * The same arithmetic on floats, so twice as many lanes fit in a vector, and half as many bytes go through memory.
+ *
+ * vector/VectorFloatLaneKernels.java implements this with the incubating Vector API, the same way as VectorLaneKernels.
+ *
+ * @author K.jpg
+ */
+
+public interface FloatLaneKernels {
+    
+    // Displacement of every lane from one lattice vertex.
+    void displacement(float[][] coords, double[] latticePoint, float[][] displacementOut, int nLanes);
+    
+    // Radial falloff, falloffRadiusSq - |displacement|^2, for every lane. Not clamped.
+    void radialFalloff(float[][] displacement, float falloffRadiusSq, float[] falloffOut, int nLanes);
+    
+    // Adds falloff^4 * dot(displacement, gradient) and its derivative vector. Lanes with falloff <= 0 add nothing.
+    void accumulateRadial(float[][] displacement, float[] falloff, float[][] gradients,
+            float[] valueOut, float[][] derivativeOut, int nLanes);
+    
+    // Adds (product of per-axis fade curves) * dot(displacement, gradient) and its derivative vector.
+    // The fade curve is fadePolynomial (coefficients in ascending powers) evaluated at 1 - |a|, and zero for |a| >= 1.
+    void accumulateFade(float[][] displacement, float[] fadePolynomial, float[][] gradients,
+            float[] valueOut, float[][] derivativeOut, int nLanes);
+    
+    // Moves every pending lane by its derivative vector times rate, optionally clamping to the unit cell.
+    // Lanes whose coordinate changed stop being pending. Returns how many lanes are still pending.
+    int moveLanes(float[][] coords, float[][] derivative, float rate, boolean clampToUnitCell, boolean[] pending, int nLanes);
+    
+    static FloatLaneKernels create(int nDimensions, int nLanes) {
+        try {
+            return (FloatLaneKernels)Class.forName("VectorFloatLaneKernels")
+                    .getConstructor(int.class, int.class).newInstance(nDimensions, nLanes);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarFloatLaneKernels(nDimensions, nLanes);
+        }
+    }
+    
+    // Plain-loop fallback, used when the Vector API isn't available. The Range methods cover lanes [from, to),
+    // so the vector version can hand over the lanes past its last full vector.
+    final class ScalarFloatLaneKernels implements FloatLaneKernels {
+        private final int nDimensions;
+        private final float[][] fades, dFades;
+        
+        public ScalarFloatLaneKernels(int nDimensions, int nLanes) {
+            this.nDimensions = nDimensions;
+            fades = new float[nDimensions][nLanes];
+            dFades = new float[nDimensions][nLanes];
+        }
+        
+        public void displacement(float[][] coords, double[] latticePoint, float[][] displacementOut, int nLanes) {
+            for (int i = 0; i < nDimensions; i++) {
+                float[] coord = coords[i], out = displacementOut[i];
+                float p = (float)latticePoint[i];
+                for (int l = 0; l < nLanes; l++) out[l] = coord[l] - p;
+            }
+        }
+        
+        public void radialFalloff(float[][] displacement, float falloffRadiusSq, float[] falloffOut, int nLanes) {
+            for (int l = 0; l < nLanes; l++) falloffOut[l] = falloffRadiusSq;
+            for (int i = 0; i < nDimensions; i++) {
+                float[] a = displacement[i];
+                for (int l = 0; l < nLanes; l++) falloffOut[l] -= a[l] * a[l];
+            }
+        }
+        
+        public void accumulateRadial(float[][] displacement, float[] falloff, float[][] gradients,
+                float[] valueOut, float[][] derivativeOut, int nLanes) {
+            accumulateRadialRange(displacement, falloff, gradients, valueOut, derivativeOut, 0, nLanes);
+        }
+        
+        public void accumulateRadialRange(float[][] displacement, float[] falloff, float[][] gradients,
+                float[] valueOut, float[][] derivativeOut, int from, int to) {
+            for (int l = from; l < to; l++) {
+                float attn = falloff[l];
+                if (attn <= 0) continue;
+                float dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += displacement[i][l] * gradients[i][l];
+                float attnSq = attn * attn;
+                float attn4 = attnSq * attnSq;
+                valueOut[l] += attn4 * dot;
+                float dAttnDot = -8 * attnSq * attn * dot;
+                for (int i = 0; i < nDimensions; i++) derivativeOut[i][l] += dAttnDot * displacement[i][l] + attn4 * gradients[i][l];
+            }
+        }
+        
+        public void accumulateFade(float[][] displacement, float[] fadePolynomial, float[][] gradients,
+                float[] valueOut, float[][] derivativeOut, int nLanes) {
+            accumulateFadeRange(displacement, fadePolynomial, gradients, valueOut, derivativeOut, 0, nLanes);
+        }
+        
+        public void accumulateFadeRange(float[][] displacement, float[] fadePolynomial, float[][] gradients,
+                float[] valueOut, float[][] derivativeOut, int from, int to) {
+            for (int i = 0; i < nDimensions; i++) {
+                float[] a = displacement[i], fade = fades[i], dFade = dFades[i];
+                for (int l = from; l < to; l++) {
+                    float t = 1 - Math.abs(a[l]);
+                    if (t <= 0) {
+                        fade[l] = dFade[l] = 0;
+                        continue;
+                    }
+                    float value = 0, derivative = 0;
+                    for (int c = fadePolynomial.length - 1; c >= 0; c--) {
+                        derivative = derivative * t + value;
+                        value = value * t + fadePolynomial[c];
+                    }
+                    fade[l] = value;
+                    dFade[l] = a[l] < 0 ? derivative : -derivative;
+                }
+            }
+            for (int l = from; l < to; l++) {
+                float falloff = 1, dot = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    falloff *= fades[i][l];
+                    dot += displacement[i][l] * gradients[i][l];
+                }
+                valueOut[l] += falloff * dot;
+                for (int j = 0; j < nDimensions; j++) {
+                    float dFalloff = dFades[j][l];
+                    for (int i = 0; i < nDimensions; i++) {
+                        if (i != j) dFalloff *= fades[i][l];
+                    }
+                    derivativeOut[j][l] += gradients[j][l] * falloff + dot * dFalloff;
+                }
+            }
+        }
+        
+        public int moveLanes(float[][] coords, float[][] derivative, float rate, boolean clampToUnitCell, boolean[] pending, int nLanes) {
+            return moveLanesRange(coords, derivative, rate, clampToUnitCell, pending, 0, nLanes);
+        }
+        
+        public int moveLanesRange(float[][] coords, float[][] derivative, float rate, boolean clampToUnitCell, boolean[] pending, int from, int to) {
+            int nPending = 0;
+            for (int l = from; l < to; l++) {
+                if (!pending[l]) continue;
+                boolean moved = false;
+                for (int i = 0; i < nDimensions; i++) {
+                    float newValue = coords[i][l] + derivative[i][l] * rate;
+                    if (clampToUnitCell) {
+                        if (newValue > 1) newValue = 1;
+                        else if (newValue < 0) newValue = 0;
+                    }
+                    if (newValue != coords[i][l]) moved = true;
+                    coords[i][l] = newValue;
+                }
+                if (moved) pending[l] = false;
+                else nPending++;
+            }
+            return nPending;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,376 @@
+/*
+ * Fractal (fBm) noise kernel: several octaves of another kernel, summed. Octave o is the other noise at frequency
+ * lacunarity^o and amplitude gain^o, so the value at x is the sum of gain^o * noise(lacunarity^o * x).
+ *
+ * Dividing each octave by its own maximum and adding those up is safe, but loose, since the octaves' maxima hardly ever
+ * line up. This searches the summed field directly instead. Each octave picks the best gradient for each of its own
+ * vertices, independently of the other octaves, as hashed octaves are free to. Gradient indices are the octaves', one
+ * octave after the other.
+ *
+ * The search domain is the octave kernel's cell. With a whole-number lacunarity, every octave's lattice contains the first
+ * one's, so the sum repeats on the first lattice, and its symmetries carry over too: the cell covers everything. With any
+ * other lacunarity the octaves slide against each other from cell to cell, and the search only covers the first cell,
+ * with no symmetry reduction and no branch-and-bound.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+
+public final class FractalKernel implements NoiseKernel {
+    
+    private final NoiseKernel octaveKernel;
+    private final int nOctaves;
+    private final int nDimensions;
+    private final int nOctaveVertices;
+    private final double[] frequencies, amplitudes;
+    
+    // Each octave's lattice vertices, in its own cell, one octave after the other.
+    private final double[][] latticeVertices;
+    
+    private final SymmetryGroup symmetryGroup;
+    
+    // Whether the lacunarity is a whole number, so the first cell covers the whole noise.
+    private final boolean repeatsOnCell;
+    
+    public FractalKernel(NoiseKernel octaveKernel, int nOctaves, double lacunarity, double gain) {
+        if (nOctaves < 1) throw new IllegalArgumentException("An fBm needs at least one octave, got " + nOctaves);
+        if (!(lacunarity > 0 && gain > 0)) throw new IllegalArgumentException("Lacunarity and gain have to be positive, got " + lacunarity + " and " + gain);
+        this.octaveKernel = octaveKernel;
+        this.nOctaves = nOctaves;
+        nDimensions = octaveKernel.nDimensions();
+        nOctaveVertices = octaveKernel.latticeVertices().length;
+        frequencies = new double[nOctaves];
+        amplitudes = new double[nOctaves];
+        for (int o = 0; o < nOctaves; o++) {
+            frequencies[o] = Math.pow(lacunarity, o);
+            amplitudes[o] = Math.pow(gain, o);
+        }
+        latticeVertices = new double[nOctaves * nOctaveVertices][];
+        for (int o = 0; o < nOctaves; o++) System.arraycopy(octaveKernel.latticeVertices(), 0, latticeVertices, o * nOctaveVertices, nOctaveVertices);
+        repeatsOnCell = (lacunarity == Math.rint(lacunarity));
+        symmetryGroup = repeatsOnCell ? octaveKernel.symmetryGroup() : SymmetryGroup.identity(nDimensions);
+    }
+    
+    public String name() {
+        return octaveKernel.name() + " fBm";
+    }
+    
+    public int nDimensions() {
+        return nDimensions;
+    }
+    
+    public double[][] latticeVertices() {
+        return latticeVertices;
+    }
+    
+    public GradientIndex gradientIndex() {
+        return octaveKernel.gradientIndex();
+    }
+    
+    public SymmetryGroup symmetryGroup() {
+        return symmetryGroup;
+    }
+    
+    public void mapFromUnitCube(double[] coord) {
+        octaveKernel.mapFromUnitCube(coord);
+    }
+    
+    public void wrapIntoCell(double[] coord) {
+        octaveKernel.wrapIntoCell(coord);
+    }
+    
+    public void project(double[] coord) {
+        octaveKernel.project(coord);
+    }
+    
+    public boolean isPinned(double[] coord, double[] derivative, int axis) {
+        return octaveKernel.isPinned(coord, derivative, axis);
+    }
+    
+    public NoiseKernel.Evaluator createEvaluator() {
+        return new Evaluator();
+    }
+    
+    // Each octave is evaluated by its own evaluator, at the scaled point wrapped into the octave's cell. What that gave is
+    // kept until the next point comes in: the walker evaluates each point its line search accepts a second time, which is
+    // then free, and the Newton polish needs to know how far each octave's point was moved by the wrap.
+    private final class Evaluator implements NoiseKernel.Evaluator {
+        private final NoiseKernel.Evaluator[] octaveEvaluators = new NoiseKernel.Evaluator[nOctaves];
+        private final double[][] octaveCoords = new double[nOctaves][nDimensions];
+        private final double[][] octaveOffsets = new double[nOctaves][nDimensions];
+        private final double[][] octaveDerivatives = new double[nOctaves][nDimensions];
+        private final int[][] octaveGradientIndices = new int[nOctaves][nOctaveVertices];
+        private final double[] octaveValues = new double[nOctaves];
+        private final double[] lastCoord = new double[nDimensions];
+        private boolean hasLastCoord;
+        
+        private final double[] pieceCoord = new double[nDimensions];
+        private final double[] pieceDerivative = new double[nDimensions];
+        private final double[][] pieceHessian = new double[nDimensions][nDimensions];
+        private final int[] pieceGradientIndices = new int[nOctaveVertices];
+        
+        Evaluator() {
+            for (int o = 0; o < nOctaves; o++) octaveEvaluators[o] = octaveKernel.createEvaluator();
+        }
+        
+        // Leaves coord where it is.
+        public double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            if (!hasLastCoord || !Arrays.equals(coord, lastCoord)) {
+                System.arraycopy(coord, 0, lastCoord, 0, nDimensions);
+                hasLastCoord = true;
+                for (int o = 0; o < nOctaves; o++) {
+                    double[] octaveCoord = octaveCoords[o];
+                    for (int i = 0; i < nDimensions; i++) octaveCoord[i] = coord[i] * frequencies[o];
+                    octaveKernel.wrapIntoCell(octaveCoord);
+                    octaveValues[o] = octaveEvaluators[o].evaluate(octaveCoord, octaveDerivatives[o], octaveGradientIndices[o]);
+                    for (int i = 0; i < nDimensions; i++) octaveOffsets[o][i] = octaveCoord[i] - coord[i] * frequencies[o];
+                }
+            }
+            
+            // Chain rule: octave o's derivative vector picks up its frequency.
+            double value = 0;
+            Arrays.fill(derivativeOut, 0);
+            for (int o = 0; o < nOctaves; o++) {
+                value += amplitudes[o] * octaveValues[o];
+                double derivativeScale = amplitudes[o] * frequencies[o];
+                for (int i = 0; i < nDimensions; i++) derivativeOut[i] += derivativeScale * octaveDerivatives[o][i];
+                System.arraycopy(octaveGradientIndices[o], 0, gradientIndicesOut, o * nOctaveVertices, nOctaveVertices);
+            }
+            return value;
+        }
+        
+        // Each octave's piece, at the scaled point moved by the same offset as the last evaluate's. NaN if any octave's is.
+        public double evaluateSmoothPiece(double[] coord, int[] gradientIndices, double[] derivativeOut, double[][] hessianOut) {
+            double value = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                derivativeOut[i] = 0;
+                for (int j = 0; j < nDimensions; j++) hessianOut[i][j] = 0;
+            }
+            for (int o = 0; o < nOctaves; o++) {
+                double frequency = frequencies[o], amplitude = amplitudes[o];
+                for (int i = 0; i < nDimensions; i++) pieceCoord[i] = coord[i] * frequency + octaveOffsets[o][i];
+                System.arraycopy(gradientIndices, o * nOctaveVertices, pieceGradientIndices, 0, nOctaveVertices);
+                double octaveValue = octaveEvaluators[o].evaluateSmoothPiece(pieceCoord, pieceGradientIndices, pieceDerivative, pieceHessian);
+                if (Double.isNaN(octaveValue)) return Double.NaN;
+                value += amplitude * octaveValue;
+                for (int i = 0; i < nDimensions; i++) {
+                    derivativeOut[i] += amplitude * frequency * pieceDerivative[i];
+                    for (int j = 0; j < nDimensions; j++) hessianOut[i][j] += amplitude * frequency * frequency * pieceHessian[i][j];
+                }
+            }
+            return value;
+        }
+    }
+    
+    // Null if the octave kernel has no slope.
+    public NoiseKernel.SlopeEvaluator createSlopeEvaluator() {
+        return (octaveKernel.createSlopeEvaluator() == null) ? null : new SlopeEvaluator();
+    }
+    
+    private final class SlopeEvaluator implements NoiseKernel.SlopeEvaluator {
+        private final NoiseKernel.SlopeEvaluator[] octaveEvaluators = new NoiseKernel.SlopeEvaluator[nOctaves];
+        private final double[] pieceCoord = new double[nDimensions];
+        private final double[] pieceDerivative = new double[nDimensions];
+        private final double[] pieceDirectionDerivative = new double[nDimensions];
+        private final int[] pieceGradientIndices = new int[nOctaveVertices];
+        
+        SlopeEvaluator() {
+            for (int o = 0; o < nOctaves; o++) octaveEvaluators[o] = octaveKernel.createSlopeEvaluator();
+        }
+        
+        // The octaves' slopes add up like their values, each octave picking its own gradients, and the chain rule gives
+        // octave o's slope one factor of its frequency, and its derivative vector with respect to coord two.
+        public double evaluateSlope(double[] coord, double[] direction, double[] coordDerivativeOut, double[] directionDerivativeOut, int[] gradientIndicesOut) {
+            double slope = 0;
+            Arrays.fill(coordDerivativeOut, 0);
+            Arrays.fill(directionDerivativeOut, 0);
+            for (int o = 0; o < nOctaves; o++) {
+                double frequency = frequencies[o], amplitude = amplitudes[o];
+                for (int i = 0; i < nDimensions; i++) pieceCoord[i] = coord[i] * frequency;
+                octaveKernel.wrapIntoCell(pieceCoord);
+                slope += amplitude * frequency * octaveEvaluators[o].evaluateSlope(pieceCoord, direction, pieceDerivative, pieceDirectionDerivative, pieceGradientIndices);
+                for (int i = 0; i < nDimensions; i++) {
+                    coordDerivativeOut[i] += amplitude * frequency * frequency * pieceDerivative[i];
+                    directionDerivativeOut[i] += amplitude * frequency * pieceDirectionDerivative[i];
+                }
+                System.arraycopy(pieceGradientIndices, 0, gradientIndicesOut, o * nOctaveVertices, nOctaveVertices);
+            }
+            return slope;
+        }
+    }
+    
+    public NoiseKernel.LaneEvaluator createLaneEvaluator(int nLanes) {
+        return new LaneEvaluator(nLanes);
+    }
+    
+    // Batched evaluation. Every octave goes through the octave kernel's own lane evaluator, for all lanes at once, and
+    // the lanes move the way the octave kernel moves them.
+    private final class LaneEvaluator implements NoiseKernel.LaneEvaluator {
+        private final NoiseKernel.LaneEvaluator octaveEvaluator;
+        private final double[][] octaveCoords, octaveDerivatives;
+        private final double[] octaveValues;
+        private final int[][] octaveGradientIndices = new int[nOctaveVertices][];
+        private final double[] laneCoord = new double[nDimensions];
+        
+        LaneEvaluator(int nLanes) {
+            octaveEvaluator = octaveKernel.createLaneEvaluator(nLanes);
+            octaveCoords = new double[nDimensions][nLanes];
+            octaveDerivatives = new double[nDimensions][nLanes];
+            octaveValues = new double[nLanes];
+        }
+        
+        public void evaluate(double[][] coords, double[] valuesOut, double[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            Arrays.fill(valuesOut, 0);
+            for (int i = 0; i < nDimensions; i++) Arrays.fill(derivativesOut[i], 0);
+            for (int o = 0; o < nOctaves; o++) {
+                double frequency = frequencies[o], amplitude = amplitudes[o];
+                for (int l = 0; l < nLanes; l++) {
+                    for (int i = 0; i < nDimensions; i++) laneCoord[i] = coords[i][l] * frequency;
+                    octaveKernel.wrapIntoCell(laneCoord);
+                    for (int i = 0; i < nDimensions; i++) octaveCoords[i][l] = laneCoord[i];
+                }
+                
+                // The octave's rows of the gradient index output, so its lane evaluator fills them in place.
+                System.arraycopy(gradientIndicesOut, o * nOctaveVertices, octaveGradientIndices, 0, nOctaveVertices);
+                octaveEvaluator.evaluate(octaveCoords, octaveValues, octaveDerivatives, octaveGradientIndices, nLanes);
+                for (int l = 0; l < nLanes; l++) valuesOut[l] += amplitude * octaveValues[l];
+                double derivativeScale = amplitude * frequency;
+                for (int i = 0; i < nDimensions; i++) {
+                    for (int l = 0; l < nLanes; l++) derivativesOut[i][l] += derivativeScale * octaveDerivatives[i][l];
+                }
+            }
+        }
+        
+        public int moveLanes(double[][] coords, double[][] derivatives, double rate, boolean[] pending, int nLanes) {
+            return octaveEvaluator.moveLanes(coords, derivatives, rate, pending, nLanes);
+        }
+    }
+    
+    public NoiseKernel.FloatLaneEvaluator createFloatLaneEvaluator(int nLanes) {
+        NoiseKernel.FloatLaneEvaluator octaveEvaluator = octaveKernel.createFloatLaneEvaluator(nLanes);
+        return (octaveEvaluator == null) ? null : new FloatLaneEvaluator(octaveEvaluator, nLanes);
+    }
+    
+    // LaneEvaluator in single precision. The octaves are scaled and wrapped in double precision, one lane at a time, since
+    // a float point far out in a high octave would lose most of its fractional part.
+    private final class FloatLaneEvaluator implements NoiseKernel.FloatLaneEvaluator {
+        private final NoiseKernel.FloatLaneEvaluator octaveEvaluator;
+        private final float[][] octaveCoords, octaveDerivatives;
+        private final float[] octaveValues;
+        private final int[][] octaveGradientIndices = new int[nOctaveVertices][];
+        private final double[] laneCoord = new double[nDimensions];
+        
+        FloatLaneEvaluator(NoiseKernel.FloatLaneEvaluator octaveEvaluator, int nLanes) {
+            this.octaveEvaluator = octaveEvaluator;
+            octaveCoords = new float[nDimensions][nLanes];
+            octaveDerivatives = new float[nDimensions][nLanes];
+            octaveValues = new float[nLanes];
+        }
+        
+        public void evaluate(float[][] coords, float[] valuesOut, float[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            Arrays.fill(valuesOut, 0);
+            for (int i = 0; i < nDimensions; i++) Arrays.fill(derivativesOut[i], 0);
+            for (int o = 0; o < nOctaves; o++) {
+                double frequency = frequencies[o];
+                float amplitude = (float)amplitudes[o];
+                for (int l = 0; l < nLanes; l++) {
+                    for (int i = 0; i < nDimensions; i++) laneCoord[i] = coords[i][l] * frequency;
+                    octaveKernel.wrapIntoCell(laneCoord);
+                    for (int i = 0; i < nDimensions; i++) octaveCoords[i][l] = (float)laneCoord[i];
+                }
+                System.arraycopy(gradientIndicesOut, o * nOctaveVertices, octaveGradientIndices, 0, nOctaveVertices);
+                octaveEvaluator.evaluate(octaveCoords, octaveValues, octaveDerivatives, octaveGradientIndices, nLanes);
+                for (int l = 0; l < nLanes; l++) valuesOut[l] += amplitude * octaveValues[l];
+                float derivativeScale = (float)(amplitudes[o] * frequency);
+                for (int i = 0; i < nDimensions; i++) {
+                    for (int l = 0; l < nLanes; l++) derivativesOut[i][l] += derivativeScale * octaveDerivatives[i][l];
+                }
+            }
+        }
+        
+        public int moveLanes(float[][] coords, float[][] derivatives, float rate, boolean[] pending, int nLanes) {
+            return octaveEvaluator.moveLanes(coords, derivatives, rate, pending, nLanes);
+        }
+    }
+    
+    // Actual fBm, with a different hash seed for each octave.
+    public NoiseKernel.HashedEvaluator createHashedEvaluator(long seed) {
+        NoiseKernel.HashedEvaluator[] octaveEvaluators = new NoiseKernel.HashedEvaluator[nOctaves];
+        for (int o = 0; o < nOctaves; o++) octaveEvaluators[o] = octaveKernel.createHashedEvaluator(seed + o);
+        double[] octaveCoord = new double[nDimensions];
+        return coord -> {
+            double value = 0;
+            for (int o = 0; o < nOctaves; o++) {
+                for (int i = 0; i < nDimensions; i++) octaveCoord[i] = coord[i] * frequencies[o];
+                value += amplitudes[o] * octaveEvaluators[o].evaluate(octaveCoord);
+            }
+            return value;
+        };
+    }
+    
+    // Null if the octave kernel can't be bounded, or if the lacunarity isn't a whole number: a bound on the first cell
+    // wouldn't be a bound on the noise.
+    public BranchAndBound.BoxObjective boxObjective() {
+        return (!repeatsOnCell || octaveKernel.boxObjective() == null) ? null : new FractalBoxBound();
+    }
+    
+    // Interval bounds for the branch-and-bound, on boxes of the first octave's cell in cube space, where every octave's
+    // lattice is the integer one. Each octave is bounded over the box scaled up by its frequency. Along axes where that's
+    // at least a cell wide, it's bounded over the whole cell. Narrower axes that cross a cell boundary get split there,
+    // with each piece moved back into the cell, and the octave's bound is the largest over the pieces.
+    private final class FractalBoxBound implements BranchAndBound.BoxObjective {
+        private final BranchAndBound.BoxObjective octaveBound = octaveKernel.boxObjective();
+        private final ThreadLocal<NoiseKernel.Evaluator> evaluators = ThreadLocal.withInitial(FractalKernel.this::createEvaluator);
+        
+        public double upperBound(double[] lo, double[] hi) {
+            double[][] pieceLo = new double[nDimensions][2], pieceHi = new double[nDimensions][2];
+            boolean[] split = new boolean[nDimensions];
+            double[] boxLo = new double[nDimensions], boxHi = new double[nDimensions];
+            double bound = 0;
+            for (int o = 0; o < nOctaves; o++) {
+                int nSplit = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    double scaledLo = lo[i] * frequencies[o], scaledHi = hi[i] * frequencies[o];
+                    double cell = Math.floor(scaledLo);
+                    split[i] = false;
+                    if (scaledHi - scaledLo >= 1) {
+                        pieceLo[i][0] = 0;
+                        pieceHi[i][0] = 1;
+                    } else if (scaledHi <= cell + 1) {
+                        pieceLo[i][0] = scaledLo - cell;
+                        pieceHi[i][0] = scaledHi - cell;
+                    } else {
+                        pieceLo[i][0] = scaledLo - cell;
+                        pieceHi[i][0] = 1;
+                        pieceLo[i][1] = 0;
+                        pieceHi[i][1] = scaledHi - cell - 1;
+                        split[i] = true;
+                        nSplit++;
+                    }
+                }
+                
+                // Every combination of pieces, one bit for each split axis.
+                double octaveUpperBound = Double.NEGATIVE_INFINITY;
+                for (int combination = 0; combination < (1 << nSplit); combination++) {
+                    for (int i = 0, bit = 0; i < nDimensions; i++) {
+                        int piece = split[i] ? (combination >> bit++) & 1 : 0;
+                        boxLo[i] = pieceLo[i][piece];
+                        boxHi[i] = pieceHi[i][piece];
+                    }
+                    octaveUpperBound = Math.max(octaveUpperBound, octaveBound.upperBound(boxLo, boxHi));
+                }
+                bound += amplitudes[o] * octaveUpperBound;
+            }
+            return bound;
+        }
+        
+        public double valueAt(double[] cubeCoord) {
+            return evaluators.get().evaluate(coordAt(cubeCoord), new double[nDimensions], new int[latticeVertices.length]);
+        }
+        
+        public double[] coordAt(double[] cubeCoord) {
+            return octaveBound.coordAt(cubeCoord);
+        }
+    }
+}
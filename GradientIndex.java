@@ -0,0 +1,351 @@
+/*
+ * Best-gradient lookup shared by both normalizers.
+ *
+ * Both tools pick, for each lattice vertex, the gradient with the largest dot product against the vertex-to-point vector.
+ * Scanning the whole gradient set for every vertex on every step gets expensive for big sets (SpongePowered, fancy 4D sets),
+ * but only a handful of gradients can ever win for directions in any small patch of the sphere.
+ *
+ * This splits the sphere of directions into cells, using a cube map (2N faces, each divided into a grid), and precomputes
+ * which gradients could possibly be the best for some direction in each cell. A lookup finds the cell, then scans only
+ * those candidates. Candidates are kept in their original order and compared the same way as the full scan, so the
+ * result, including which index wins a tie, is the same as scanning every gradient.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public class GradientIndex {
+    
+    // Roughly how many cells to aim for, per gradient in the set.
+    private static int TARGET_CELLS_PER_GRADIENT = 16;
+    private static int MAX_CELLS = 1 << 16;
+    
+    private final int nDimensions;
+    private final int nGradients;
+    private final double[] gradientsFlat;
+    private final float[] floatGradientsFlat;
+    private final int resolution;
+    private final int cellsPerFace;
+    private final int[][] cellCandidates;
+    
+    public GradientIndex(double[][] gradients) {
+        nDimensions = gradients[0].length;
+        nGradients = gradients.length;
+        gradientsFlat = new double[nGradients * nDimensions];
+        for (int j = 0; j < nGradients; j++) {
+            for (int i = 0; i < nDimensions; i++) gradientsFlat[j * nDimensions + i] = gradients[j][i];
+        }
+        floatGradientsFlat = new float[gradientsFlat.length];
+        for (int i = 0; i < gradientsFlat.length; i++) floatGradientsFlat[i] = (float)gradientsFlat[i];
+        
+        // Pick a grid resolution for each face, giving about TARGET_CELLS_PER_GRADIENT cells per gradient overall.
+        int nFaces = 2 * nDimensions;
+        int res = 1;
+        if (nDimensions > 1) {
+            res = (int)Math.ceil(Math.pow(TARGET_CELLS_PER_GRADIENT * nGradients / (double)nFaces, 1.0 / (nDimensions - 1)));
+            res = Math.max(1, res);
+            while (res > 1 && nFaces * Math.pow(res, nDimensions - 1) > MAX_CELLS) res--;
+        }
+        resolution = res;
+        cellsPerFace = (int)Math.pow(resolution, nDimensions - 1);
+        
+        double[] norms = Arrays.stream(gradients).mapToDouble(g -> Math.sqrt(Arrays.stream(g).map(v -> v * v).sum())).toArray();
+        double slack = 1e-9 * Arrays.stream(norms).max().orElse(1);
+        
+        cellCandidates = new int[nFaces * cellsPerFace][];
+        double[] center = new double[nDimensions];
+        double[] corner = new double[nDimensions];
+        for (int cell = 0; cell < cellCandidates.length; cell++) {
+            int face = cell / cellsPerFace;
+            int axis = face >> 1;
+            double sign = (face & 1) == 0 ? 1 : -1;
+            
+            // The cell is a rectangle on the face x[axis] = sign. Its directions form a cone around the normalized rectangle centre,
+            // and the furthest direction from that centre is always one of the rectangle's corners.
+            cellRectangleCorner(cell, axis, sign, -1, center);
+            normalize(center);
+            double maxChordSq = 0;
+            for (int cornerIndex = 0; cornerIndex < (1 << (nDimensions - 1)); cornerIndex++) {
+                cellRectangleCorner(cell, axis, sign, cornerIndex, corner);
+                normalize(corner);
+                double chordSq = 0;
+                for (int i = 0; i < nDimensions; i++) chordSq += (corner[i] - center[i]) * (corner[i] - center[i]);
+                maxChordSq = Math.max(maxChordSq, chordSq);
+            }
+            double chord = Math.sqrt(maxChordSq);
+            
+            // For a unit direction d in the cone, |d - center| <= chord, so each dot is within |g| * chord of its value at the centre.
+            // A gradient can only be the best somewhere in the cell if its upper bound reaches the best lower bound.
+            double[] centerDots = new double[nGradients];
+            double bestLowerBound = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < nGradients; j++) {
+                for (int i = 0; i < nDimensions; i++) centerDots[j] += gradientsFlat[j * nDimensions + i] * center[i];
+                bestLowerBound = Math.max(bestLowerBound, centerDots[j] - norms[j] * chord);
+            }
+            double threshold = bestLowerBound - slack;
+            cellCandidates[cell] = IntStream.range(0, nGradients).filter(j -> centerDots[j] + norms[j] * chord >= threshold).toArray();
+        }
+    }
+    
+    // Index of the gradient with the largest dot product against the direction. Lowest index wins ties, same as a full scan.
+    public int bestGradientIndex(double[] direction) {
+        int[] candidates = candidatesFor(direction);
+        if (candidates == null) return 0;
+        
+        double currentBestDot = Double.NEGATIVE_INFINITY;
+        int currentBestGradientIndex = -1;
+        for (int j : candidates) {
+            int offset = j * nDimensions;
+            double dot = 0;
+            for (int i = 0; i < nDimensions; i++) dot += direction[i] * gradientsFlat[offset + i];
+            if (dot > currentBestDot) {
+                currentBestGradientIndex = j;
+                currentBestDot = dot;
+            }
+        }
+        return currentBestGradientIndex;
+    }
+    
+    // Hand-unrolled versions of bestGradientIndex for 2D, 3D and 4D. Same cells, same candidates, same results.
+    public int bestGradientIndex(double x, double y) {
+        double ax = Math.abs(x), ay = Math.abs(y);
+        int cell;
+        if (ax >= ay) {
+            if (ax == 0) return 0;
+            cell = (x >= 0 ? 0 : 1) * cellsPerFace + bin(y / ax);
+        } else {
+            cell = (y >= 0 ? 2 : 3) * cellsPerFace + bin(x / ay);
+        }
+        
+        int[] candidates = cellCandidates[cell];
+        double[] g = gradientsFlat;
+        double currentBestDot = Double.NEGATIVE_INFINITY;
+        int currentBestGradientIndex = -1;
+        for (int j : candidates) {
+            int offset = j * 2;
+            double dot = x * g[offset] + y * g[offset + 1];
+            if (dot > currentBestDot) {
+                currentBestGradientIndex = j;
+                currentBestDot = dot;
+            }
+        }
+        return currentBestGradientIndex;
+    }
+    
+    public int bestGradientIndex(double x, double y, double z) {
+        double ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+        int cell;
+        if (ax >= ay && ax >= az) {
+            if (ax == 0) return 0;
+            cell = (x >= 0 ? 0 : 1) * cellsPerFace + bin(y / ax) * resolution + bin(z / ax);
+        } else if (ay >= az) {
+            cell = (y >= 0 ? 2 : 3) * cellsPerFace + bin(x / ay) * resolution + bin(z / ay);
+        } else {
+            cell = (z >= 0 ? 4 : 5) * cellsPerFace + bin(x / az) * resolution + bin(y / az);
+        }
+        
+        int[] candidates = cellCandidates[cell];
+        double[] g = gradientsFlat;
+        double currentBestDot = Double.NEGATIVE_INFINITY;
+        int currentBestGradientIndex = -1;
+        for (int j : candidates) {
+            int offset = j * 3;
+            double dot = x * g[offset] + y * g[offset + 1] + z * g[offset + 2];
+            if (dot > currentBestDot) {
+                currentBestGradientIndex = j;
+                currentBestDot = dot;
+            }
+        }
+        return currentBestGradientIndex;
+    }
+    
+    public int bestGradientIndex(double x, double y, double z, double w) {
+        double ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z), aw = Math.abs(w);
+        int r = resolution;
+        int cell;
+        if (ax >= ay && ax >= az && ax >= aw) {
+            if (ax == 0) return 0;
+            cell = (x >= 0 ? 0 : 1) * cellsPerFace + (bin(y / ax) * r + bin(z / ax)) * r + bin(w / ax);
+        } else if (ay >= az && ay >= aw) {
+            cell = (y >= 0 ? 2 : 3) * cellsPerFace + (bin(x / ay) * r + bin(z / ay)) * r + bin(w / ay);
+        } else if (az >= aw) {
+            cell = (z >= 0 ? 4 : 5) * cellsPerFace + (bin(x / az) * r + bin(y / az)) * r + bin(w / az);
+        } else {
+            cell = (w >= 0 ? 6 : 7) * cellsPerFace + (bin(x / aw) * r + bin(y / aw)) * r + bin(z / aw);
+        }
+        
+        int[] candidates = cellCandidates[cell];
+        double[] g = gradientsFlat;
+        double currentBestDot = Double.NEGATIVE_INFINITY;
+        int currentBestGradientIndex = -1;
+        for (int j : candidates) {
+            int offset = j * 4;
+            double dot = x * g[offset] + y * g[offset + 1] + z * g[offset + 2] + w * g[offset + 3];
+            if (dot > currentBestDot) {
+                currentBestGradientIndex = j;
+                currentBestDot = dot;
+            }
+        }
+        return currentBestGradientIndex;
+    }
+    
+    // Best gradient at one vertex for every lane of the batched mode, gathered into structure-of-arrays form for the lane kernels.
+    // Lanes out of range of the vertex (falloff <= 0, or falloffs == null for none) get index -1 and a zero gradient.
+    public void selectLaneGradients(double[][] displacements, double[] falloffs, int[] vertexGradientIndicesOut,
+            double[][] laneGradientsOut, double[] displacementScratch, int nLanes) {
+        for (int l = 0; l < nLanes; l++) {
+            int gradientIndex = -1;
+            if (falloffs == null || falloffs[l] > 0) {
+                switch (nDimensions) {
+                    case 2: gradientIndex = bestGradientIndex(displacements[0][l], displacements[1][l]); break;
+                    case 3: gradientIndex = bestGradientIndex(displacements[0][l], displacements[1][l], displacements[2][l]); break;
+                    case 4: gradientIndex = bestGradientIndex(displacements[0][l], displacements[1][l], displacements[2][l], displacements[3][l]); break;
+                    default:
+                        for (int i = 0; i < nDimensions; i++) displacementScratch[i] = displacements[i][l];
+                        gradientIndex = bestGradientIndex(displacementScratch);
+                }
+            }
+            vertexGradientIndicesOut[l] = gradientIndex;
+            int offset = gradientIndex * nDimensions;
+            for (int i = 0; i < nDimensions; i++) laneGradientsOut[i][l] = (gradientIndex < 0) ? 0 : gradientsFlat[offset + i];
+        }
+    }
+    
+    // Single-precision selectLaneGradients, for the mixed-precision batched mode. The cells and candidates are the same,
+    // so it can only pick differently from the double-precision one where two gradients are within rounding of a tie.
+    public void selectLaneGradients(float[][] displacements, float[] falloffs, int[] vertexGradientIndicesOut,
+            float[][] laneGradientsOut, float[] displacementScratch, int nLanes) {
+        for (int l = 0; l < nLanes; l++) {
+            int gradientIndex = -1;
+            if (falloffs == null || falloffs[l] > 0) {
+                for (int i = 0; i < nDimensions; i++) displacementScratch[i] = displacements[i][l];
+                gradientIndex = bestGradientIndex(displacementScratch);
+            }
+            vertexGradientIndicesOut[l] = gradientIndex;
+            int offset = gradientIndex * nDimensions;
+            for (int i = 0; i < nDimensions; i++) laneGradientsOut[i][l] = (gradientIndex < 0) ? 0 : floatGradientsFlat[offset + i];
+        }
+    }
+    
+    public int bestGradientIndex(float[] direction) {
+        int[] candidates = candidatesFor(direction);
+        if (candidates == null) return 0;
+        
+        float currentBestDot = Float.NEGATIVE_INFINITY;
+        int currentBestGradientIndex = -1;
+        for (int j : candidates) {
+            int offset = j * nDimensions;
+            float dot = 0;
+            for (int i = 0; i < nDimensions; i++) dot += direction[i] * floatGradientsFlat[offset + i];
+            if (dot > currentBestDot) {
+                currentBestGradientIndex = j;
+                currentBestDot = dot;
+            }
+        }
+        return currentBestGradientIndex;
+    }
+    
+    // The full scan over every gradient, for reference.
+    public int bestGradientIndexBruteForce(double[] direction) {
+        double currentBestDot = Double.NEGATIVE_INFINITY;
+        int currentBestGradientIndex = -1;
+        for (int j = 0; j < nGradients; j++) {
+            int offset = j * nDimensions;
+            double dot = 0;
+            for (int i = 0; i < nDimensions; i++) dot += direction[i] * gradientsFlat[offset + i];
+            if (dot > currentBestDot) {
+                currentBestGradientIndex = j;
+                currentBestDot = dot;
+            }
+        }
+        return currentBestGradientIndex;
+    }
+    
+    public int nCells() {
+        return cellCandidates.length;
+    }
+    
+    public double averageCandidatesPerCell() {
+        return Arrays.stream(cellCandidates).mapToInt(c -> c.length).average().orElse(0);
+    }
+    
+    // Candidate list of the cell containing this direction, or null for the zero vector.
+    // Every dot product is zero then, so the full scan would have returned the first gradient.
+    private int[] candidatesFor(double[] direction) {
+        int axis = 0;
+        double axisMagnitude = Math.abs(direction[0]);
+        for (int i = 1; i < nDimensions; i++) {
+            double magnitude = Math.abs(direction[i]);
+            if (magnitude > axisMagnitude) {
+                axis = i;
+                axisMagnitude = magnitude;
+            }
+        }
+        if (axisMagnitude == 0) return null;
+        
+        int cellInFace = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            if (i == axis) continue;
+            cellInFace = cellInFace * resolution + bin(direction[i] / axisMagnitude);
+        }
+        int face = axis * 2 + (direction[axis] >= 0 ? 0 : 1);
+        return cellCandidates[face * cellsPerFace + cellInFace];
+    }
+    
+    private int[] candidatesFor(float[] direction) {
+        int axis = 0;
+        float axisMagnitude = Math.abs(direction[0]);
+        for (int i = 1; i < nDimensions; i++) {
+            float magnitude = Math.abs(direction[i]);
+            if (magnitude > axisMagnitude) {
+                axis = i;
+                axisMagnitude = magnitude;
+            }
+        }
+        if (axisMagnitude == 0) return null;
+        
+        int cellInFace = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            if (i == axis) continue;
+            cellInFace = cellInFace * resolution + bin(direction[i] / axisMagnitude);
+        }
+        int face = axis * 2 + (direction[axis] >= 0 ? 0 : 1);
+        return cellCandidates[face * cellsPerFace + cellInFace];
+    }
+    
+    // Grid bin along one face axis, for a component already divided by the face axis magnitude (so it's in [-1, 1]).
+    private int bin(double u) {
+        int bin = (int)((u + 1) * 0.5 * resolution);
+        if (bin >= resolution) return resolution - 1;
+        if (bin < 0) return 0;
+        return bin;
+    }
+    
+    // Writes one corner of a cell's rectangle on its cube face (or its centre, for cornerIndex -1) into out.
+    private void cellRectangleCorner(int cell, int axis, double sign, int cornerIndex, double[] out) {
+        int cellInFace = cell % cellsPerFace;
+        int otherAxis = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            if (i == axis) {
+                out[i] = sign;
+                continue;
+            }
+            
+            // Same digit order as candidatesFor: the lowest non-face axis is the most significant digit.
+            int digitPlace = nDimensions - 2 - otherAxis;
+            int bin = (cellInFace / (int)Math.pow(resolution, digitPlace)) % resolution;
+            double lo = -1 + 2.0 * bin / resolution;
+            double hi = -1 + 2.0 * (bin + 1) / resolution;
+            if (cornerIndex < 0) out[i] = (lo + hi) * 0.5;
+            else out[i] = ((cornerIndex >> otherAxis) & 1) == 0 ? lo : hi;
+            otherAxis++;
+        }
+    }
+    
+    private static void normalize(double[] v) {
+        double magnitude = Math.sqrt(Arrays.stream(v).map(x -> x * x).sum());
+        for (int i = 0; i < v.length; i++) v[i] /= magnitude;
+    }
+}
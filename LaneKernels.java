@@ -0,0 +1,157 @@
+/*
+ * Lane-parallel arithmetic for the batched walker mode of both normalizers.
+ *
+ * Batched walkers keep their state as structure-of-arrays: one array per coordinate axis, indexed by walker ("lane").
+ * Picking the best gradients depends on each lane's own direction, so that stays scalar, but everything else in a step
+ * (falloff, value and derivative accumulation, and the masked point movement) is the same arithmetic on every lane.
+ *
+ * vector/VectorLaneKernels.java implements this with the incubating Vector API. It has to be compiled and run with
+ * `--add-modules jdk.incubator.vector`. When that class or module isn't there, ScalarLaneKernels is used instead.
+ *
+ * @author K.jpg
+ */
+
+public interface LaneKernels {
+    
+    // Displacement of every lane from one lattice vertex.
+    void displacement(double[][] coords, double[] latticePoint, double[][] displacementOut, int nLanes);
+    
+    // Radial falloff, falloffRadiusSq - |displacement|^2, for every lane. Not clamped.
+    void radialFalloff(double[][] displacement, double falloffRadiusSq, double[] falloffOut, int nLanes);
+    
+    // Adds falloff^4 * dot(displacement, gradient) and its derivative vector. Lanes with falloff <= 0 add nothing.
+    void accumulateRadial(double[][] displacement, double[] falloff, double[][] gradients,
+            double[] valueOut, double[][] derivativeOut, int nLanes);
+    
+    // Adds (product of per-axis fade curves) * dot(displacement, gradient) and its derivative vector.
+    // The fade curve is fadePolynomial (coefficients in ascending powers) evaluated at 1 - |a|, and zero for |a| >= 1.
+    void accumulateFade(double[][] displacement, double[] fadePolynomial, double[][] gradients,
+            double[] valueOut, double[][] derivativeOut, int nLanes);
+    
+    // Moves every pending lane by its derivative vector times rate, optionally clamping to the unit cell.
+    // Lanes whose coordinate changed stop being pending. Returns how many lanes are still pending.
+    int moveLanes(double[][] coords, double[][] derivative, double rate, boolean clampToUnitCell, boolean[] pending, int nLanes);
+    
+    static LaneKernels create(int nDimensions, int nLanes) {
+        try {
+            return (LaneKernels)Class.forName("VectorLaneKernels")
+                    .getConstructor(int.class, int.class).newInstance(nDimensions, nLanes);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarLaneKernels(nDimensions, nLanes);
+        }
+    }
+    
+    // Plain-loop fallback, used when the Vector API isn't available. The Range methods cover lanes [from, to),
+    // so the vector version can hand over the lanes past its last full vector.
+    final class ScalarLaneKernels implements LaneKernels {
+        private final int nDimensions;
+        private final double[][] fades, dFades;
+        
+        public ScalarLaneKernels(int nDimensions, int nLanes) {
+            this.nDimensions = nDimensions;
+            fades = new double[nDimensions][nLanes];
+            dFades = new double[nDimensions][nLanes];
+        }
+        
+        public void displacement(double[][] coords, double[] latticePoint, double[][] displacementOut, int nLanes) {
+            for (int i = 0; i < nDimensions; i++) {
+                double[] coord = coords[i], out = displacementOut[i];
+                double p = latticePoint[i];
+                for (int l = 0; l < nLanes; l++) out[l] = coord[l] - p;
+            }
+        }
+        
+        public void radialFalloff(double[][] displacement, double falloffRadiusSq, double[] falloffOut, int nLanes) {
+            for (int l = 0; l < nLanes; l++) falloffOut[l] = falloffRadiusSq;
+            for (int i = 0; i < nDimensions; i++) {
+                double[] a = displacement[i];
+                for (int l = 0; l < nLanes; l++) falloffOut[l] -= a[l] * a[l];
+            }
+        }
+        
+        public void accumulateRadial(double[][] displacement, double[] falloff, double[][] gradients,
+                double[] valueOut, double[][] derivativeOut, int nLanes) {
+            accumulateRadialRange(displacement, falloff, gradients, valueOut, derivativeOut, 0, nLanes);
+        }
+        
+        public void accumulateRadialRange(double[][] displacement, double[] falloff, double[][] gradients,
+                double[] valueOut, double[][] derivativeOut, int from, int to) {
+            for (int l = from; l < to; l++) {
+                double attn = falloff[l];
+                if (attn <= 0) continue;
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += displacement[i][l] * gradients[i][l];
+                double attnSq = attn * attn;
+                double attn4 = attnSq * attnSq;
+                valueOut[l] += attn4 * dot;
+                double dAttnDot = -8 * attnSq * attn * dot;
+                for (int i = 0; i < nDimensions; i++) derivativeOut[i][l] += dAttnDot * displacement[i][l] + attn4 * gradients[i][l];
+            }
+        }
+        
+        public void accumulateFade(double[][] displacement, double[] fadePolynomial, double[][] gradients,
+                double[] valueOut, double[][] derivativeOut, int nLanes) {
+            accumulateFadeRange(displacement, fadePolynomial, gradients, valueOut, derivativeOut, 0, nLanes);
+        }
+        
+        public void accumulateFadeRange(double[][] displacement, double[] fadePolynomial, double[][] gradients,
+                double[] valueOut, double[][] derivativeOut, int from, int to) {
+            for (int i = 0; i < nDimensions; i++) {
+                double[] a = displacement[i], fade = fades[i], dFade = dFades[i];
+                for (int l = from; l < to; l++) {
+                    double t = 1 - Math.abs(a[l]);
+                    if (t <= 0) {
+                        fade[l] = dFade[l] = 0;
+                        continue;
+                    }
+                    double value = 0, derivative = 0;
+                    for (int c = fadePolynomial.length - 1; c >= 0; c--) {
+                        derivative = derivative * t + value;
+                        value = value * t + fadePolynomial[c];
+                    }
+                    fade[l] = value;
+                    dFade[l] = a[l] < 0 ? derivative : -derivative;
+                }
+            }
+            for (int l = from; l < to; l++) {
+                double falloff = 1, dot = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    falloff *= fades[i][l];
+                    dot += displacement[i][l] * gradients[i][l];
+                }
+                valueOut[l] += falloff * dot;
+                for (int j = 0; j < nDimensions; j++) {
+                    double dFalloff = dFades[j][l];
+                    for (int i = 0; i < nDimensions; i++) {
+                        if (i != j) dFalloff *= fades[i][l];
+                    }
+                    derivativeOut[j][l] += gradients[j][l] * falloff + dot * dFalloff;
+                }
+            }
+        }
+        
+        public int moveLanes(double[][] coords, double[][] derivative, double rate, boolean clampToUnitCell, boolean[] pending, int nLanes) {
+            return moveLanesRange(coords, derivative, rate, clampToUnitCell, pending, 0, nLanes);
+        }
+        
+        public int moveLanesRange(double[][] coords, double[][] derivative, double rate, boolean clampToUnitCell, boolean[] pending, int from, int to) {
+            int nPending = 0;
+            for (int l = from; l < to; l++) {
+                if (!pending[l]) continue;
+                boolean moved = false;
+                for (int i = 0; i < nDimensions; i++) {
+                    double newValue = coords[i][l] + derivative[i][l] * rate;
+                    if (clampToUnitCell) {
+                        if (newValue > 1) newValue = 1;
+                        else if (newValue < 0) newValue = 0;
+                    }
+                    if (newValue != coords[i][l]) moved = true;
+                    coords[i][l] = newValue;
+                }
+                if (moved) pending[l] = false;
+                else nPending++;
+            }
+            return nPending;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+/*
+ * Seeded permutation hash from lattice vertices to gradient indices, the way real gradient noise implementations pick
+ * their gradients. Used to evaluate actual noise with a gradient set, to check a normalization (see NoiseValidator).
+ *
+ * Each lattice coordinate is folded through one shuffled table in turn, and a second shuffled table turns the hash into
+ * a gradient index, so every gradient comes up about equally often. The noise repeats every SIZE cells along each axis.
+ *
+ * @author K.jpg
+ */
+
+import java.util.SplittableRandom;
+
+public final class LatticeHash {
+    
+    public static final int SIZE = 2048;
+    private static final int MASK = SIZE - 1;
+    
+    private final short[] perm = new short[SIZE];
+    private final short[] permGradientIndex = new short[SIZE];
+    
+    public LatticeHash(long seed, int nGradients) {
+        SplittableRandom random = new SplittableRandom(seed);
+        short[] gradientOrder = new short[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            perm[i] = (short)i;
+            gradientOrder[i] = (short)i;
+        }
+        shuffle(perm, random);
+        shuffle(gradientOrder, random);
+        for (int i = 0; i < SIZE; i++) permGradientIndex[i] = (short)(gradientOrder[i] % nGradients);
+    }
+    
+    private static void shuffle(short[] values, SplittableRandom random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            short swap = values[i]; values[i] = values[j]; values[j] = swap;
+        }
+    }
+    
+    public int gradientIndex(int[] vertex) {
+        int hash = 0;
+        for (int c : vertex) hash = perm[(hash ^ c) & MASK];
+        return permGradientIndex[hash];
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Append-only binary log of every converged local maximum, written through a memory-mapped file, which doubles as the
+ * checkpoint a stopped run resumes from (see CHECKPOINT_PATH in the normalizers).
+ *
+ * The header holds the run's counters and how far the start point sequence got. Each record holds a maximum's value,
+ * location, starting location, and the gradient index of every vertex which contributes there. A record only counts
+ * once the header's end offset has moved past it, so a run killed mid-append loses that one record at most. Writes go
+ * to the page cache, so they survive the JVM being stopped. They're forced to disk every so often as well. Logs are
+ * mapped as one buffer, so they can grow to 2 GiB.
+ *
+ * The best maximum is just the highest record, so it doesn't need checkpointing separately. To read a log offline:
+ *     java MaximaLog run.log          (summary, and the highest maxima)
+ *     java MaximaLog run.log csv      (every record, as CSV)
+ *
+ * @author K.jpg
+ */
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+public final class MaximaLog implements AutoCloseable {
+    
+    private static final int MAGIC = 0x4E4E4D4C; // "NNML"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_N_DIMENSIONS = 8, OFFSET_N_LATTICE_VERTICES = 12, OFFSET_FINGERPRINT = 16;
+    private static final int OFFSET_RECORD_COUNT = 24, OFFSET_END = 32, OFFSET_START_POINT_BLOCKS = 40, OFFSET_RESTARTS = 48, OFFSET_EVALUATIONS = 56;
+    
+    // The file is mapped in steps of this size, and grows by remapping.
+    private static final long MAPPING_STEP = 1 << 24;
+    
+    public static final class Record {
+        public final double value;
+        public final double[] coord, startingCoord;
+        public final int[] gradientIndices;
+        
+        Record(double value, double[] coord, double[] startingCoord, int[] gradientIndices) {
+            this.value = value;
+            this.coord = coord;
+            this.startingCoord = startingCoord;
+            this.gradientIndices = gradientIndices;
+        }
+    }
+    
+    private final FileChannel channel;
+    private final int nDimensions, nLatticeVertices;
+    private final long fingerprint;
+    private final long forceIntervalNanos;
+    private final boolean readOnly;
+    private MappedByteBuffer buffer;
+    private long lastForceNanos = System.nanoTime();
+    
+    private MaximaLog(FileChannel channel, int nDimensions, int nLatticeVertices, long fingerprint, double forceIntervalSeconds,
+            boolean readOnly) throws IOException {
+        this.channel = channel;
+        this.nDimensions = nDimensions;
+        this.nLatticeVertices = nLatticeVertices;
+        this.fingerprint = fingerprint;
+        this.forceIntervalNanos = (long)(forceIntervalSeconds * 1e9);
+        this.readOnly = readOnly;
+        map(readOnly ? channel.size() : Math.max(channel.size(), MAPPING_STEP));
+    }
+    
+    // Opens the log for appending, creating it if it doesn't exist yet. An existing log has to have been written by the
+    // same configuration, which the fingerprint identifies.
+    public static MaximaLog open(Path path, int nDimensions, int nLatticeVertices, long fingerprint, double forceIntervalSeconds) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean isNew = channel.size() == 0;
+        MaximaLog log = new MaximaLog(channel, nDimensions, nLatticeVertices, fingerprint, forceIntervalSeconds, false);
+        if (isNew) {
+            log.buffer.putInt(0, MAGIC);
+            log.buffer.putInt(4, VERSION);
+            log.buffer.putInt(OFFSET_N_DIMENSIONS, nDimensions);
+            log.buffer.putInt(OFFSET_N_LATTICE_VERTICES, nLatticeVertices);
+            log.buffer.putLong(OFFSET_FINGERPRINT, fingerprint);
+            log.buffer.putLong(OFFSET_END, HEADER_SIZE);
+        } else {
+            log.checkHeader(path);
+            if (log.buffer.getLong(OFFSET_FINGERPRINT) != fingerprint) {
+                channel.close();
+                throw new IllegalStateException(path + " was written for a different noise configuration");
+            }
+        }
+        return log;
+    }
+    
+    // Opens an existing log for reading only, whatever configuration wrote it.
+    public static MaximaLog read(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        MaximaLog log = new MaximaLog(channel, header.getInt(OFFSET_N_DIMENSIONS), header.getInt(OFFSET_N_LATTICE_VERTICES),
+                header.getLong(OFFSET_FINGERPRINT), Double.POSITIVE_INFINITY, true);
+        log.checkHeader(path);
+        return log;
+    }
+    
+    private void checkHeader(Path path) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IllegalStateException(path + " isn't a maxima log, or is from another version");
+        }
+        if (buffer.getInt(OFFSET_N_DIMENSIONS) != nDimensions || buffer.getInt(OFFSET_N_LATTICE_VERTICES) != nLatticeVertices) {
+            channel.close();
+            throw new IllegalStateException(path + " was written for " + buffer.getInt(OFFSET_N_DIMENSIONS) + " dimensions");
+        }
+    }
+    
+    private void map(long size) throws IOException {
+        buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    // Appends a converged maximum, and brings the counters in the header up to date with it.
+    public synchronized void append(double value, double[] coord, double[] startingCoord, int[] gradientIndices,
+            long startPointBlocks, long restarts, long evaluations) throws IOException {
+        int nContributing = 0;
+        for (int gradientIndex : gradientIndices) {
+            if (gradientIndex >= 0) nContributing++;
+        }
+        long position = buffer.getLong(OFFSET_END);
+        long end = position + Double.BYTES * (1 + 2 * nDimensions) + Integer.BYTES * (1 + 2 * nContributing);
+        if (end > buffer.capacity()) map((end / MAPPING_STEP + 1) * MAPPING_STEP);
+        
+        int p = (int)position;
+        buffer.putDouble(p, value); p += Double.BYTES;
+        for (int i = 0; i < nDimensions; i++, p += Double.BYTES) buffer.putDouble(p, coord[i]);
+        for (int i = 0; i < nDimensions; i++, p += Double.BYTES) buffer.putDouble(p, startingCoord[i]);
+        buffer.putInt(p, nContributing); p += Integer.BYTES;
+        for (int k = 0; k < nLatticeVertices; k++) {
+            if (gradientIndices[k] < 0) continue;
+            buffer.putInt(p, k);
+            buffer.putInt(p + Integer.BYTES, gradientIndices[k]);
+            p += 2 * Integer.BYTES;
+        }
+        
+        // The record only counts from here on.
+        buffer.putLong(OFFSET_END, end);
+        buffer.putLong(OFFSET_RECORD_COUNT, buffer.getLong(OFFSET_RECORD_COUNT) + 1);
+        checkpoint(startPointBlocks, restarts, evaluations);
+    }
+    
+    // Brings the counters up to date, and forces everything to disk if it's been long enough.
+    public synchronized void checkpoint(long startPointBlocks, long restarts, long evaluations) {
+        buffer.putLong(OFFSET_START_POINT_BLOCKS, startPointBlocks);
+        buffer.putLong(OFFSET_RESTARTS, restarts);
+        buffer.putLong(OFFSET_EVALUATIONS, evaluations);
+        if (System.nanoTime() - lastForceNanos > forceIntervalNanos) {
+            buffer.force();
+            lastForceNanos = System.nanoTime();
+        }
+    }
+    
+    public synchronized long recordCount() {
+        return buffer.getLong(OFFSET_RECORD_COUNT);
+    }
+    
+    public synchronized long startPointBlocks() {
+        return buffer.getLong(OFFSET_START_POINT_BLOCKS);
+    }
+    
+    public synchronized long restarts() {
+        return buffer.getLong(OFFSET_RESTARTS);
+    }
+    
+    public synchronized long evaluations() {
+        return buffer.getLong(OFFSET_EVALUATIONS);
+    }
+    
+    // Every record, in the order they were appended.
+    public synchronized void forEach(Consumer<Record> action) {
+        long end = buffer.getLong(OFFSET_END);
+        for (int p = HEADER_SIZE; p < end; ) {
+            double value = buffer.getDouble(p); p += Double.BYTES;
+            double[] coord = new double[nDimensions], startingCoord = new double[nDimensions];
+            for (int i = 0; i < nDimensions; i++, p += Double.BYTES) coord[i] = buffer.getDouble(p);
+            for (int i = 0; i < nDimensions; i++, p += Double.BYTES) startingCoord[i] = buffer.getDouble(p);
+            int[] gradientIndices = new int[nLatticeVertices];
+            Arrays.fill(gradientIndices, -1);
+            int nContributing = buffer.getInt(p); p += Integer.BYTES;
+            for (int c = 0; c < nContributing; c++, p += 2 * Integer.BYTES) gradientIndices[buffer.getInt(p)] = buffer.getInt(p + Integer.BYTES);
+            action.accept(new Record(value, coord, startingCoord, gradientIndices));
+        }
+    }
+    
+    public synchronized void close() throws IOException {
+        if (!readOnly) buffer.force();
+        channel.close();
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java MaximaLog run.log [csv]");
+            return;
+        }
+        try (MaximaLog log = read(Paths.get(args[0]))) {
+            if (args.length > 1 && args[1].equals("csv")) {
+                System.out.println("value,location,startingLocation,gradientIndices");
+                log.forEach(record -> System.out.println(record.value + "," + join(record.coord) + "," + join(record.startingCoord) + ","
+                        + Arrays.stream(record.gradientIndices).mapToObj(Integer::toString).collect(Collectors.joining(" "))));
+                return;
+            }
+            List<Record> records = new ArrayList<>();
+            log.forEach(records::add);
+            records.sort(Comparator.comparingDouble((Record record) -> record.value).reversed());
+            System.out.println("Dimensions: " + log.nDimensions + ", lattice vertices: " + log.nLatticeVertices
+                    + ", configuration fingerprint: " + Long.toHexString(log.fingerprint));
+            System.out.println("Converged maxima: " + log.recordCount() + ", restarts: " + log.restarts() + ", evaluations: " + log.evaluations()
+                    + ", start point blocks taken: " + log.startPointBlocks());
+            System.out.println("Highest maxima (value, location):");
+            records.stream().limit(20).forEach(record -> System.out.println(record.value + ", " + Arrays.toString(record.coord)));
+        }
+    }
+    
+    private static String join(double[] values) {
+        return Arrays.stream(values).mapToObj(Double::toString).collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Newton polishing stage for the gradient ascent, shared by both normalizers.
+ *
+ * While every contributing vertex keeps the same best gradient, the noise is one smooth function of the coordinates
+ * (a polynomial, for the falloffs used here). Near a maximum, Newton iterations on its analytic Hessian converge to machine
+ * precision in a handful of steps, where first-order steps need thousands. The noise-specific part is the SmoothPiece:
+ * the value, derivative vector and Hessian with the vertex gradients held fixed, which also says when a point has left
+ * the region where those gradients are the best ones.
+ *
+ * @author K.jpg
+ */
+
+public final class NewtonPolisher {
+    
+    public interface SmoothPiece {
+        
+        // Value, derivative vector and Hessian at coord with the gradients held fixed, or NaN if they aren't all the
+        // best ones at coord any more.
+        double evaluate(double[] coord, double[] derivativeOut, double[][] hessianOut);
+        
+        // Clamps coord into the search domain, in place.
+        void project(double[] coord);
+        
+        // Whether an axis is pinned to a boundary of the search domain, with the derivative pointing out of it.
+        boolean isPinned(double[] coord, double[] derivative, int axis);
+    }
+    
+    private static int MAX_ITERATIONS = 50;
+    private static int MAX_STEP_HALVINGS = 60;
+    
+    // The polish has converged once the full Newton step is shorter than this, at a negative definite Hessian.
+    private static double STEP_TOLERANCE = 1e-12;
+    
+    private final int nDimensions;
+    private double[] derivative, trialDerivative;
+    private double[][] hessian, trialHessian;
+    private final double[] trialCoord, step;
+    private final double[][] system;
+    private final int[] freeAxes;
+    private int evaluations;
+    private double derivativeMagnitude;
+    
+    public NewtonPolisher(int nDimensions) {
+        this.nDimensions = nDimensions;
+        derivative = new double[nDimensions];
+        trialDerivative = new double[nDimensions];
+        hessian = new double[nDimensions][nDimensions];
+        trialHessian = new double[nDimensions][nDimensions];
+        trialCoord = new double[nDimensions];
+        step = new double[nDimensions];
+        system = new double[nDimensions][nDimensions];
+        freeAxes = new int[nDimensions];
+    }
+    
+    // Runs damped Newton iterations from coord, updating it in place. Returns true if they converged to a maximum of the
+    // smooth piece. If they didn't (e.g. the maximum is on a ridge where the best gradients change), coord still only
+    // ever moves uphill within the piece.
+    public boolean polish(double[] coord, SmoothPiece piece) {
+        evaluations = 1;
+        double value = piece.evaluate(coord, derivative, hessian);
+        if (Double.isNaN(value)) {
+            derivativeMagnitude = Double.NaN;
+            return false;
+        }
+        
+        boolean converged = false;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            boolean definite = newtonStep(coord, piece);
+            double stepLengthSq = 0;
+            for (int i = 0; i < nDimensions; i++) stepLengthSq += step[i] * step[i];
+            if (definite && stepLengthSq <= STEP_TOLERANCE * STEP_TOLERANCE) {
+                converged = true;
+                break;
+            }
+            
+            // Halve the step until it stays in the piece and doesn't go downhill (beyond rounding error in the value).
+            double valueTolerance = 4 * Math.ulp(value);
+            double t = 1;
+            boolean moved = false;
+            for (int h = 0; h < MAX_STEP_HALVINGS; h++, t *= 0.5) {
+                boolean pointChanged = false;
+                for (int i = 0; i < nDimensions; i++) trialCoord[i] = coord[i] + step[i] * t;
+                piece.project(trialCoord);
+                for (int i = 0; i < nDimensions; i++) {
+                    if (trialCoord[i] != coord[i]) pointChanged = true;
+                }
+                if (!pointChanged) break;
+                
+                double trialValue = piece.evaluate(trialCoord, trialDerivative, trialHessian);
+                evaluations++;
+                if (trialValue >= value - valueTolerance) {
+                    System.arraycopy(trialCoord, 0, coord, 0, nDimensions);
+                    double[] swapDerivative = derivative; derivative = trialDerivative; trialDerivative = swapDerivative;
+                    double[][] swapHessian = hessian; hessian = trialHessian; trialHessian = swapHessian;
+                    value = trialValue;
+                    moved = true;
+                    break;
+                }
+            }
+            if (!moved) {
+                converged = definite && stepLengthSq <= STEP_TOLERANCE * STEP_TOLERANCE;
+                break;
+            }
+        }
+        
+        derivativeMagnitude = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            if (!piece.isPinned(coord, derivative, i)) derivativeMagnitude += derivative[i] * derivative[i];
+        }
+        derivativeMagnitude = Math.sqrt(derivativeMagnitude);
+        return converged;
+    }
+    
+    // Magnitude of the derivative vector where the last polish ended, leaving out pinned axes.
+    public double derivativeMagnitude() {
+        return derivativeMagnitude;
+    }
+    
+    // Evaluations the last polish made.
+    public int evaluations() {
+        return evaluations;
+    }
+    
+    // Solves -H s = derivative over the free axes into step. If -H isn't positive definite there, it's shifted by a
+    // multiple of the identity until it is (Levenberg-Marquardt), which keeps the step uphill. Returns false if it needed that.
+    private boolean newtonStep(double[] coord, SmoothPiece piece) {
+        int nFree = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            step[i] = 0;
+            if (!piece.isPinned(coord, derivative, i)) freeAxes[nFree++] = i;
+        }
+        if (nFree == 0) return true;
+        
+        double maxDiagonal = 0;
+        for (int a = 0; a < nFree; a++) maxDiagonal = Math.max(maxDiagonal, Math.abs(hessian[freeAxes[a]][freeAxes[a]]));
+        double shift = 0;
+        while (!choleskyFactor(nFree, shift)) {
+            shift = (shift == 0) ? 1e-10 * (1 + maxDiagonal) : shift * 10;
+        }
+        
+        // Forward, then back substitution with the factor L (in the lower triangle of system), L L^T s = derivative.
+        for (int a = 0; a < nFree; a++) {
+            double sum = derivative[freeAxes[a]];
+            for (int b = 0; b < a; b++) sum -= system[a][b] * step[freeAxes[b]];
+            step[freeAxes[a]] = sum / system[a][a];
+        }
+        for (int a = nFree - 1; a >= 0; a--) {
+            double sum = step[freeAxes[a]];
+            for (int b = a + 1; b < nFree; b++) sum -= system[b][a] * step[freeAxes[b]];
+            step[freeAxes[a]] = sum / system[a][a];
+        }
+        return shift == 0;
+    }
+    
+    // Cholesky factor of -H + shift I over the free axes, into the lower triangle of system. False if not positive definite.
+    private boolean choleskyFactor(int nFree, double shift) {
+        for (int a = 0; a < nFree; a++) {
+            for (int b = 0; b <= a; b++) {
+                double sum = -hessian[freeAxes[a]][freeAxes[b]] + (a == b ? shift : 0);
+                for (int c = 0; c < b; c++) sum -= system[a][c] * system[b][c];
+                if (a == b) {
+                    if (!(sum > 0)) return false;
+                    system[a][a] = Math.sqrt(sum);
+                } else {
+                    system[a][b] = sum / system[b][b];
+                }
+            }
+        }
+        return true;
+    }
+}
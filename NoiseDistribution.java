@@ -0,0 +1,175 @@
+/*
+ * Distribution mode: samples actual seeded, permutation-hashed noise (see LatticeHash) over a large region, the same way
+ * NoiseValidator does, and reports its percentiles and empirical CDF instead of only checking its range. For layers
+ * normalized by a high percentile rather than the absolute maximum, which a few rare peaks can pull up a long way.
+ *
+ * Usage: java NoiseDistribution distribution.txt [cdf.csv]
+ * The file lists configurations in the sweep file format (see SweepRunner). Extra keys:
+ *     samples   points to evaluate (default SAMPLES), e.g. 1e9
+ *     region    side of the region sampled, in cells from the origin (default REGION_SIZE)
+ *     seed      hash seed (default 0)
+ *     range     the histogram covers [-range, range] (default 1, for gradients that are already normalized)
+ *     bins      histogram bins (default N_BINS)
+ *
+ * Nothing keeps the raw values. Each tile of the region is sampled into its own quantile sketch (see QuantileSketch) and
+ * fixed-bin histogram, and those are merged as the tiles finish, so memory stays the same however many samples there
+ * are. The percentiles come from the sketch, and the CDF written to the CSV comes from the histogram, which counts
+ * exactly but only to a bin's width.
+ *
+ * @author K.jpg
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class NoiseDistribution {
+    
+    private static int N_THREADS = Runtime.getRuntime().availableProcessors();
+    private static long SAMPLES = 1L << 30;
+    private static double REGION_SIZE = LatticeHash.SIZE;
+    private static double HISTOGRAM_RANGE = 1;
+    private static int N_BINS = 2000;
+    private static int SAMPLES_PER_TILE = 1 << 20;
+    
+    // Higher keeps more centroids, for more accurate percentiles. At 1000, the last one holds about 1e-5 of the samples.
+    private static double SKETCH_COMPRESSION = 1000;
+    
+    // Printed as percentiles, with the multiplier that would normalize each to 1.
+    private static double[] QUANTILES = { 0.0001, 0.001, 0.01, 0.5, 0.99, 0.999, 0.9999 };
+    
+    public static final class Result {
+        public final QuantileSketch sketch;
+        public final long[] bins;
+        public final long below, above;
+        public final double range, elapsedSeconds;
+        
+        Result(QuantileSketch sketch, long[] bins, long below, long above, double range, double elapsedSeconds) {
+            this.sketch = sketch;
+            this.bins = bins;
+            this.below = below;
+            this.above = above;
+            this.range = range;
+            this.elapsedSeconds = elapsedSeconds;
+        }
+        
+        // Fraction of the samples at or below the upper edge of each bin.
+        public double[] cdf() {
+            double[] cdf = new double[bins.length];
+            long cumulative = below;
+            for (int b = 0; b < bins.length; b++) {
+                cumulative += bins[b];
+                cdf[b] = (double)cumulative / sketch.count();
+            }
+            return cdf;
+        }
+        
+        public double binUpperEdge(int bin) {
+            return -range + 2 * range * (bin + 1) / bins.length;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java NoiseDistribution distribution.txt [cdf.csv]");
+            return;
+        }
+        Path configurationPath = Paths.get(args[0]);
+        PrintStream out = (args.length > 1) ? new PrintStream(Files.newOutputStream(Paths.get(args[1])), true, "UTF-8") : null;
+        if (out != null) out.println("configuration,value,cdf");
+        ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        for (Map<String, String> configuration : SweepRunner.readSweep(configurationPath)) {
+            String name = SweepRunner.describe(configuration);
+            System.out.println(name);
+            Result result = sample(SweepRunner.createKernel(configuration, configurationPath),
+                    (long)Double.parseDouble(configuration.getOrDefault("samples", Long.toString(SAMPLES))),
+                    Double.parseDouble(configuration.getOrDefault("region", Double.toString(REGION_SIZE))),
+                    Long.parseLong(configuration.getOrDefault("seed", "0")),
+                    Double.parseDouble(configuration.getOrDefault("range", Double.toString(HISTOGRAM_RANGE))),
+                    Integer.parseInt(configuration.getOrDefault("bins", Integer.toString(N_BINS))), pool);
+            print(result);
+            if (out != null) {
+                double[] cdf = result.cdf();
+                for (int b = 0; b < cdf.length; b++) out.println("\"" + name + "\"," + result.binUpperEdge(b) + "," + cdf[b]);
+            }
+        }
+        pool.shutdown();
+        if (out != null) out.close();
+    }
+    
+    // With the defaults, on its own pool. For the normalizers' DISTRIBUTION_SAMPLES.
+    public static Result sample(NoiseKernel kernel, long samples) {
+        ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        Result result = sample(kernel, samples, REGION_SIZE, 0, HISTOGRAM_RANGE, N_BINS, pool);
+        pool.shutdown();
+        return result;
+    }
+    
+    public static Result sample(NoiseKernel kernel, long samples, double regionSize, long seed, double range, int nBins, ForkJoinPool pool) {
+        long startNanos = System.nanoTime();
+        int nTiles = (int)Math.max(1, (samples + SAMPLES_PER_TILE - 1) / SAMPLES_PER_TILE);
+        Result merged = pool.submit(() -> IntStream.range(0, nTiles).parallel()
+                .mapToObj(tile -> sampleTile(kernel, tile, nTiles, samples / nTiles + (tile < samples % nTiles ? 1 : 0), regionSize, seed, range, nBins))
+                .reduce(NoiseDistribution::merge).get()).join();
+        return new Result(merged.sketch, merged.bins, merged.below, merged.above, range, (System.nanoTime() - startNanos) * 1e-9);
+    }
+    
+    // The same points NoiseValidator would evaluate for this tile, with the same seed.
+    private static Result sampleTile(NoiseKernel kernel, int tile, int nTiles, long samples, double regionSize, long seed, double range, int nBins) {
+        NoiseKernel.HashedEvaluator evaluator = kernel.createHashedEvaluator(seed);
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + tile);
+        int nDimensions = kernel.nDimensions();
+        double tileWidth = regionSize / nTiles, tileStart = tile * tileWidth;
+        double[] coord = new double[nDimensions];
+        QuantileSketch sketch = new QuantileSketch(SKETCH_COMPRESSION);
+        long[] bins = new long[nBins];
+        long below = 0, above = 0;
+        double binsPerUnit = nBins / (2 * range);
+        
+        for (long n = 0; n < samples; n++) {
+            coord[0] = tileStart + random.nextDouble() * tileWidth;
+            for (int i = 1; i < nDimensions; i++) coord[i] = random.nextDouble() * regionSize;
+            double value = evaluator.evaluate(coord);
+            sketch.add(value);
+            int bin = (int)Math.floor((value + range) * binsPerUnit);
+            if (bin < 0) below++;
+            else if (bin >= nBins) above++;
+            else bins[bin]++;
+        }
+        return new Result(sketch, bins, below, above, range, 0);
+    }
+    
+    private static Result merge(Result a, Result b) {
+        a.sketch.merge(b.sketch);
+        for (int i = 0; i < a.bins.length; i++) a.bins[i] += b.bins[i];
+        return new Result(a.sketch, a.bins, a.below + b.below, a.above + b.above, a.range, 0);
+    }
+    
+    public static void print(Result result) {
+        QuantileSketch sketch = result.sketch;
+        System.out.println("Samples: " + sketch.count() + " (" + (sketch.count() / result.elapsedSeconds) + "/s)");
+        System.out.println("Min: " + sketch.min());
+        for (double q : QUANTILES) {
+            double value = sketch.quantile(q);
+            System.out.println(String.format("p%s: %s (multiplier %s)", formatPercent(q), value, 1 / Math.abs(value)));
+        }
+        System.out.println("Max: " + sketch.max() + " (multiplier " + (1 / sketch.max()) + ")");
+        if (result.below + result.above > 0) {
+            System.out.println("Outside the histogram's [" + -result.range + ", " + result.range + "]: " + result.below
+                    + " below, " + result.above + " above. Set range to see their CDF.");
+        }
+        System.out.println();
+    }
+    
+    // e.g. 99.99 for 0.9999, without the floating point noise of q * 100.
+    private static String formatPercent(double q) {
+        return new BigDecimal(Double.toString(q)).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+}
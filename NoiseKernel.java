@@ -0,0 +1,101 @@
+/*
+ * What the search engine needs to know about one kind of noise. SimplexKernel and PerlinKernel implement it.
+ *
+ * The search itself (restarts, ascent, polishing, caching, batching, bounding and reporting) is the same for every noise,
+ * and lives in SearchEngine. A kernel supplies the lattice, the value and derivative vector at a point, and the domain
+ * rule: where starting points go, and how points are kept inside the search domain. Another noise is another kernel.
+ *
+ * @author K.jpg
+ */
+
+public interface NoiseKernel {
+    
+    // Computes the noise at a point, for one walker. Doesn't have to be thread-safe.
+    interface Evaluator {
+        
+        // Returns the value, and fills in the derivative vector and the gradient index of every lattice vertex (-1 for
+        // vertices that don't contribute). May move coord to an equivalent point, in place.
+        double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut);
+        
+        // Value, derivative vector and Hessian with every vertex's gradient held at gradientIndices, as filled in by
+        // evaluate. Returns NaN if any vertex would pick a different gradient at coord. See NewtonPolisher.
+        double evaluateSmoothPiece(double[] coord, int[] gradientIndices, double[] derivativeOut, double[][] hessianOut);
+    }
+    
+    // Computes the noise's slope at a point, for one walker of a SlopeKernel. Doesn't have to be thread-safe.
+    interface SlopeEvaluator {
+        
+        // The steepest slope along direction (a unit vector) that any choice of vertex gradients gives at coord, with
+        // each vertex taking the gradient that adds the most slope. Fills in that slope's derivative vectors with respect
+        // to coord and to direction, and the gradient indices, like Evaluator.evaluate. May move coord the same way.
+        double evaluateSlope(double[] coord, double[] direction, double[] coordDerivativeOut, double[] directionDerivativeOut, int[] gradientIndicesOut);
+    }
+    
+    // Computes the noise for many walkers in lock-step, with their state in structure-of-arrays form. See LaneKernels.
+    interface LaneEvaluator {
+        
+        // Same as Evaluator.evaluate, for every lane. gradientIndicesOut is indexed by vertex, then lane.
+        void evaluate(double[][] coords, double[] valuesOut, double[][] derivativesOut, int[][] gradientIndicesOut, int nLanes);
+        
+        // Moves every pending lane by its derivative vector times rate, keeping it inside the search domain. Lanes whose
+        // coordinate changed stop being pending. Returns how many lanes are still pending.
+        int moveLanes(double[][] coords, double[][] derivatives, double rate, boolean[] pending, int nLanes);
+    }
+    
+    // Single-precision LaneEvaluator, for the exploring half of the mixed-precision batched mode. Steers walkers towards
+    // maxima, but nothing it computes is ever reported. See SearchEngine and FloatLaneKernels.
+    interface FloatLaneEvaluator {
+        void evaluate(float[][] coords, float[] valuesOut, float[][] derivativesOut, int[][] gradientIndicesOut, int nLanes);
+        int moveLanes(float[][] coords, float[][] derivatives, float rate, boolean[] pending, int nLanes);
+    }
+    
+    // Computes actual noise, with each lattice vertex's gradient picked by a seeded hash (see LatticeHash) instead of being
+    // the best one. The value at any point is at most the best-gradient value there. See NoiseValidator. Doesn't have to
+    // be thread-safe.
+    interface HashedEvaluator {
+        double evaluate(double[] coord);
+    }
+    
+    // Shown in the results, e.g. "Simplex"
+    String name();
+    
+    int nDimensions();
+    
+    // The lattice vertices that can contribute anywhere in the cell, relative to it. Gradient indices are indexed the same way.
+    double[][] latticeVertices();
+    
+    // The index every evaluator picks each vertex's gradient with.
+    GradientIndex gradientIndex();
+    
+    // Symmetries of the noise which map the search domain onto itself.
+    SymmetryGroup symmetryGroup();
+    
+    // Maps a point of the unit cube onto the search domain (the cell), in place.
+    void mapFromUnitCube(double[] coord);
+    
+    // Moves a point anywhere in space to the equivalent point of the cell, by a lattice translation, in place. The
+    // best-gradient noise repeats on the lattice, so the value stays the same. See FractalKernel.
+    void wrapIntoCell(double[] coord);
+    
+    // Clamps coord into the search domain, in place.
+    void project(double[] coord);
+    
+    // Whether an axis is pinned to a boundary of the search domain, with the derivative pointing out of it.
+    boolean isPinned(double[] coord, double[] derivative, int axis);
+    
+    Evaluator createEvaluator();
+    
+    LaneEvaluator createLaneEvaluator(int nLanes);
+    
+    // Null if the noise has no single-precision path. The mixed-precision batched mode then runs in double precision.
+    FloatLaneEvaluator createFloatLaneEvaluator(int nLanes);
+    
+    HashedEvaluator createHashedEvaluator(long seed);
+    
+    // Null if the noise has no slope to search for, e.g. the slope itself.
+    SlopeEvaluator createSlopeEvaluator();
+    
+    // Interval bounds on the noise over the cell, for the branch-and-bound. Null if there aren't any. SearchEngine then
+    // turns down certifyUpperBound.
+    BranchAndBound.BoxObjective boxObjective();
+}
@@ -15,19 +15,118 @@
  * @author K.jpg
  */
 
-import java.util.Arrays;
-import java.util.stream.IntStream;
-import java.util.Random;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class NoiseNormalizer {
     
     private static double CONVERGENCE_RATE = 1.0 / 512;
     private static int MAX_RATE_RETRY_MULTIPLIER_EXPONENT = 4;
     
+    // How the ascent picks its step sizes, see StepStrategy. FixedRateDoubling is the original behaviour: CONVERGENCE_RATE,
+    // doubled up to MAX_RATE_RETRY_MULTIPLIER times when the point doesn't move. The batched mode climbs in with that one,
+    // then finishes each walker with this.
+    private static StepStrategy.Type STEP_STRATEGY = StepStrategy.Type.FixedRateDoubling;
+    
+    // Once a walker's gradient indices have held for this many steps, the noise around it is one smooth polynomial, so the
+    // round finishes with Newton iterations on its analytic Hessian instead (see NewtonPolisher). Set to 0 to turn this off.
+    private static int NEWTON_POLISH_AFTER_STABLE_STEPS = 16;
+    
+    // Once a walker's gradient indices have held for this many steps, and a previous round already converged from that
+    // region, the round stops there and reports the known maximum (see BasinCache).
+    private static boolean USE_BASIN_CACHE = true;
+    private static int BASIN_CACHE_AFTER_STABLE_STEPS = 4;
+    private static int PRINTED_BASIN_COUNT = 12;
+    
+    // Number of independent gradient ascent walkers, each doing its own random restarts on its own thread.
+    // Set this to 1 to get the original single-walker behaviour, including the per-step progress output.
+    private static int N_THREADS = Runtime.getRuntime().availableProcessors();
+    private static boolean PRINT_ASCENT_PROGRESS = (N_THREADS == 1);
+    
+    // Progress output (ascent progress, and the results whenever the best value improves) is printed at most once per this
+    // many seconds. Set METRICS_REPORT_SECONDS above 0 to also print a line of run metrics that often (see SearchMetrics).
+    private static double PROGRESS_INTERVAL_SECONDS = 1;
+    private static double METRICS_REPORT_SECONDS = 0;
+    
+    // Set this above 0 to have each thread advance this many walkers together in lock-step (batched mode), e.g. 1024.
+    // Uses the Vector API when vector/VectorLaneKernels.java is compiled and jdk.incubator.vector is added, see LaneKernels.
+    // Each walker is finished like a single one, once its fixed-rate steps stop raising its value.
+    private static int BATCH_SIZE = 0;
+    
+    // With BATCH_SIZE, runs the batched walkers in single precision (twice the lanes per vector), until they can't move
+    // any more at that precision, then finishes each one with the regular double-precision ascent, STEP_STRATEGY, Newton
+    // polish and basin cache included. The maximum reported is always a double-precision value. See SearchEngine.
+    private static boolean MIXED_PRECISION = false;
+    
+    // Where the starting points come from, see StartPointSource. Random is the original behaviour, and the others are
+    // low-discrepancy sequences (Sobol, Halton, R2), which cover the cell evenly. The same seed gives the same starting
+    // points at any thread count.
+    private static StartPointSource.Type START_POINT_SOURCE = StartPointSource.Type.Random;
+    private static long START_POINT_SEED = 0;
+    
+    // When to stop the search, see RunController. 0 turns a bound off, and with all of them off it runs until it's killed.
+    // The stagnation bound counts consecutive restarts that didn't raise the best value by more than IMPROVEMENT_EPSILON (relative).
+    // MAX_START_POINTS stops it once every starting point numbered below it has been climbed from, which makes the result
+    // the same from run to run, at any thread count, and over any number of shards.
+    private static double MAX_RUN_SECONDS = 0;
+    private static long MAX_EVALUATIONS = 0;
+    private static long MAX_START_POINTS = 0;
+    private static long MAX_RESTARTS_WITHOUT_IMPROVEMENT = 0;
+    private static double IMPROVEMENT_EPSILON = 1e-12;
+    
+    // Set this to a file path, e.g. "result.json", to have the final result written there as JSON when the search stops.
+    private static String RESULT_OUTPUT_PATH = null;
+    
+    // Set this to a file path, e.g. "run.log", to log every converged maximum there (see MaximaLog). If the file exists,
+    // the run resumes from it: best maximum, basins, counters and start point position. It's forced to disk this often.
+    private static String CHECKPOINT_PATH = null;
+    private static double CHECKPOINT_FORCE_SECONDS = 60;
+    
+    // Above 1, splits the search over this many processes, on this machine or others. Start a ShardCoordinator for them
+    // first (java ShardCoordinator 4), then this once per shard, with the shard's index as the argument (java NoiseNormalizer 0,
+    // and so on). Each shard takes every SHARD_COUNT-th block of starting points, sends what it finds to the coordinator at
+    // COORDINATOR_ADDRESS, and stagnates against the best of all the shards. Keep every other setting the same in each. The
+    // shard index gets appended to RESULT_OUTPUT_PATH and CHECKPOINT_PATH, so each shard has its own files.
+    private static int SHARD_COUNT = 1;
+    private static String COORDINATOR_ADDRESS = "localhost:" + ShardCoordinator.PORT;
+    
+    // Start walkers only from the fundamental domain of the cell, under the symmetry group of the gradient set and the lattice.
+    // The group is detected at startup (see SymmetryGroup). Every point outside the domain has a copy inside it with the same value.
+    private static boolean USE_SYMMETRY_REDUCTION = true;
+    
+    // After the search stops, prove an upper bound on the noise by branch-and-bound over the cell (see BranchAndBound). The true
+    // maximum is then bracketed by [found, bound], at most BOUND_RELATIVE_TOLERANCE apart unless MAX_BOUND_BOXES runs out first.
+    // It only starts once the search stops, so set a budget above as well.
+    private static boolean CERTIFY_UPPER_BOUND = false;
+    private static double BOUND_RELATIVE_TOLERANCE = 1e-4;
+    private static long MAX_BOUND_BOXES = 10_000_000;
+    
+    // Above 1, searches the fBm sum of this many octaves instead of a single one. Octave o is the noise at frequency
+    // FBM_LACUNARITY^o, times FBM_GAIN^o. Keep the lacunarity a whole number to cover the whole sum. See FractalKernel.
+    // Use the Armijo or BarzilaiBorwein STEP_STRATEGY with it: the octaves' curvatures are too far apart for any fixed rate.
+    private static int FBM_OCTAVES = 1;
+    private static double FBM_LACUNARITY = 2;
+    private static double FBM_GAIN = 0.5;
+    
+    // Searches for the steepest slope the noise can have instead of its maximum, for a bound on the length of its
+    // derivative vector (its Lipschitz constant). The location found is the point, then the direction. See SlopeKernel.
+    // Use the Armijo STEP_STRATEGY with it too.
+    private static boolean SEARCH_SLOPE = false;
+    
     // Use this when testing your normalization constant, to make sure the resulting noise does not exceed your target range.
     // Leave it at 1 to compute the unmodified noise bounds. Be sure to set this back to 1 when you're not using it.
     private static double GRADIENT_MULTIPLIER = 1;
     
+    // Above 0, evaluates this many points of actual hashed noise instead of searching, and reports anything outside [-1, 1].
+    // Set GRADIENT_MULTIPLIER to your normalization first. See NoiseValidator.
+    private static long VALIDATION_SAMPLES = 0;
+    
+    // Above 0, samples this many points of actual hashed noise instead of searching, and prints their percentiles. For
+    // normalizing by a high percentile rather than the maximum. See NoiseDistribution.
+    private static long DISTRIBUTION_SAMPLES = 0;
+    
     /*
     // 2D OpenSimplex2(F), or Simplex, 24-sized gradient set
     public static int N_DIMENSIONS = 2;
@@ -376,159 +475,83 @@ public class NoiseNormalizer {
         { 0.212189, -0.815162, -0.538969 }, { -0.859262, 0.143405, -0.491024 }, { 0.991353, 0.112814, 0.0670273 }, { 0.0337884, -0.979891, -0.196654 }
     };*/
     
+    // Scale the gradients once, before the kernel builds its gradient index from them.
     static {
         for (int i = 0; i < GRADIENTS.length; i++) {
             for (int j = 0; j < GRADIENTS[i].length; j++) GRADIENTS[i][j] *= GRADIENT_MULTIPLIER;
         }
     }
     
-    private static int MAX_RATE_RETRY_MULTIPLIER = 1 << MAX_RATE_RETRY_MULTIPLIER_EXPONENT;
-    private static int N_LATTICE_VERTICES = 1 << (2 * N_DIMENSIONS);
-    public static void main(String[] args) {
-        
-        // Surrounding vertices on lattice, range (-1, -1, ..., -1) to (2, 2, ..., 2) in skew (cube) space.
-        int[][] latticePointsCubespace = new int[N_LATTICE_VERTICES][];
-        double[][] latticePoints = new double[N_LATTICE_VERTICES][];
-        for (int k = 0; k < N_LATTICE_VERTICES; k++) {
-            int kk = k;
-            latticePointsCubespace[k] = IntStream.range(0, N_DIMENSIONS).map(i -> ((kk >> (i * 2)) & 3) - 1).toArray();
+    public static void main(String[] args) throws IOException {
+        if (VALIDATION_SAMPLES > 0) {
+            NoiseValidator.print(NoiseValidator.validate(kernel(), VALIDATION_SAMPLES));
+            return;
         }
-        for (int k = 0; k < N_LATTICE_VERTICES; k++) {
-            double skew = UNSKEW_CONSTANT * Arrays.stream(latticePointsCubespace[k]).sum();
-            latticePoints[k] = Arrays.stream(latticePointsCubespace[k]).mapToDouble(v -> v + skew).toArray();
+        if (DISTRIBUTION_SAMPLES > 0) {
+            NoiseDistribution.print(NoiseDistribution.sample(kernel(), DISTRIBUTION_SAMPLES));
+            return;
         }
-        
-        Random random = new Random();
-        double[] currentDerivativeVector = new double[N_DIMENSIONS];
-        int[] latticePointGradientIndices = new int[N_LATTICE_VERTICES];
-        double[] latticePointGradientDots = new double[N_LATTICE_VERTICES];
-        double maxValue = 0;
-        double[] startingCoord = new double[N_DIMENSIONS];
-        double[] movingCoord = new double[N_DIMENSIONS];
-        double[] maximizingStartingCoord = new double[N_DIMENSIONS];
-        double[] maximizingCoord = new double[N_DIMENSIONS];
-        double[] maximizingDerivativeVector = new double[N_DIMENSIONS];
-        int[] maximizingGradientIndices = new int[N_LATTICE_VERTICES];
-        while (true) {
-            
-            // Random starting point inside a unit grid cell
-            double startCoordSkew = 0;
-            for (int i = 0; i < N_DIMENSIONS; i++) {
-                movingCoord[i] = random.nextDouble();
-                startCoordSkew += movingCoord[i];
-            }
-            startCoordSkew *= UNSKEW_CONSTANT;
-            for (int i = 0; i < N_DIMENSIONS; i++) movingCoord[i] += startCoordSkew;
-            for (int i = 0; i < N_DIMENSIONS; i++) startingCoord[i] = movingCoord[i];
-            
-            int lastExponent = Integer.MAX_VALUE;
-            
-            // Gradient Ascent Loop
-            while (true) {
-                
-                // Pick best vertex gradients for current evaluation point
-                for (int k = 0; k < N_LATTICE_VERTICES; k++) {
-                    double[] latticePoint = latticePoints[k];
-                    double currentBestDot = Double.NEGATIVE_INFINITY;
-                    int currentBestGradientIndex = -1;
-                    for (int j = 0; j < GRADIENTS.length; j++) {
-                        double[] currentGradient = GRADIENTS[j];
-                        double dot = IntStream.range(0, N_DIMENSIONS).mapToDouble(i -> (movingCoord[i] - latticePoint[i]) * currentGradient[i]).sum();
-                        if (dot > currentBestDot) {
-                            currentBestGradientIndex = j;
-                            currentBestDot = dot;
-                        }
-                    }
-                    latticePointGradientIndices[k] = currentBestGradientIndex;
-                    latticePointGradientDots[k] = currentBestDot;
-                }
-                
-                // Get noise value and gradient (derivative vector) at current point
-                double currentValue = 0;
-                for (int i = 0; i < N_DIMENSIONS; i++) currentDerivativeVector[i] = 0;
-                for (int k = 0; k < N_LATTICE_VERTICES; k++) {
-                    double[] latticePoint = latticePoints[k];
-                    double[] gradient = GRADIENTS[latticePointGradientIndices[k]];
-                    double dot = latticePointGradientDots[k];
-                    
-                    // Radial falloff function
-                    double falloff = FALLOFF_RADIUS_SQ - IntStream.range(0, N_DIMENSIONS).mapToDouble(i -> (movingCoord[i] - latticePoint[i])).map(v -> v * v).sum();
-                    
-                    if (falloff > 0) {
-                        
-                        // Add value
-                        double attnSq = falloff * falloff;
-                        double thisValue = attnSq * attnSq * dot;
-                        currentValue += thisValue;
-                        
-                        // Add derivative vector
-                        double dAttnMultiplier = -8 * attnSq * falloff;
-                        double[] thisDerivative = IntStream.range(0, N_DIMENSIONS).mapToDouble(i -> dAttnMultiplier * (movingCoord[i] - latticePoint[i]) * dot + attnSq * attnSq * gradient[i]).toArray();
-                        for (int l = 0; l < N_DIMENSIONS; l++) currentDerivativeVector[l] += thisDerivative[l];
-                        
-                    }
-                    
-                }
-                
-                // If we found a higher maximum, update. Also keep track of what yielded it.
-                if (currentValue > maxValue) {
-                    maxValue = currentValue;
-                    for (int i = 0; i < N_DIMENSIONS; i++) maximizingStartingCoord[i] = startingCoord[i];
-                    for (int i = 0; i < N_DIMENSIONS; i++) maximizingCoord[i] = movingCoord[i];
-                    for (int i = 0; i < N_DIMENSIONS; i++) maximizingDerivativeVector[i] = currentDerivativeVector[i];
-                    for (int i = 0; i < N_LATTICE_VERTICES; i++) maximizingGradientIndices[i] = latticePointGradientIndices[i];
-                }
-                
-                // Perform the actual point movement
-                double currentDerivativeMagnitudeSq = Arrays.stream(currentDerivativeVector).map(v -> v * v).sum();
-                    
-                // To give the ascent a good chance to proceed, we try doubling the rate a couple times if it didn't change the coordinate the first time.
-                double rateToTry = CONVERGENCE_RATE;
-                double rateToStopAt = CONVERGENCE_RATE * MAX_RATE_RETRY_MULTIPLIER;
-                boolean pointMoved = false;
-                while (true) {
-                    
-                    // Move the evaluation point by the derivative vector times the current rate attempt
-                    for (int l = 0; l < N_DIMENSIONS; l++) {
-                        double newValue = movingCoord[l] + currentDerivativeVector[l] * rateToTry;
-                        if (newValue != movingCoord[l]) pointMoved = true;
-                        movingCoord[l] = newValue;
-                    }
-                    
-                    // Every time the movement drops by an order of magnitude, report the status in the console
-                    int exponent = Math.getExponent(currentDerivativeMagnitudeSq);
-                    if (exponent < lastExponent) {
-                        lastExponent = exponent;
-                        System.out.println("Current derivative magnitude: " + Math.sqrt(currentDerivativeMagnitudeSq) + ", current value: " + currentValue + ", current max value: " + maxValue);
-                    }
-                    
-                    // If the point moved, exit this loop so we can continue the gradient ascent loop.
-                    if (pointMoved) break;
-                    
-                    // Otherwise, if we've just tried the max rate possible, finish this round of gradient ascent.
-                    if (rateToTry >= rateToStopAt) {
-                        System.out.println("Convergence condition met.");
-                        break;
-                    }
-                    
-                    // Otherwise try moving by a bigger amount.
-                    rateToTry *= 2;
-                }
-                
-                // If it moved, don't execute the code below, which exits the gradient ascent round.
-                if (pointMoved) continue;
-                
-                // Print updated results following this round of gradient ascent.
-                System.out.println();
-                System.out.println("Max Value Found: " + maxValue);
-                System.out.println("Location: " + Arrays.toString(maximizingCoord));
-                System.out.println("Starting Location: " + Arrays.toString(maximizingStartingCoord));
-                System.out.println("Gradient Indices: " + Arrays.toString(maximizingGradientIndices));
-                System.out.println("Derivative Vector: " + Arrays.toString(maximizingDerivativeVector));
-                System.out.println();
-                break;
-                
-            }
+        if (SHARD_COUNT > 1 && args.length < 1) {
+            System.err.println("Usage: java NoiseNormalizer <shard index, 0 to " + (SHARD_COUNT - 1) + ">");
+            return;
         }
+        String shardSuffix = (SHARD_COUNT > 1) ? "." + args[0] : "";
+        SearchResult result = (SHARD_COUNT > 1) ? new SearchEngine(kernel(), shardSettings(Integer.parseInt(args[0]))).run() : run();
+        System.out.println("Stopped: " + result.stopReason);
+        if (RESULT_OUTPUT_PATH != null) {
+            Files.write(Paths.get(RESULT_OUTPUT_PATH + shardSuffix), result.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+    
+    // Runs the search until the run controller stops it, then returns the best maximum found (bracketed, with CERTIFY_UPPER_BOUND).
+    public static SearchResult run() {
+        return new SearchEngine(kernel(), settings()).run();
+    }
+    
+    private static NoiseKernel kernel() {
+        NoiseKernel kernel = new SimplexKernel(N_DIMENSIONS, UNSKEW_CONSTANT, FALLOFF_RADIUS_SQ, GRADIENTS);
+        if (FBM_OCTAVES > 1) kernel = new FractalKernel(kernel, FBM_OCTAVES, FBM_LACUNARITY, FBM_GAIN);
+        return SEARCH_SLOPE ? new SlopeKernel(kernel) : kernel;
+    }
+    
+    private static SearchEngine.Settings settings() {
+        SearchEngine.Settings settings = new SearchEngine.Settings();
+        settings.convergenceRate = CONVERGENCE_RATE;
+        settings.maxRateRetryMultiplierExponent = MAX_RATE_RETRY_MULTIPLIER_EXPONENT;
+        settings.stepStrategy = STEP_STRATEGY;
+        settings.newtonPolishAfterStableSteps = NEWTON_POLISH_AFTER_STABLE_STEPS;
+        settings.useBasinCache = USE_BASIN_CACHE;
+        settings.basinCacheAfterStableSteps = BASIN_CACHE_AFTER_STABLE_STEPS;
+        settings.printedBasinCount = PRINTED_BASIN_COUNT;
+        settings.nThreads = N_THREADS;
+        settings.printAscentProgress = PRINT_ASCENT_PROGRESS;
+        settings.progressIntervalSeconds = PROGRESS_INTERVAL_SECONDS;
+        settings.metricsReportSeconds = METRICS_REPORT_SECONDS;
+        settings.batchSize = BATCH_SIZE;
+        settings.mixedPrecision = MIXED_PRECISION;
+        settings.startPointSource = START_POINT_SOURCE;
+        settings.startPointSeed = START_POINT_SEED;
+        settings.maxRunSeconds = MAX_RUN_SECONDS;
+        settings.maxEvaluations = MAX_EVALUATIONS;
+        settings.maxStartPoints = MAX_START_POINTS;
+        settings.maxRestartsWithoutImprovement = MAX_RESTARTS_WITHOUT_IMPROVEMENT;
+        settings.improvementEpsilon = IMPROVEMENT_EPSILON;
+        settings.useSymmetryReduction = USE_SYMMETRY_REDUCTION;
+        settings.certifyUpperBound = CERTIFY_UPPER_BOUND;
+        if (CERTIFY_UPPER_BOUND && SEARCH_SLOPE) throw new IllegalArgumentException("There's no branch-and-bound for the slope, so SEARCH_SLOPE can't take CERTIFY_UPPER_BOUND");
+        settings.boundRelativeTolerance = BOUND_RELATIVE_TOLERANCE;
+        settings.maxBoundBoxes = MAX_BOUND_BOXES;
+        settings.checkpointPath = CHECKPOINT_PATH;
+        settings.checkpointForceSeconds = CHECKPOINT_FORCE_SECONDS;
+        return settings;
+    }
+    
+    private static SearchEngine.Settings shardSettings(int shardIndex) {
+        SearchEngine.Settings settings = settings();
+        settings.coordinatorAddress = COORDINATOR_ADDRESS;
+        settings.shardIndex = shardIndex;
+        settings.shardCount = SHARD_COUNT;
+        if (CHECKPOINT_PATH != null) settings.checkpointPath = CHECKPOINT_PATH + "." + shardIndex;
+        return settings;
     }
-}
\ No newline at end of file
+}
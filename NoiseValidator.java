@@ -0,0 +1,165 @@
+/*
+ * Validation mode: evaluates actual seeded, permutation-hashed noise (see LatticeHash) over a large region, with the
+ * gradient set, lattice and normalization of a configuration, and reports every value outside the target range.
+ *
+ * The search finds the maximum of the noise as if every vertex picked its best gradient. Once the gradients are divided
+ * by that, no real noise built from them should ever leave [-1, 1]. This checks that it doesn't, on as many points as
+ * you care to give it, so a normalization can be re-tested after you divide by it.
+ *
+ * Usage: java NoiseValidator validation.txt
+ * The file lists configurations in the sweep file format (see SweepRunner), with the normalization as the multiplier.
+ * Extra keys:
+ *     samples   points to evaluate (default SAMPLES), e.g. 1e9
+ *     region    side of the region sampled, in cells from the origin (default REGION_SIZE). The hash repeats past
+ *               LatticeHash.SIZE cells, so there's nothing new further out.
+ *     seed      hash seed (default 0). The sample points come from it too, so a run can be repeated exactly.
+ *     limit     target range, [-limit, limit] (default 1)
+ *
+ * The region is cut into tiles along its first axis, which are scanned in parallel, each keeping its own maximum and
+ * minimum. Values out of range are all counted, and MAX_REPORTED of them are kept with their locations. Exits with
+ * status 1 if any configuration has one, so it can run in CI.
+ *
+ * @author K.jpg
+ */
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class NoiseValidator {
+    
+    private static int N_THREADS = Runtime.getRuntime().availableProcessors();
+    private static long SAMPLES = 1L << 30;
+    private static double REGION_SIZE = LatticeHash.SIZE;
+    private static double LIMIT = 1;
+    private static int SAMPLES_PER_TILE = 1 << 20;
+    private static int MAX_REPORTED = 16;
+    
+    public static final class Sample {
+        public final double value;
+        public final double[] location;
+        
+        Sample(double value, double[] location) {
+            this.value = value;
+            this.location = location;
+        }
+    }
+    
+    public static final class Result {
+        public final long samples, outOfRange;
+        public final Sample max, min;
+        public final List<Sample> outOfRangeSamples;
+        public final double limit, elapsedSeconds;
+        
+        Result(long samples, long outOfRange, Sample max, Sample min, List<Sample> outOfRangeSamples, double limit, double elapsedSeconds) {
+            this.samples = samples;
+            this.outOfRange = outOfRange;
+            this.max = max;
+            this.min = min;
+            this.outOfRangeSamples = outOfRangeSamples;
+            this.limit = limit;
+            this.elapsedSeconds = elapsedSeconds;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java NoiseValidator validation.txt");
+            return;
+        }
+        Path configurationPath = Paths.get(args[0]);
+        ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        boolean allInRange = true;
+        for (Map<String, String> configuration : SweepRunner.readSweep(configurationPath)) {
+            System.out.println(SweepRunner.describe(configuration));
+            Result result = validate(SweepRunner.createKernel(configuration, configurationPath),
+                    (long)Double.parseDouble(configuration.getOrDefault("samples", Long.toString(SAMPLES))),
+                    Double.parseDouble(configuration.getOrDefault("region", Double.toString(REGION_SIZE))),
+                    Long.parseLong(configuration.getOrDefault("seed", "0")),
+                    Double.parseDouble(configuration.getOrDefault("limit", Double.toString(LIMIT))), pool);
+            print(result);
+            allInRange &= result.outOfRange == 0;
+        }
+        pool.shutdown();
+        if (!allInRange) System.exit(1);
+    }
+    
+    // With the defaults, on its own pool. For the normalizers' VALIDATION_SAMPLES.
+    public static Result validate(NoiseKernel kernel, long samples) {
+        ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        Result result = validate(kernel, samples, REGION_SIZE, 0, LIMIT, pool);
+        pool.shutdown();
+        return result;
+    }
+    
+    public static Result validate(NoiseKernel kernel, long samples, double regionSize, long seed, double limit, ForkJoinPool pool) {
+        long startNanos = System.nanoTime();
+        int nTiles = (int)Math.max(1, (samples + SAMPLES_PER_TILE - 1) / SAMPLES_PER_TILE);
+        Result merged = pool.submit(() -> IntStream.range(0, nTiles).parallel()
+                .mapToObj(tile -> scanTile(kernel, tile, nTiles, samples / nTiles + (tile < samples % nTiles ? 1 : 0), regionSize, seed, limit))
+                .reduce(NoiseValidator::merge).get()).join();
+        return new Result(merged.samples, merged.outOfRange, merged.max, merged.min, merged.outOfRangeSamples, limit,
+                (System.nanoTime() - startNanos) * 1e-9);
+    }
+    
+    // Uniformly random points in one slab of the region, [tile, tile + 1) * regionSize / nTiles on the first axis.
+    private static Result scanTile(NoiseKernel kernel, int tile, int nTiles, long samples, double regionSize, long seed, double limit) {
+        NoiseKernel.HashedEvaluator evaluator = kernel.createHashedEvaluator(seed);
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + tile);
+        int nDimensions = kernel.nDimensions();
+        double tileWidth = regionSize / nTiles, tileStart = tile * tileWidth;
+        double[] coord = new double[nDimensions];
+        double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+        double[] maxLocation = new double[nDimensions], minLocation = new double[nDimensions];
+        long outOfRange = 0;
+        List<Sample> outOfRangeSamples = new ArrayList<>();
+        
+        for (long n = 0; n < samples; n++) {
+            coord[0] = tileStart + random.nextDouble() * tileWidth;
+            for (int i = 1; i < nDimensions; i++) coord[i] = random.nextDouble() * regionSize;
+            double value = evaluator.evaluate(coord);
+            if (value > max) {
+                max = value;
+                System.arraycopy(coord, 0, maxLocation, 0, nDimensions);
+            }
+            if (value < min) {
+                min = value;
+                System.arraycopy(coord, 0, minLocation, 0, nDimensions);
+            }
+            if (value > limit || value < -limit) {
+                outOfRange++;
+                if (outOfRangeSamples.size() < MAX_REPORTED) outOfRangeSamples.add(new Sample(value, coord.clone()));
+            }
+        }
+        return new Result(samples, outOfRange, new Sample(max, maxLocation), new Sample(min, minLocation), outOfRangeSamples, limit, 0);
+    }
+    
+    private static Result merge(Result a, Result b) {
+        List<Sample> outOfRangeSamples = new ArrayList<>(a.outOfRangeSamples);
+        for (Sample sample : b.outOfRangeSamples) {
+            if (outOfRangeSamples.size() < MAX_REPORTED) outOfRangeSamples.add(sample);
+        }
+        return new Result(a.samples + b.samples, a.outOfRange + b.outOfRange, a.max.value >= b.max.value ? a.max : b.max,
+                a.min.value <= b.min.value ? a.min : b.min, outOfRangeSamples, a.limit, 0);
+    }
+    
+    public static void print(Result result) {
+        System.out.println("Samples: " + result.samples + " (" + (result.samples / result.elapsedSeconds) + "/s)");
+        System.out.println("Max: " + result.max.value + " at " + Arrays.toString(result.max.location));
+        System.out.println("Min: " + result.min.value + " at " + Arrays.toString(result.min.location));
+        if (result.outOfRange == 0) {
+            System.out.println("All values within [" + -result.limit + ", " + result.limit + "]");
+        } else {
+            System.out.println("OUT OF RANGE: " + result.outOfRange + " values outside [" + -result.limit + ", " + result.limit + "], for example:");
+            for (Sample sample : result.outOfRangeSamples) System.out.println(sample.value + " at " + Arrays.toString(sample.location));
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,652 @@
+/*
+ * Perlin noise kernel: a gradient at every corner of the unit cell, weighted by a product of per-axis fade curves.
+ *
+ * Each lattice vertex contributes fade(d_1) * ... * fade(d_N) * dot(d, g), where d is the vertex-to-point vector and g is
+ * whichever gradient in the set makes that dot product largest. The search domain is the unit cell, and points are
+ * clamped into it, so the maximum can lie on its boundary. Axes held against the boundary are "pinned".
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public final class PerlinKernel implements NoiseKernel {
+    
+    // The fade curves, in terms of t = 1 - |a|. Each type carries its own curve, so the evaluators call it directly instead
+    // of switching on the type for every fade value.
+    public enum FadeCurveType {
+        Quintic {
+            double fade(double t) {
+                double t3 = t * t * t;
+                double t4 = t3 * t;
+                double t5 = t4 * t;
+                return (6.0 * t5) - (15.0 * t4) + (10.0 * t3);
+            }
+            double dFade(double t) {
+                double t2 = t * t;
+                double t3 = t2 * t;
+                double t4 = t3 * t;
+                return (30.0 * t4) - (60.0 * t3) + (30.0 * t2);
+            }
+            double ddFade(double t) {
+                double t2 = t * t;
+                double t3 = t2 * t;
+                return (120.0 * t3) - (180.0 * t2) + (60.0 * t);
+            }
+            double[] polynomial() {
+                return new double[] { 0, 0, 0, 10.0, -15.0, 6.0 };
+            }
+        },
+        Cubic {
+            double fade(double t) {
+                return (t * t * (3.0 - 2.0 * t));
+            }
+            double dFade(double t) {
+                return t * (6.0 - 6.0 * t);
+            }
+            double ddFade(double t) {
+                return 6.0 - 12.0 * t;
+            }
+            double[] polynomial() {
+                return new double[] { 0, 0, 3.0, -2.0 };
+            }
+        },
+        None {
+            double fade(double t) {
+                return t;
+            }
+            double dFade(double t) {
+                return 1;
+            }
+            double ddFade(double t) {
+                return 0;
+            }
+            double[] polynomial() {
+                return new double[] { 0, 1 };
+            }
+        };
+        
+        abstract double fade(double t);
+        abstract double dFade(double t);
+        abstract double ddFade(double t);
+        
+        // Coefficients in ascending powers of t, for the batched mode's lane kernels.
+        abstract double[] polynomial();
+    }
+    
+    private final int nDimensions;
+    private final FadeCurveType fadeCurveType;
+    private final double[][] gradients;
+    
+    // Picks the best gradient for each vertex without scanning the whole set.
+    private final GradientIndex gradientIndex;
+    
+    // Surrounding vertices on lattice, range (0, 0, ..., 0) to (1, 1, ..., 1)
+    private final int nLatticeVertices;
+    private final int[][] latticePoints;
+    private final double[][] latticeVertices;
+    
+    // Symmetries of the noise about the centre of the unit cell, which they map onto itself.
+    private final SymmetryGroup symmetryGroup;
+    
+    public PerlinKernel(int nDimensions, FadeCurveType fadeCurveType, double[][] gradients) {
+        this.nDimensions = nDimensions;
+        this.fadeCurveType = fadeCurveType;
+        this.gradients = gradients;
+        gradientIndex = new GradientIndex(gradients);
+        
+        nLatticeVertices = 1 << nDimensions;
+        latticePoints = new int[nLatticeVertices][];
+        for (int k = 0; k < nLatticeVertices; k++) {
+            int kk = k;
+            latticePoints[k] = IntStream.range(0, nDimensions).map(i -> ((kk >> i) & 1)).toArray();
+        }
+        latticeVertices = Arrays.stream(latticePoints).map(p -> Arrays.stream(p).asDoubleStream().toArray()).toArray(double[][]::new);
+        
+        double[][] latticeBasis = new double[nDimensions][nDimensions];
+        for (int i = 0; i < nDimensions; i++) latticeBasis[i][i] = 1;
+        double[] cellCentre = new double[nDimensions];
+        Arrays.fill(cellCentre, 0.5);
+        symmetryGroup = SymmetryGroup.detect(gradients, latticeBasis, cellCentre, null);
+    }
+    
+    public String name() {
+        return "Perlin";
+    }
+    
+    public int nDimensions() {
+        return nDimensions;
+    }
+    
+    public double[][] latticeVertices() {
+        return latticeVertices;
+    }
+    
+    public GradientIndex gradientIndex() {
+        return gradientIndex;
+    }
+    
+    public SymmetryGroup symmetryGroup() {
+        return symmetryGroup;
+    }
+    
+    // The unit cube is the unit cell already.
+    public void mapFromUnitCube(double[] coord) {
+    }
+    
+    public void wrapIntoCell(double[] coord) {
+        for (int i = 0; i < nDimensions; i++) coord[i] -= Math.floor(coord[i]);
+    }
+    
+    // The search domain is the unit cell. These keep points inside it, and tell which axes are held against its boundary.
+    public void project(double[] coord) {
+        for (int i = 0; i < nDimensions; i++) {
+            if (coord[i] > 1) coord[i] = 1;
+            else if (coord[i] < 0) coord[i] = 0;
+        }
+    }
+    
+    public boolean isPinned(double[] coord, double[] derivative, int axis) {
+        return (coord[axis] >= 1 && derivative[axis] > 0) || (coord[axis] <= 0 && derivative[axis] < 0);
+    }
+    
+    public BranchAndBound.BoxObjective boxObjective() {
+        return new CellBoxBound();
+    }
+    
+    public double fadeCurve(double a) {
+        if (a < 0) a = -a;
+        if (a >= 1) return 0;
+        return fadeCurveType.fade(1 - a);
+    }
+    
+    public double dFadeCurve(double a) {
+        double sign = 1;
+        if (a < 0) {
+            a = -a;
+            sign = -1;
+        }
+        if (a >= 1) return 0;
+        return -sign * fadeCurveType.dFade(1 - a);
+    }
+    
+    public double ddFadeCurve(double a) {
+        if (a < 0) a = -a;
+        if (a >= 1) return 0;
+        return fadeCurveType.ddFade(1 - a);
+    }
+    
+    // Computes the noise value, derivative vector and best vertex gradients at a point, without allocating.
+    // There are hand-unrolled versions for 2D, 3D and 4D, and a loop-based one for any other dimension count.
+    private abstract class CellEvaluator implements NoiseKernel.Evaluator, NoiseKernel.SlopeEvaluator {
+        protected final int[][] latticePoints = PerlinKernel.this.latticePoints;
+        protected final double[][] gradients = PerlinKernel.this.gradients;
+        protected final GradientIndex gradientIndex = PerlinKernel.this.gradientIndex;
+        
+        // The falloff is separable: each vertex's is a product of one fade value per axis, towards either the 0 or the 1
+        // side of the cell. So a point only has these 2N fade values and 2N derivatives, indexed by axis, then side.
+        protected final double[][] axisFades = new double[nDimensions][2];
+        protected final double[][] axisDFades = new double[nDimensions][2];
+        
+        protected final void computeAxisFades(double[] coord) {
+            for (int i = 0; i < nDimensions; i++) {
+                for (int side = 0; side < 2; side++) {
+                    axisFades[i][side] = fadeCurve(coord[i] - side);
+                    axisDFades[i][side] = dFadeCurve(coord[i] - side);
+                }
+            }
+        }
+        
+        private final double[] pieceDisplacement = new double[nDimensions];
+        private final double[] pieceFades = new double[nDimensions];
+        private final double[] pieceDFades = new double[nDimensions];
+        private final double[] pieceDFalloff = new double[nDimensions];
+        
+        // Value, derivative vector and Hessian with every vertex's gradient held at gradientIndices, as filled in by evaluate.
+        // Returns NaN if coord is outside the cell, or if any vertex would pick a different gradient at coord.
+        public final double evaluateSmoothPiece(double[] coord, int[] gradientIndices, double[] derivativeOut, double[][] hessianOut) {
+            for (int i = 0; i < nDimensions; i++) {
+                if (coord[i] < 0 || coord[i] > 1) return Double.NaN;
+            }
+            double value = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                derivativeOut[i] = 0;
+                for (int j = 0; j < nDimensions; j++) hessianOut[i][j] = 0;
+            }
+            double[] a = pieceDisplacement, fades = pieceFades, dFades = pieceDFades, dFalloff = pieceDFalloff;
+            for (int k = 0; k < latticePoints.length; k++) {
+                int[] latticePoint = latticePoints[k];
+                double falloff = 1;
+                for (int i = 0; i < nDimensions; i++) {
+                    a[i] = coord[i] - latticePoint[i];
+                    fades[i] = fadeCurve(a[i]);
+                    dFades[i] = dFadeCurve(a[i]);
+                    falloff *= fades[i];
+                }
+                
+                int gradientIndex = gradientIndices[k];
+                if (this.gradientIndex.bestGradientIndex(a) != gradientIndex) return Double.NaN;
+                double[] gradient = gradients[gradientIndex];
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += a[i] * gradient[i];
+                value += falloff * dot;
+                
+                // The falloff is a product of per-axis fades, so its second derivatives are products too:
+                // the second derivative of the fade on the diagonal, and the two first derivatives off it.
+                for (int i = 0; i < nDimensions; i++) {
+                    dFalloff[i] = dFades[i];
+                    for (int l = 0; l < nDimensions; l++) {
+                        if (l != i) dFalloff[i] *= fades[l];
+                    }
+                    derivativeOut[i] += gradient[i] * falloff + dot * dFalloff[i];
+                }
+                for (int i = 0; i < nDimensions; i++) {
+                    for (int j = 0; j < nDimensions; j++) {
+                        double ddFalloff = (i == j) ? ddFadeCurve(a[i]) : dFades[i] * dFades[j];
+                        for (int l = 0; l < nDimensions; l++) {
+                            if (l != i && l != j) ddFalloff *= fades[l];
+                        }
+                        hessianOut[i][j] += gradient[i] * dFalloff[j] + gradient[j] * dFalloff[i] + dot * ddFalloff;
+                    }
+                }
+            }
+            return value;
+        }
+        
+        private final double[] slopeDirection = new double[nDimensions];
+        
+        // Vertex k's slope along u is g . v, with v = (u . dFalloff) a + falloff u, so each vertex takes the gradient that's
+        // best for v. With respect to u, the slope's derivative vector is the noise's (with those gradients), and with
+        // respect to coord it's the Hessian times u, the same terms as in evaluateSmoothPiece.
+        public final double evaluateSlope(double[] coord, double[] direction, double[] coordDerivativeOut, double[] directionDerivativeOut, int[] gradientIndicesOut) {
+            Arrays.fill(coordDerivativeOut, 0);
+            Arrays.fill(directionDerivativeOut, 0);
+            double slope = 0;
+            double[] a = pieceDisplacement, fades = pieceFades, dFades = pieceDFades, dFalloff = pieceDFalloff, v = slopeDirection;
+            for (int k = 0; k < latticePoints.length; k++) {
+                int[] latticePoint = latticePoints[k];
+                double falloff = 1;
+                for (int i = 0; i < nDimensions; i++) {
+                    a[i] = coord[i] - latticePoint[i];
+                    fades[i] = fadeCurve(a[i]);
+                    dFades[i] = dFadeCurve(a[i]);
+                    falloff *= fades[i];
+                }
+                double uDotDFalloff = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    dFalloff[i] = dFades[i];
+                    for (int l = 0; l < nDimensions; l++) {
+                        if (l != i) dFalloff[i] *= fades[l];
+                    }
+                    uDotDFalloff += direction[i] * dFalloff[i];
+                }
+                for (int i = 0; i < nDimensions; i++) v[i] = uDotDFalloff * a[i] + falloff * direction[i];
+                int gradientIndex = this.gradientIndex.bestGradientIndex(v);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double dot = 0, gDotU = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    dot += a[i] * gradient[i];
+                    gDotU += gradient[i] * direction[i];
+                }
+                slope += uDotDFalloff * dot + falloff * gDotU;
+                for (int i = 0; i < nDimensions; i++) {
+                    directionDerivativeOut[i] += gradient[i] * falloff + dot * dFalloff[i];
+                    for (int j = 0; j < nDimensions; j++) {
+                        double ddFalloff = (i == j) ? ddFadeCurve(a[i]) : dFades[i] * dFades[j];
+                        for (int l = 0; l < nDimensions; l++) {
+                            if (l != i && l != j) ddFalloff *= fades[l];
+                        }
+                        coordDerivativeOut[i] += (gradient[i] * dFalloff[j] + gradient[j] * dFalloff[i] + dot * ddFalloff) * direction[j];
+                    }
+                }
+            }
+            return slope;
+        }
+    }
+    
+    public NoiseKernel.Evaluator createEvaluator() {
+        return createCellEvaluator();
+    }
+    
+    public NoiseKernel.SlopeEvaluator createSlopeEvaluator() {
+        return createCellEvaluator();
+    }
+    
+    private CellEvaluator createCellEvaluator() {
+        switch (nDimensions) {
+            case 2: return new Evaluator2D();
+            case 3: return new Evaluator3D();
+            case 4: return new Evaluator4D();
+            default: return new EvaluatorND();
+        }
+    }
+    
+    // The vertex loops nest one axis per level, from x outwards, so the products of the fades on the outer axes are
+    // shared by every vertex inside them. Vertex k sits at bit i of k on axis i, as in latticePoints.
+    private final class Evaluator2D extends CellEvaluator {
+        public double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            double x = coord[0], y = coord[1];
+            computeAxisFades(coord);
+            double[] fadesX = axisFades[0], fadesY = axisFades[1];
+            double[] dFadesX = axisDFades[0], dFadesY = axisDFades[1];
+            double value = 0, dx = 0, dy = 0;
+            for (int bx = 0; bx < 2; bx++) {
+                double ax = x - bx, fx = fadesX[bx], dfx = dFadesX[bx];
+                for (int by = 0; by < 2; by++) {
+                    double ay = y - by, fy = fadesY[by];
+                    int k = bx | (by << 1);
+                    
+                    // Pick best vertex gradient
+                    int gradientIndex = this.gradientIndex.bestGradientIndex(ax, ay);
+                    gradientIndicesOut[k] = gradientIndex;
+                    double[] gradient = gradients[gradientIndex];
+                    double gx = gradient[0], gy = gradient[1];
+                    double dot = ax * gx + ay * gy;
+                    
+                    // Cube-shaped fade-curve falloff function derived from interpolation, and its partial derivatives
+                    double falloff = fx * fy;
+                    value += falloff * dot;
+                    dx += gx * falloff + dot * dfx * fy;
+                    dy += gy * falloff + dot * fx * dFadesY[by];
+                }
+            }
+            derivativeOut[0] = dx;
+            derivativeOut[1] = dy;
+            return value;
+        }
+    }
+    
+    private final class Evaluator3D extends CellEvaluator {
+        public double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            double x = coord[0], y = coord[1], z = coord[2];
+            computeAxisFades(coord);
+            double[] fadesX = axisFades[0], fadesY = axisFades[1], fadesZ = axisFades[2];
+            double[] dFadesX = axisDFades[0], dFadesY = axisDFades[1], dFadesZ = axisDFades[2];
+            double value = 0, dx = 0, dy = 0, dz = 0;
+            for (int bx = 0; bx < 2; bx++) {
+                double ax = x - bx, fx = fadesX[bx], dfx = dFadesX[bx];
+                for (int by = 0; by < 2; by++) {
+                    double ay = y - by, fy = fadesY[by], dfy = dFadesY[by];
+                    
+                    // Falloff over x and y, and its partial derivatives
+                    double fxy = fx * fy, dfxFy = dfx * fy, fxDfy = fx * dfy;
+                    for (int bz = 0; bz < 2; bz++) {
+                        double az = z - bz, fz = fadesZ[bz];
+                        int k = bx | (by << 1) | (bz << 2);
+                        
+                        // Pick best vertex gradient
+                        int gradientIndex = this.gradientIndex.bestGradientIndex(ax, ay, az);
+                        gradientIndicesOut[k] = gradientIndex;
+                        double[] gradient = gradients[gradientIndex];
+                        double gx = gradient[0], gy = gradient[1], gz = gradient[2];
+                        double dot = ax * gx + ay * gy + az * gz;
+                        
+                        // Cube-shaped fade-curve falloff function derived from interpolation, and its partial derivatives
+                        double falloff = fxy * fz;
+                        value += falloff * dot;
+                        dx += gx * falloff + dot * dfxFy * fz;
+                        dy += gy * falloff + dot * fxDfy * fz;
+                        dz += gz * falloff + dot * fxy * dFadesZ[bz];
+                    }
+                }
+            }
+            derivativeOut[0] = dx;
+            derivativeOut[1] = dy;
+            derivativeOut[2] = dz;
+            return value;
+        }
+    }
+    
+    private final class Evaluator4D extends CellEvaluator {
+        public double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            double x = coord[0], y = coord[1], z = coord[2], w = coord[3];
+            computeAxisFades(coord);
+            double[] fadesX = axisFades[0], fadesY = axisFades[1], fadesZ = axisFades[2], fadesW = axisFades[3];
+            double[] dFadesX = axisDFades[0], dFadesY = axisDFades[1], dFadesZ = axisDFades[2], dFadesW = axisDFades[3];
+            double value = 0, dx = 0, dy = 0, dz = 0, dw = 0;
+            for (int bx = 0; bx < 2; bx++) {
+                double ax = x - bx, fx = fadesX[bx], dfx = dFadesX[bx];
+                for (int by = 0; by < 2; by++) {
+                    double ay = y - by, fy = fadesY[by], dfy = dFadesY[by];
+                    double fxy = fx * fy, dfxFy = dfx * fy, fxDfy = fx * dfy;
+                    for (int bz = 0; bz < 2; bz++) {
+                        double az = z - bz, fz = fadesZ[bz], dfz = dFadesZ[bz];
+                        
+                        // Falloff over x, y and z, and its partial derivatives
+                        double fxyz = fxy * fz, dfxFyz = dfxFy * fz, fxDfyFz = fxDfy * fz, fxyDfz = fxy * dfz;
+                        for (int bw = 0; bw < 2; bw++) {
+                            double aw = w - bw, fw = fadesW[bw];
+                            int k = bx | (by << 1) | (bz << 2) | (bw << 3);
+                            
+                            // Pick best vertex gradient
+                            int gradientIndex = this.gradientIndex.bestGradientIndex(ax, ay, az, aw);
+                            gradientIndicesOut[k] = gradientIndex;
+                            double[] gradient = gradients[gradientIndex];
+                            double gx = gradient[0], gy = gradient[1], gz = gradient[2], gw = gradient[3];
+                            double dot = ax * gx + ay * gy + az * gz + aw * gw;
+                            
+                            // Cube-shaped fade-curve falloff function derived from interpolation, and its partial derivatives
+                            double falloff = fxyz * fw;
+                            value += falloff * dot;
+                            dx += gx * falloff + dot * dfxFyz * fw;
+                            dy += gy * falloff + dot * fxDfyFz * fw;
+                            dz += gz * falloff + dot * fxyDfz * fw;
+                            dw += gw * falloff + dot * fxyz * dFadesW[bw];
+                        }
+                    }
+                }
+            }
+            derivativeOut[0] = dx;
+            derivativeOut[1] = dy;
+            derivativeOut[2] = dz;
+            derivativeOut[3] = dw;
+            return value;
+        }
+    }
+    
+    // Any dimension count. Each vertex's partial derivatives come from prefix and suffix products of its fades, so a vertex
+    // takes O(N) multiplications instead of O(N^2).
+    private final class EvaluatorND extends CellEvaluator {
+        private final double[] displacement = new double[nDimensions];
+        private final double[] fades = new double[nDimensions];
+        private final double[] prefixProducts = new double[nDimensions + 1];
+        
+        public double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            computeAxisFades(coord);
+            double value = 0;
+            for (int i = 0; i < nDimensions; i++) derivativeOut[i] = 0;
+            for (int k = 0; k < latticePoints.length; k++) {
+                int[] latticePoint = latticePoints[k];
+                
+                // Cube-shaped fade-curve falloff function derived from interpolation
+                prefixProducts[0] = 1;
+                for (int i = 0; i < nDimensions; i++) {
+                    displacement[i] = coord[i] - latticePoint[i];
+                    fades[i] = axisFades[i][latticePoint[i]];
+                    prefixProducts[i + 1] = prefixProducts[i] * fades[i];
+                }
+                double falloff = prefixProducts[nDimensions];
+                
+                // Pick best vertex gradient
+                int gradientIndex = this.gradientIndex.bestGradientIndex(displacement);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += displacement[i] * gradient[i];
+                value += falloff * dot;
+                
+                // Derivative vector of this vertex gradient contribution. The fades on the other axes are the product of
+                // those before the axis, and those after it.
+                double suffixProduct = 1;
+                for (int l = nDimensions - 1; l >= 0; l--) {
+                    double dFalloff = prefixProducts[l] * axisDFades[l][latticePoint[l]] * suffixProduct;
+                    derivativeOut[l] += gradient[l] * falloff + dot * dFalloff;
+                    suffixProduct *= fades[l];
+                }
+            }
+            return value;
+        }
+    }
+    
+    // Interval bounds for the branch-and-bound (see BranchAndBound), on boxes of the unit cell. Each vertex contributes at
+    // most falloff * dot. The fades only shrink as the displacement grows in magnitude, so each one's range comes from the
+    // nearest and farthest displacement on its axis, and the dot is bounded exactly for each gradient, taking the best one.
+    private final class CellBoxBound implements BranchAndBound.BoxObjective {
+        private final ThreadLocal<NoiseKernel.Evaluator> evaluators = ThreadLocal.withInitial(PerlinKernel.this::createEvaluator);
+        private final ThreadLocal<double[]> maxGradientDotCoords = ThreadLocal.withInitial(() -> new double[gradients.length]);
+        private final double[][] gradientDotVertex = new double[nLatticeVertices][gradients.length];
+        
+        CellBoxBound() {
+            for (int k = 0; k < nLatticeVertices; k++) {
+                for (int g = 0; g < gradients.length; g++) {
+                    for (int i = 0; i < nDimensions; i++) gradientDotVertex[k][g] += gradients[g][i] * latticePoints[k][i];
+                }
+            }
+        }
+        
+        public double upperBound(double[] lo, double[] hi) {
+            
+            // Largest value of gradient . coord over the box, for each gradient.
+            double[] maxGradientDotCoord = maxGradientDotCoords.get();
+            for (int g = 0; g < gradients.length; g++) {
+                maxGradientDotCoord[g] = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    double component = gradients[g][i];
+                    maxGradientDotCoord[g] += component * (component >= 0 ? hi[i] : lo[i]);
+                }
+            }
+            
+            double bound = 0;
+            for (int k = 0; k < nLatticeVertices; k++) {
+                double falloffLo = 1, falloffHi = 1;
+                for (int i = 0; i < nDimensions; i++) {
+                    double a0 = lo[i] - latticePoints[k][i], a1 = hi[i] - latticePoints[k][i];
+                    double nearest = (a0 > 0) ? a0 : (a1 < 0) ? -a1 : 0;
+                    double farthest = Math.max(Math.abs(a0), Math.abs(a1));
+                    falloffLo *= fadeCurve(farthest);
+                    falloffHi *= fadeCurve(nearest);
+                }
+                if (falloffHi <= 0) continue;
+                
+                double dotHi = Double.NEGATIVE_INFINITY;
+                for (int g = 0; g < gradients.length; g++) dotHi = Math.max(dotHi, maxGradientDotCoord[g] - gradientDotVertex[k][g]);
+                bound += ((dotHi >= 0) ? falloffHi : falloffLo) * dotHi;
+            }
+            return bound;
+        }
+        
+        public double valueAt(double[] coord) {
+            return evaluators.get().evaluate(coord.clone(), new double[nDimensions], new int[nLatticeVertices]);
+        }
+    }
+    
+    public NoiseKernel.HashedEvaluator createHashedEvaluator(long seed) {
+        return new HashedEvaluator(new LatticeHash(seed, gradients.length));
+    }
+    
+    // Actual noise: the corners of whichever cell the point is in, with the gradients picked by the hash of each corner.
+    private final class HashedEvaluator implements NoiseKernel.HashedEvaluator {
+        private final LatticeHash hash;
+        private final int[] cell = new int[nDimensions];
+        private final int[] vertex = new int[nDimensions];
+        private final double[] fraction = new double[nDimensions];
+        private final double[][] axisFades = new double[nDimensions][2];
+        
+        HashedEvaluator(LatticeHash hash) {
+            this.hash = hash;
+        }
+        
+        public double evaluate(double[] coord) {
+            for (int i = 0; i < nDimensions; i++) {
+                double base = Math.floor(coord[i]);
+                cell[i] = (int)base;
+                fraction[i] = coord[i] - base;
+                axisFades[i][0] = fadeCurve(fraction[i]);
+                axisFades[i][1] = fadeCurve(fraction[i] - 1);
+            }
+            double value = 0;
+            for (int k = 0; k < nLatticeVertices; k++) {
+                int[] latticePoint = latticePoints[k];
+                double falloff = 1;
+                for (int i = 0; i < nDimensions; i++) {
+                    vertex[i] = cell[i] + latticePoint[i];
+                    falloff *= axisFades[i][latticePoint[i]];
+                }
+                if (falloff == 0) continue;
+                
+                double[] gradient = gradients[hash.gradientIndex(vertex)];
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += (fraction[i] - latticePoint[i]) * gradient[i];
+                value += falloff * dot;
+            }
+            return value;
+        }
+    }
+    
+    public NoiseKernel.LaneEvaluator createLaneEvaluator(int nLanes) {
+        return new CellLaneEvaluator(nLanes);
+    }
+    
+    // Batched evaluation. Every lane goes through every vertex of the cell.
+    private final class CellLaneEvaluator implements NoiseKernel.LaneEvaluator {
+        private final LaneKernels kernels;
+        private final double[] fadePolynomial = fadeCurveType.polynomial();
+        private final double[][] displacements, laneGradients;
+        private final double[] displacement = new double[nDimensions];
+        
+        CellLaneEvaluator(int nLanes) {
+            kernels = LaneKernels.create(nDimensions, nLanes);
+            displacements = new double[nDimensions][nLanes];
+            laneGradients = new double[nDimensions][nLanes];
+        }
+        
+        public void evaluate(double[][] coords, double[] valuesOut, double[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            Arrays.fill(valuesOut, 0);
+            for (int i = 0; i < nDimensions; i++) Arrays.fill(derivativesOut[i], 0);
+            for (int k = 0; k < nLatticeVertices; k++) {
+                kernels.displacement(coords, latticeVertices[k], displacements, nLanes);
+                gradientIndex.selectLaneGradients(displacements, null, gradientIndicesOut[k], laneGradients, displacement, nLanes);
+                kernels.accumulateFade(displacements, fadePolynomial, laneGradients, valuesOut, derivativesOut, nLanes);
+            }
+        }
+        
+        public int moveLanes(double[][] coords, double[][] derivatives, double rate, boolean[] pending, int nLanes) {
+            return kernels.moveLanes(coords, derivatives, rate, true, pending, nLanes);
+        }
+    }
+    
+    public NoiseKernel.FloatLaneEvaluator createFloatLaneEvaluator(int nLanes) {
+        return new FloatCellLaneEvaluator(nLanes);
+    }
+    
+    // CellLaneEvaluator in single precision.
+    private final class FloatCellLaneEvaluator implements NoiseKernel.FloatLaneEvaluator {
+        private final FloatLaneKernels kernels;
+        private final float[] fadePolynomial = new float[fadeCurveType.polynomial().length];
+        private final float[][] displacements, laneGradients;
+        private final float[] displacement = new float[nDimensions];
+        
+        FloatCellLaneEvaluator(int nLanes) {
+            kernels = FloatLaneKernels.create(nDimensions, nLanes);
+            displacements = new float[nDimensions][nLanes];
+            laneGradients = new float[nDimensions][nLanes];
+            for (int c = 0; c < fadePolynomial.length; c++) fadePolynomial[c] = (float)fadeCurveType.polynomial()[c];
+        }
+        
+        public void evaluate(float[][] coords, float[] valuesOut, float[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            Arrays.fill(valuesOut, 0);
+            for (int i = 0; i < nDimensions; i++) Arrays.fill(derivativesOut[i], 0);
+            for (int k = 0; k < nLatticeVertices; k++) {
+                kernels.displacement(coords, latticeVertices[k], displacements, nLanes);
+                gradientIndex.selectLaneGradients(displacements, null, gradientIndicesOut[k], laneGradients, displacement, nLanes);
+                kernels.accumulateFade(displacements, fadePolynomial, laneGradients, valuesOut, derivativesOut, nLanes);
+            }
+        }
+        
+        public int moveLanes(float[][] coords, float[][] derivatives, float rate, boolean[] pending, int nLanes) {
+            return kernels.moveLanes(coords, derivatives, rate, true, pending, nLanes);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Mergeable quantile sketch of a stream of values, in bounded memory: a merging t-digest. See NoiseDistribution.
+ *
+ * Values are buffered, then sorted and merged into a sorted list of centroids (a mean and a weight each). A centroid may
+ * only grow while it spans at most one unit of k(q) = compression / (2 pi) * asin(2q - 1), where q is the fraction of
+ * the weight below it. That keeps the centroids small near both ends, so high and low percentiles come out far more
+ * accurately than the middle ones, and there are never more than about compression centroids, whatever the count.
+ * Two sketches merge the same way, so each thread can keep its own and they get combined at the end.
+ *
+ * Not thread-safe.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+
+public final class QuantileSketch {
+    
+    private static final int BUFFER_SIZE = 4096;
+    
+    private final double compression;
+    private double[] means = new double[64], weights = new double[64];
+    private int nCentroids;
+    private double centroidWeight;
+    
+    private final double[] buffer = new double[BUFFER_SIZE];
+    private int bufferSize;
+    
+    private long count;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    
+    public QuantileSketch(double compression) {
+        this.compression = compression;
+    }
+    
+    public void add(double value) {
+        if (bufferSize == BUFFER_SIZE) flush();
+        buffer[bufferSize++] = value;
+        count++;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+    
+    // Adds everything in other to this one. other is left as it was, apart from its buffer being flushed.
+    public void merge(QuantileSketch other) {
+        flush();
+        other.flush();
+        mergeSorted(other.means, other.weights, other.nCentroids);
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+    
+    public long count() {
+        return count;
+    }
+    
+    public double min() {
+        return min;
+    }
+    
+    public double max() {
+        return max;
+    }
+    
+    // The value with a fraction q of the values below it. Interpolates between centroid centres, and out to the exact
+    // minimum and maximum at the ends.
+    public double quantile(double q) {
+        flush();
+        if (nCentroids == 0) return Double.NaN;
+        if (q <= 0) return min;
+        if (q >= 1) return max;
+        double target = q * centroidWeight;
+        double previousCentre = 0, previousMean = min;
+        double cumulative = 0;
+        for (int i = 0; i < nCentroids; i++) {
+            double centre = cumulative + weights[i] / 2;
+            if (target < centre) {
+                return previousMean + (means[i] - previousMean) * (target - previousCentre) / (centre - previousCentre);
+            }
+            previousCentre = centre;
+            previousMean = means[i];
+            cumulative += weights[i];
+        }
+        return previousMean + (max - previousMean) * (target - previousCentre) / (centroidWeight - previousCentre);
+    }
+    
+    private void flush() {
+        if (bufferSize == 0) return;
+        Arrays.sort(buffer, 0, bufferSize);
+        double[] bufferWeights = new double[bufferSize];
+        Arrays.fill(bufferWeights, 1);
+        mergeSorted(buffer, bufferWeights, bufferSize);
+        bufferSize = 0;
+    }
+    
+    // Merges a sorted list of centroids with this one's, walking both in order and packing neighbours together as far as
+    // the scale function allows.
+    private void mergeSorted(double[] otherMeans, double[] otherWeights, int nOther) {
+        double totalWeight = centroidWeight;
+        for (int j = 0; j < nOther; j++) totalWeight += otherWeights[j];
+        double[] mergedMeans = new double[Math.max(64, nCentroids + 16)], mergedWeights = new double[mergedMeans.length];
+        int nMerged = 0;
+        
+        double weightSoFar = 0, weightLimit = totalWeight * qOfK(kOfQ(0) + 1);
+        double currentMean = 0, currentWeight = 0;
+        for (int i = 0, j = 0; i < nCentroids || j < nOther; ) {
+            double mean, weight;
+            if (j >= nOther || (i < nCentroids && means[i] <= otherMeans[j])) {
+                mean = means[i];
+                weight = weights[i++];
+            } else {
+                mean = otherMeans[j];
+                weight = otherWeights[j++];
+            }
+            if (currentWeight > 0 && weightSoFar + currentWeight + weight > weightLimit) {
+                if (nMerged == mergedMeans.length) {
+                    mergedMeans = Arrays.copyOf(mergedMeans, nMerged * 2);
+                    mergedWeights = Arrays.copyOf(mergedWeights, nMerged * 2);
+                }
+                mergedMeans[nMerged] = currentMean;
+                mergedWeights[nMerged++] = currentWeight;
+                weightSoFar += currentWeight;
+                weightLimit = totalWeight * qOfK(kOfQ(weightSoFar / totalWeight) + 1);
+                currentWeight = 0;
+            }
+            currentWeight += weight;
+            currentMean += (mean - currentMean) * weight / currentWeight;
+        }
+        if (currentWeight > 0) {
+            if (nMerged == mergedMeans.length) {
+                mergedMeans = Arrays.copyOf(mergedMeans, nMerged + 1);
+                mergedWeights = Arrays.copyOf(mergedWeights, nMerged + 1);
+            }
+            mergedMeans[nMerged] = currentMean;
+            mergedWeights[nMerged++] = currentWeight;
+        }
+        means = mergedMeans;
+        weights = mergedWeights;
+        nCentroids = nMerged;
+        centroidWeight = totalWeight;
+    }
+    
+    private double kOfQ(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+    
+    private double qOfK(double k) {
+        return (1 + Math.sin(Math.min(k * 2 * Math.PI / compression, Math.PI / 2))) / 2;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Decides when a search run is over, for both normalizers.
+ *
+ * A run can be bounded by wall-clock time, by the number of noise evaluations, and by stagnation: some number of
+ * consecutive finished restarts which didn't raise the best value by more than a relative epsilon. Each bound is off
+ * when set to 0. With all of them off, the run goes on until the JVM is killed, like it always has. A limit on the
+ * starting points (see StartPointSource) ends a run too, once the walkers have used them all up.
+ *
+ * Walkers poll shouldStop() between restarts (and every so often during one), so a run ends within about one step's
+ * latency of its budget running out.
+ *
+ * @author K.jpg
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class RunController {
+    
+    public enum StopReason {
+        TimeBudget, EvaluationBudget, Stagnation, StartPointBudget
+    }
+    
+    private final double maxSeconds;
+    private final long maxEvaluations;
+    private final long maxRestartsWithoutImprovement;
+    private final double improvementEpsilon;
+    
+    private final long startTimeNanos = System.nanoTime();
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicReference<StopReason> stopReason = new AtomicReference<>();
+    private double bestValue = Double.NEGATIVE_INFINITY;
+    private long restartsWithoutImprovement;
+    
+    public RunController(double maxSeconds, long maxEvaluations, long maxRestartsWithoutImprovement, double improvementEpsilon) {
+        this.maxSeconds = maxSeconds;
+        this.maxEvaluations = maxEvaluations;
+        this.maxRestartsWithoutImprovement = maxRestartsWithoutImprovement;
+        this.improvementEpsilon = improvementEpsilon;
+    }
+    
+    // True once any budget has run out. Stays true from then on.
+    public boolean shouldStop() {
+        if (stopReason.get() != null) return true;
+        if (maxSeconds > 0 && elapsedSeconds() >= maxSeconds) stop(StopReason.TimeBudget);
+        else if (maxEvaluations > 0 && evaluations.get() >= maxEvaluations) stop(StopReason.EvaluationBudget);
+        return stopReason.get() != null;
+    }
+    
+    public void addEvaluations(long count) {
+        evaluations.addAndGet(count);
+    }
+    
+    // Call with the value each restart converged to, for the stagnation bound.
+    public synchronized void restartFinished(double value) {
+        if (improves(value)) {
+            bestValue = value;
+            restartsWithoutImprovement = 0;
+        } else if (++restartsWithoutImprovement >= maxRestartsWithoutImprovement && maxRestartsWithoutImprovement > 0) {
+            stop(StopReason.Stagnation);
+        }
+    }
+    
+    // A better value found elsewhere, by another shard of the same search (see ShardCoordinator). The stagnation bound
+    // then counts from it, so a shard stops once it's gone long enough without beating every shard's best.
+    public synchronized void bestFoundElsewhere(double value) {
+        if (improves(value)) {
+            bestValue = value;
+            restartsWithoutImprovement = 0;
+        }
+    }
+    
+    // For when every walker ran out of starting points before any other bound was reached.
+    public void startPointsUsedUp() {
+        stop(StopReason.StartPointBudget);
+    }
+    
+    // Whether value beats the best so far by more than the epsilon. The first value always does. The epsilon can't be
+    // applied to the starting -infinity, which would give NaN, and nothing would ever count as an improvement.
+    private boolean improves(double value) {
+        return bestValue == Double.NEGATIVE_INFINITY || value > bestValue + improvementEpsilon * Math.abs(bestValue);
+    }
+    
+    // Why the run stopped, or null if it hasn't.
+    public StopReason stopReason() {
+        return stopReason.get();
+    }
+    
+    public long evaluations() {
+        return evaluations.get();
+    }
+    
+    public double elapsedSeconds() {
+        return (System.nanoTime() - startTimeNanos) * 1e-9;
+    }
+    
+    private void stop(StopReason reason) {
+        stopReason.compareAndSet(null, reason);
+    }
+}
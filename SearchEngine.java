@@ -0,0 +1,741 @@
+/*
+ * The maximum search, shared by both normalizers, on whichever NoiseKernel it's given.
+ *
+ * Walkers run gradient ascent from many starting points, on their own threads, and merge what they find into one global
+ * maximum. Each normalizer keeps its own settings at the top of its file, and passes them in here as a Settings.
+ *
+ * @author K.jpg
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class SearchEngine {
+    
+    // What the normalizer settings mean is documented with them, in NoiseNormalizer and NoiseNormalizerP.
+    public static final class Settings {
+        public double convergenceRate = 1.0 / 512;
+        public int maxRateRetryMultiplierExponent = 4;
+        public StepStrategy.Type stepStrategy = StepStrategy.Type.FixedRateDoubling;
+        public int newtonPolishAfterStableSteps = 16;
+        public boolean useBasinCache = true;
+        public int basinCacheAfterStableSteps = 4;
+        public int printedBasinCount = 12;
+        public int nThreads = Runtime.getRuntime().availableProcessors();
+        public boolean printAscentProgress = false;
+        public boolean printResults = true;
+        public double progressIntervalSeconds = 1;
+        public double metricsReportSeconds = 0;
+        public int batchSize = 0;
+        public boolean mixedPrecision = false;
+        public StartPointSource.Type startPointSource = StartPointSource.Type.Random;
+        public long startPointSeed = 0;
+        public double maxRunSeconds = 0;
+        public long maxEvaluations = 0;
+        public long maxStartPoints = 0;
+        public long maxRestartsWithoutImprovement = 0;
+        public double improvementEpsilon = 1e-12;
+        public boolean useSymmetryReduction = true;
+        public boolean certifyUpperBound = false;
+        public double boundRelativeTolerance = 1e-4;
+        public long maxBoundBoxes = 10_000_000;
+        
+        // Points the first restarts start from, before any from the start point source, e.g. the best maxima found for a
+        // neighbouring configuration (see bestLocations). Each one gets Newton-polished straight away.
+        public double[][] seedCoords = new double[0][];
+        
+        public String checkpointPath = null;
+        public double checkpointForceSeconds = 60;
+        
+        // With a coordinator address ("host:port"), this run is shard shardIndex of shardCount (see ShardCoordinator).
+        public String coordinatorAddress = null;
+        public int shardIndex = 0;
+        public int shardCount = 1;
+    }
+    
+    private final NoiseKernel kernel;
+    private final Settings settings;
+    private final int nDimensions;
+    private final int nLatticeVertices;
+    private final int maxRateRetryMultiplier;
+    private final SymmetryGroup symmetryGroup;
+    
+    public SearchEngine(NoiseKernel kernel, Settings settings) {
+        this.kernel = kernel;
+        this.settings = settings;
+        nDimensions = kernel.nDimensions();
+        nLatticeVertices = kernel.latticeVertices().length;
+        maxRateRetryMultiplier = 1 << settings.maxRateRetryMultiplierExponent;
+        symmetryGroup = kernel.symmetryGroup();
+        if (settings.certifyUpperBound && kernel.boxObjective() == null) throw new IllegalArgumentException(kernel.name() + " can't be bounded, so it can't be certified");
+        for (double[] seedCoord : settings.seedCoords) {
+            if (seedCoord.length != nDimensions) throw new IllegalArgumentException("A seed has " + seedCoord.length + " coordinates, and " + kernel.name() + " has " + nDimensions);
+        }
+        noMax = new MaxRecord(0, new double[nDimensions], new double[nDimensions], new double[nDimensions], new int[nLatticeVertices]);
+    }
+    
+    // The best maximum found so far by any walker. Walkers only ever swap in a whole new record (by CAS), never modify one,
+    // so the value, coordinates and gradient indices read from it always belong together.
+    private static final class MaxRecord {
+        final double value;
+        final double[] coord, startingCoord, derivativeVector;
+        final int[] gradientIndices;
+        
+        MaxRecord(double value, double[] coord, double[] startingCoord, double[] derivativeVector, int[] gradientIndices) {
+            this.value = value;
+            this.coord = coord;
+            this.startingCoord = startingCoord;
+            this.derivativeVector = derivativeVector;
+            this.gradientIndices = gradientIndices;
+        }
+    }
+    private final MaxRecord noMax;
+    private final AtomicReference<MaxRecord> globalMax = new AtomicReference<>();
+    private final BasinCache basinCache = new BasinCache();
+    private final AtomicInteger nextSeed = new AtomicInteger();
+    private StartPointSource startPoints;
+    private RunController controller;
+    private SearchMetrics metrics;
+    private MaximaLog log;
+    private ShardLink shardLink;
+    
+    // Where a walker's next restart starts from: one of the seeds, the start point source, or nowhere, once the start
+    // point source has reached maxStartPoints.
+    private enum Start {
+        Seed, Fresh, None
+    }
+    
+    // Merges a walker's result into the global maximum. Returns true if it became the new global maximum. A shard sends
+    // each new global maximum of its own on to the coordinator.
+    private boolean offerMax(MaxRecord candidate) {
+        MaxRecord current = globalMax.get();
+        while (candidate.value > current.value) {
+            if (globalMax.compareAndSet(current, candidate)) {
+                metrics.newMaximum(candidate.value);
+                if (shardLink != null) pushMax(candidate);
+                return true;
+            }
+            current = globalMax.get();
+        }
+        return false;
+    }
+    
+    // Next starting point inside the search domain, or inside its fundamental domain with useSymmetryReduction.
+    private Start startingCoord(StartPointSource.Cursor cursor, double[] coordOut) {
+        int seed = (nextSeed.get() < settings.seedCoords.length) ? nextSeed.getAndIncrement() : Integer.MAX_VALUE;
+        boolean seeded = seed < settings.seedCoords.length;
+        if (seeded) {
+            System.arraycopy(settings.seedCoords[seed], 0, coordOut, 0, nDimensions);
+            kernel.project(coordOut);
+        } else {
+            if (cursor.next(coordOut) < 0) return Start.None;
+            kernel.mapFromUnitCube(coordOut);
+        }
+        if (settings.useSymmetryReduction) symmetryGroup.canonicalize(coordOut);
+        return seeded ? Start.Seed : Start.Fresh;
+    }
+    
+    // Opens the checkpoint log (see MaximaLog), and picks up where the run that wrote it left off: its best maximum, its
+    // basins, its counters, and its place in the start point sequence. The time budget and the stagnation count start over.
+    private void openCheckpoint() {
+        try {
+            log = MaximaLog.open(Paths.get(settings.checkpointPath), nDimensions, nLatticeVertices, fingerprint(), settings.checkpointForceSeconds);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        MaximaLog.Record[] best = new MaximaLog.Record[1];
+        log.forEach(record -> {
+            if (best[0] == null || record.value > best[0].value) best[0] = record;
+            if (settings.useBasinCache) basinCache.converged(record.value, record.coord, record.gradientIndices, record.gradientIndices);
+        });
+        if (best[0] != null) {
+            double[] derivativeVector = new double[nDimensions];
+            kernel.createEvaluator().evaluate(best[0].coord.clone(), derivativeVector, new int[nLatticeVertices]);
+            globalMax.set(new MaxRecord(best[0].value, best[0].coord, best[0].startingCoord, derivativeVector, best[0].gradientIndices));
+            metrics.newMaximum(best[0].value);
+        }
+        metrics.addRestarts(log.restarts());
+        controller.addEvaluations(log.evaluations());
+        startPoints.skipBlocks(log.startPointBlocks());
+        if (settings.printResults && log.recordCount() > 0) {
+            System.out.println("Resumed from " + settings.checkpointPath + ": " + log.recordCount() + " converged maxima, " + log.restarts() + " restarts");
+        }
+    }
+    
+    // Identifies the noise configuration a checkpoint belongs to, by the noise values at a few fixed points. Those change
+    // with the gradients and with every constant.
+    private long fingerprint() {
+        NoiseKernel.Evaluator evaluator = kernel.createEvaluator();
+        SplittableRandom random = new SplittableRandom(0);
+        double[] coord = new double[nDimensions];
+        long fingerprint = nDimensions;
+        for (int n = 0; n < 16; n++) {
+            for (int i = 0; i < nDimensions; i++) coord[i] = random.nextDouble();
+            kernel.mapFromUnitCube(coord);
+            fingerprint = fingerprint * 31 + Double.doubleToLongBits(evaluator.evaluate(coord, new double[nDimensions], new int[nLatticeVertices]));
+        }
+        return fingerprint;
+    }
+    
+    private void logConverged(double value, double[] coord, double[] startingCoord, int[] gradientIndices) {
+        try {
+            log.append(value, coord, startingCoord, gradientIndices, startPoints.blocksTaken(), metrics.restarts() + 1, controller.evaluations());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Joins the coordinator of a sharded search. Its best value counts as this run's best for the stagnation bound, and
+    // a maximum this run resumed from a checkpoint goes straight to it.
+    private void openShardLink() {
+        try {
+            shardLink = ShardLink.connect(settings.coordinatorAddress, settings.shardIndex, settings.shardCount, fingerprint(),
+                    value -> controller.bestFoundElsewhere(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (settings.printResults) System.out.println("Shard " + settings.shardIndex + " of " + settings.shardCount + ", coordinated by " + settings.coordinatorAddress);
+        if (globalMax.get() != noMax) pushMax(globalMax.get());
+    }
+    
+    private void pushMax(MaxRecord max) {
+        try {
+            shardLink.pushMax(max.value, max.coord, max.startingCoord, max.gradientIndices);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private void closeShardLink(long restarts) {
+        try {
+            shardLink.finish(restarts, controller.evaluations(), controller.stopReason());
+            shardLink.close();
+            shardLink = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private void closeCheckpoint() {
+        try {
+            log.checkpoint(startPoints.blocksTaken(), metrics.restarts(), controller.evaluations());
+            log.close();
+            log = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Where the highest maxima of the last run are, best first: the global maximum, then the next highest basins the basin
+    // cache knows of. For seeding a run on a slightly different configuration.
+    public double[][] bestLocations(int count) {
+        MaxRecord max = globalMax.get();
+        List<double[]> locations = new ArrayList<>();
+        if (max != noMax) locations.add(max.coord.clone());
+        for (BasinCache.Basin basin : basinCache.basins()) {
+            if (locations.size() >= count) break;
+            if (basin.value() < max.value) locations.add(basin.coord());
+        }
+        return locations.stream().limit(count).toArray(double[][]::new);
+    }
+    
+    // Counters of the current run, or the last one once it's finished (see SearchMetrics).
+    public SearchMetrics.Snapshot metrics() {
+        return metrics.snapshot();
+    }
+    
+    // Runs the search until the run controller stops it, then returns the best maximum found (bracketed, with certifyUpperBound).
+    public SearchResult run() {
+        ForkJoinPool pool = new ForkJoinPool(settings.nThreads);
+        SearchResult result = run(pool);
+        pool.shutdown();
+        return result;
+    }
+    
+    // Same, on a pool which outlives the run, e.g. one shared by a whole sweep (see SweepRunner). It should have nThreads threads.
+    public SearchResult run(ForkJoinPool pool) {
+        controller = new RunController(settings.maxRunSeconds, settings.maxEvaluations, settings.maxRestartsWithoutImprovement, settings.improvementEpsilon);
+        metrics = new SearchMetrics(controller, settings.progressIntervalSeconds);
+        globalMax.set(noMax);
+        basinCache.clear();
+        nextSeed.set(0);
+        startPoints = StartPointSource.create(settings.startPointSource, nDimensions, settings.startPointSeed);
+        startPoints.shard(settings.shardIndex, settings.shardCount);
+        startPoints.limit(settings.maxStartPoints);
+        if (settings.checkpointPath != null) openCheckpoint();
+        if (settings.coordinatorAddress != null) openShardLink();
+        metrics.start(settings.metricsReportSeconds);
+        
+        // Each walker runs its own series of random restarts, with its own scratch buffers.
+        List<ForkJoinTask<?>> walkers = new ArrayList<>();
+        for (int t = 0; t < settings.nThreads; t++) {
+            if (settings.batchSize > 0 && settings.mixedPrecision) walkers.add(pool.submit(this::runMixedPrecisionBatchWalker));
+            else if (settings.batchSize > 0) walkers.add(pool.submit(this::runBatchWalker));
+            else walkers.add(pool.submit(this::runWalker));
+        }
+        for (ForkJoinTask<?> walker : walkers) walker.join();
+        if (controller.stopReason() == null) controller.startPointsUsedUp();
+        metrics.stop();
+        if (log != null) closeCheckpoint();
+        
+        long restarts = metrics.restarts();
+        double elapsedSeconds = controller.elapsedSeconds();
+        if (shardLink != null) closeShardLink(restarts);
+        printResults(restarts);
+        MaxRecord max = globalMax.get();
+        
+        BranchAndBound.Bracket bracket = null;
+        double certificationSeconds = 0;
+        if (settings.certifyUpperBound) {
+            BranchAndBound.BoxObjective boxObjective = kernel.boxObjective();
+            double knownValue = (max == noMax) ? Double.NEGATIVE_INFINITY : max.value;
+            SymmetryGroup boxSymmetries = settings.useSymmetryReduction ? symmetryGroup : SymmetryGroup.identity(nDimensions);
+            bracket = new BranchAndBound(boxObjective, boxSymmetries, nDimensions, settings.boundRelativeTolerance, settings.maxBoundBoxes).run(knownValue, pool);
+            certificationSeconds = controller.elapsedSeconds() - elapsedSeconds;
+            if (settings.printResults) System.out.println("Certified bracket: [" + bracket.found + ", " + bracket.bound + "] after " + bracket.boxes + " boxes, " + certificationSeconds + "s"
+                    + (bracket.complete ? "" : " (box budget ran out, so the bound is looser than the tolerance)"));
+            if (settings.printResults && bracket.foundCoord != null) System.out.println("Higher value found by the branch-and-bound, at " + Arrays.toString(boxObjective.coordAt(bracket.foundCoord)));
+        }
+        
+        // The values restarts converged to, and the basins found, with how many restarts ended up in each of them.
+        if (settings.printResults && restarts > 0) {
+            System.out.println("Converged values, highest buckets (range, restarts):");
+            metrics.histogramLines(settings.printedBasinCount).forEach(System.out::println);
+        }
+        List<BasinCache.Basin> basins = basinCache.basins();
+        if (settings.printResults && !basins.isEmpty()) {
+            System.out.println("Highest basins (value, restarts that ended there):");
+            basins.stream().limit(settings.printedBasinCount).forEach(basin -> System.out.println(basin.value() + ", " + basin.hits()));
+        }
+        
+        // A run stopped before any restart finished has no maximum to report, and noMax's zeros aren't one.
+        boolean found = (max != noMax);
+        return new SearchResult(kernel.name(), found ? max.value : Double.NaN, found ? max.coord.clone() : null, found ? max.startingCoord.clone() : null,
+                found ? max.gradientIndices.clone() : null, found ? max.derivativeVector.clone() : null, symmetryGroup.order(),
+                found ? symmetryGroup.orbit(max.coord).toArray(new double[0][]) : new double[0][], restarts, controller.evaluations(), elapsedSeconds, controller.stopReason(),
+                bracket == null ? null : new double[] { bracket.found, bracket.bound }, bracket != null && bracket.complete, certificationSeconds,
+                basins.stream().mapToDouble(BasinCache.Basin::value).toArray(), basins.stream().mapToLong(BasinCache.Basin::hits).toArray());
+    }
+    
+    private void runWalker() {
+        Walker walker = new Walker();
+        StartPointSource.Cursor cursor = startPoints.cursor();
+        double[] startingCoord = new double[nDimensions];
+        while (!controller.shouldStop()) {
+            Start start = startingCoord(cursor, startingCoord);
+            if (start == Start.None) return;
+            if (!walker.climb(startingCoord, startingCoord, start == Start.Seed)) return;
+        }
+    }
+    
+    // One walker's double-precision ascent, with its own scratch buffers, one restart at a time. The single walkers run
+    // every restart through it, and the mixed-precision batched mode finishes every lane's restart with it.
+    private final class Walker {
+        private final NoiseKernel.Evaluator evaluator = kernel.createEvaluator();
+        private final SearchMetrics.ScanSampler scanSampler = metrics.scanSampler(kernel);
+        private final double[] currentDerivativeVector = new double[nDimensions];
+        private final int[] latticePointGradientIndices = new int[nLatticeVertices];
+        private final double[] startingCoord = new double[nDimensions];
+        private final double[] movingCoord = new double[nDimensions];
+        private final double[] maximizingCoord = new double[nDimensions];
+        private final double[] maximizingDerivativeVector = new double[nDimensions];
+        private final int[] maximizingGradientIndices = new int[nLatticeVertices];
+        
+        // Line search trials get their own gradient index buffer, so they don't clobber the current point's.
+        private final StepStrategy stepStrategy = StepStrategy.create(settings.stepStrategy, nDimensions, settings.convergenceRate, maxRateRetryMultiplier);
+        private final int[] trialGradientIndices = new int[nLatticeVertices];
+        private final StepStrategy.Objective objective = new StepStrategy.Objective() {
+            public double evaluate(double[] coord, double[] derivativeOut) {
+                return evaluator.evaluate(coord, derivativeOut, trialGradientIndices);
+            }
+            public void project(double[] coord) {
+                kernel.project(coord);
+            }
+        };
+        
+        // Newton polishing, with the gradient indices held at the ones which have been stable.
+        private final NewtonPolisher polisher = new NewtonPolisher(nDimensions);
+        private final int[] stableGradientIndices = new int[nLatticeVertices];
+        private final double[] polishCoord = new double[nDimensions];
+        private final NewtonPolisher.SmoothPiece smoothPiece = new NewtonPolisher.SmoothPiece() {
+            public double evaluate(double[] coord, double[] derivativeOut, double[][] hessianOut) {
+                return evaluator.evaluateSmoothPiece(coord, stableGradientIndices, derivativeOut, hessianOut);
+            }
+            public void project(double[] coord) {
+                kernel.project(coord);
+            }
+            public boolean isPinned(double[] coord, double[] derivative, int axis) {
+                return kernel.isPinned(coord, derivative, axis);
+            }
+        };
+        
+        // Climbs from coord to a maximum, and merges it. startedAt is what gets reported as the starting point. A walker
+        // that's near a maximum already is polished at the first point. Returns false if the run was stopped partway.
+        boolean climb(double[] coord, double[] startedAt, boolean nearMaximum) {
+            System.arraycopy(coord, 0, movingCoord, 0, nDimensions);
+            System.arraycopy(startedAt, 0, startingCoord, 0, nDimensions);
+            
+            // This walker's maximum for the current restart. Only the final one is offered to the global maximum.
+            double maxValue = 0;
+            int lastExponent = Integer.MAX_VALUE;
+            int nSteps = 0, nPolishEvaluations = 0, nStableSteps = 0, nEvaluationsReported = 0;
+            stepStrategy.reset();
+            Arrays.fill(stableGradientIndices, -2);
+            BasinCache.Basin knownBasin = null;
+            
+            // Gradient Ascent Loop
+            while (true) {
+                
+                // Get noise value and gradient (derivative vector) at current point
+                double currentValue = evaluator.evaluate(movingCoord, currentDerivativeVector, latticePointGradientIndices);
+                if (scanSampler.due(1)) scanSampler.sample(movingCoord);
+                
+                // If we found a higher maximum, update. Also keep track of what yielded it.
+                if (currentValue > maxValue) {
+                    maxValue = currentValue;
+                    for (int i = 0; i < nDimensions; i++) maximizingCoord[i] = movingCoord[i];
+                    for (int i = 0; i < nDimensions; i++) maximizingDerivativeVector[i] = currentDerivativeVector[i];
+                    for (int i = 0; i < nLatticeVertices; i++) maximizingGradientIndices[i] = latticePointGradientIndices[i];
+                }
+                
+                // Every time the derivative magnitude drops by an order of magnitude, report the status in the console,
+                // unless something else was printed within the progress interval.
+                if (settings.printAscentProgress) {
+                    double currentDerivativeMagnitudeSq = 0;
+                    for (int i = 0; i < nDimensions; i++) currentDerivativeMagnitudeSq += currentDerivativeVector[i] * currentDerivativeVector[i];
+                    int exponent = Math.getExponent(currentDerivativeMagnitudeSq);
+                    if (exponent < lastExponent) {
+                        lastExponent = exponent;
+                        if (metrics.tryLog()) System.out.println("Current derivative magnitude: " + Math.sqrt(currentDerivativeMagnitudeSq) + ", current value: " + currentValue + ", current max value: " + Math.max(maxValue, globalMax.get().value));
+                    }
+                }
+                
+                // Once the gradient indices have held for long enough, try to finish this round with Newton polishing.
+                // If the maximum isn't inside this smooth piece, the polish won't converge, and the ascent carries on.
+                // Seeds and promoted walkers start at or near a maximum already, so they get polished at the first point.
+                boolean polished = false;
+                if (Arrays.equals(latticePointGradientIndices, stableGradientIndices)) nStableSteps++;
+                else {
+                    System.arraycopy(latticePointGradientIndices, 0, stableGradientIndices, 0, nLatticeVertices);
+                    nStableSteps = 0;
+                }
+                if (settings.useBasinCache && nStableSteps == settings.basinCacheAfterStableSteps) knownBasin = basinCache.lookup(latticePointGradientIndices);
+                boolean polishNow = (nearMaximum && nSteps == 0) || nStableSteps == settings.newtonPolishAfterStableSteps;
+                if (knownBasin == null && settings.newtonPolishAfterStableSteps > 0 && polishNow) {
+                    System.arraycopy(movingCoord, 0, polishCoord, 0, nDimensions);
+                    polished = polisher.polish(polishCoord, smoothPiece);
+                    nPolishEvaluations += polisher.evaluations();
+                    if (polished) {
+                        double polishedValue = evaluator.evaluate(polishCoord, currentDerivativeVector, latticePointGradientIndices);
+                        nPolishEvaluations++;
+                        if (polishedValue >= maxValue) {
+                            maxValue = polishedValue;
+                            for (int i = 0; i < nDimensions; i++) maximizingCoord[i] = polishCoord[i];
+                            for (int i = 0; i < nDimensions; i++) maximizingDerivativeVector[i] = currentDerivativeVector[i];
+                            for (int i = 0; i < nLatticeVertices; i++) maximizingGradientIndices[i] = latticePointGradientIndices[i];
+                        }
+                        if (settings.printAscentProgress && metrics.tryLog()) System.out.println("Newton polish converged, derivative magnitude: " + polisher.derivativeMagnitude());
+                    }
+                }
+                
+                // Perform the actual point movement. If the step strategy can't move the point any more, this round has converged.
+                if (knownBasin == null && !polished && stepStrategy.step(movingCoord, currentValue, currentDerivativeVector, objective)) {
+                    nSteps++;
+                    
+                    // Long rounds report their evaluations as they go, and give up if the run has been stopped.
+                    if ((nSteps & 4095) == 0) {
+                        int nEvaluations = nSteps + 1 + stepStrategy.extraEvaluations() + nPolishEvaluations;
+                        controller.addEvaluations(nEvaluations - nEvaluationsReported);
+                        nEvaluationsReported = nEvaluations;
+                        if (controller.shouldStop()) return false;
+                    }
+                    continue;
+                }
+                if (settings.printAscentProgress && metrics.tryLog()) {
+                    if (knownBasin != null) System.out.println("Reached a known basin, with max value " + knownBasin.value());
+                    else if (!polished) System.out.println("Convergence condition met.");
+                }
+                controller.addEvaluations(nSteps + 1 + stepStrategy.extraEvaluations() + nPolishEvaluations - nEvaluationsReported);
+                
+                // Merge this round's result into the global maximum and the basin cache, then print the updated results if
+                // it's a new maximum. A round cut short in a known basin counts as having reached that basin's maximum,
+                // which was merged already.
+                boolean improved = false;
+                if (knownBasin == null || maxValue > knownBasin.value()) {
+                    improved = offerMax(new MaxRecord(maxValue, maximizingCoord.clone(), startingCoord.clone(),
+                            maximizingDerivativeVector.clone(), maximizingGradientIndices.clone()));
+                }
+                if (settings.useBasinCache && knownBasin == null) {
+                    basinCache.converged(maxValue, maximizingCoord, maximizingGradientIndices, latticePointGradientIndices);
+                }
+                if (log != null && knownBasin == null) logConverged(maxValue, maximizingCoord, startingCoord, maximizingGradientIndices);
+                double convergedValue = (knownBasin == null) ? maxValue : Math.max(maxValue, knownBasin.value());
+                controller.restartFinished(convergedValue);
+                long restarts = metrics.restartFinished(convergedValue, nSteps, polished);
+                if (improved && metrics.tryLog()) printResults(restarts);
+                return true;
+            }
+        }
+    }
+    
+    // Batched mode. Advances batchSize walkers in lock-step on this thread, with their state in structure-of-arrays form
+    // so the per-vertex arithmetic and point movement run through LaneKernels (SIMD where the Vector API is available).
+    // That covers the long climb in from each starting point, where the fixed-rate steps keep raising the value. Once a
+    // lane's step stops raising it, or its gradient indices have held for newtonPolishAfterStableSteps steps, the lane is
+    // handed to a Walker, which polishes it and finishes the climb with the step strategy and basin cache, like a single
+    // walker's restart, and a fresh starting point takes its place. If the run is stopped first, each lane's best value so
+    // far is still merged into the global maximum.
+    private void runBatchWalker() {
+        int nLanes = settings.batchSize;
+        NoiseKernel.LaneEvaluator evaluator = kernel.createLaneEvaluator(nLanes);
+        SearchMetrics.ScanSampler scanSampler = metrics.scanSampler(kernel);
+        Walker walker = new Walker();
+        
+        StartPointSource.Cursor cursor = startPoints.cursor();
+        double[][] coords = new double[nDimensions][nLanes];
+        double[][] startingCoords = new double[nDimensions][nLanes];
+        double[][] derivatives = new double[nDimensions][nLanes];
+        double[] values = new double[nLanes];
+        int[][] gradientIndices = new int[nLatticeVertices][nLanes], stableGradientIndices = new int[nLatticeVertices][nLanes];
+        boolean[] pending = new boolean[nLanes], idle = new boolean[nLanes], handOver = new boolean[nLanes];
+        int[] stableSteps = new int[nLanes];
+        double[] laneCoord = new double[nDimensions], startingCoord = new double[nDimensions];
+        int nIdle = 0;
+        boolean stopped = false;
+        
+        // Each lane's maximum for its current restart, for merging if the run stops before the lane is handed over.
+        double[] maxValues = new double[nLanes];
+        double[][] maximizingCoords = new double[nDimensions][nLanes];
+        double[][] maximizingDerivatives = new double[nDimensions][nLanes];
+        int[][] maximizingGradientIndices = new int[nLatticeVertices][nLanes];
+        
+        Arrays.fill(maxValues, Double.NEGATIVE_INFINITY);
+        for (int l = 0; l < nLanes; l++) {
+            if (!fillLane(cursor, walker, coords, startingCoords, idle, laneCoord, l)) return;
+            if (idle[l]) nIdle++;
+        }
+        
+        while (!stopped && nIdle < nLanes && !controller.shouldStop()) {
+            
+            // Get noise values and gradients (derivative vectors) for every lane
+            evaluator.evaluate(coords, values, derivatives, gradientIndices, nLanes);
+            controller.addEvaluations(nLanes - nIdle);
+            if (scanSampler.due(nLanes)) {
+                for (int i = 0; i < nDimensions; i++) laneCoord[i] = coords[i][0];
+                scanSampler.sample(laneCoord);
+            }
+            
+            // Keep track of each lane's maximum, and of how long its gradient indices have held. A lane whose step didn't
+            // raise its value is done with the fixed-rate climb.
+            for (int l = 0; l < nLanes; l++) {
+                boolean stable = true;
+                for (int k = 0; k < nLatticeVertices; k++) {
+                    if (gradientIndices[k][l] != stableGradientIndices[k][l]) {
+                        stableGradientIndices[k][l] = gradientIndices[k][l];
+                        stable = false;
+                    }
+                }
+                stableSteps[l] = stable ? stableSteps[l] + 1 : 0;
+                boolean readyToPolish = settings.newtonPolishAfterStableSteps > 0 && stableSteps[l] >= settings.newtonPolishAfterStableSteps;
+                handOver[l] = !idle[l] && (values[l] <= maxValues[l] || readyToPolish);
+                if (values[l] <= maxValues[l]) continue;
+                maxValues[l] = values[l];
+                for (int i = 0; i < nDimensions; i++) maximizingCoords[i][l] = coords[i][l];
+                for (int i = 0; i < nDimensions; i++) maximizingDerivatives[i][l] = derivatives[i][l];
+                for (int k = 0; k < nLatticeVertices; k++) maximizingGradientIndices[k][l] = gradientIndices[k][l];
+            }
+            
+            // Hand those lanes over, from the best point they reached, then replace them.
+            for (int l = 0; l < nLanes && !stopped; l++) {
+                if (!handOver[l]) continue;
+                for (int i = 0; i < nDimensions; i++) {
+                    laneCoord[i] = maximizingCoords[i][l];
+                    startingCoord[i] = startingCoords[i][l];
+                }
+                if (!walker.climb(laneCoord, startingCoord, true)) {
+                    stopped = true;
+                    break;
+                }
+                maxValues[l] = Double.NEGATIVE_INFINITY;
+                stableSteps[l] = 0;
+                stopped = !fillLane(cursor, walker, coords, startingCoords, idle, laneCoord, l);
+                if (idle[l]) nIdle++;
+            }
+            if (stopped) break;
+            
+            // Move every other lane, doubling the rate only for lanes whose point didn't move, like the single walker does.
+            // Idle lanes, and the ones just replaced, stay where they are.
+            for (int l = 0; l < nLanes; l++) pending[l] = !idle[l] && !handOver[l];
+            double rateToTry = settings.convergenceRate;
+            double rateToStopAt = settings.convergenceRate * maxRateRetryMultiplier;
+            while (evaluator.moveLanes(coords, derivatives, rateToTry, pending, nLanes) > 0 && rateToTry < rateToStopAt) {
+                rateToTry *= 2;
+            }
+        }
+        mergeLanes(maxValues, maximizingCoords, startingCoords, maximizingDerivatives, maximizingGradientIndices, idle);
+    }
+    
+    // Merges the best point of every lane that's still climbing into the global maximum, when the run stops.
+    private void mergeLanes(double[] maxValues, double[][] maximizingCoords, double[][] startingCoords, double[][] maximizingDerivatives,
+            int[][] maximizingGradientIndices, boolean[] idle) {
+        for (int l = 0; l < maxValues.length; l++) {
+            if (idle[l] || maxValues[l] == Double.NEGATIVE_INFINITY) continue;
+            double[] maximizingCoord = new double[nDimensions], startingCoord = new double[nDimensions];
+            double[] maximizingDerivativeVector = new double[nDimensions];
+            int[] maximizingGradientIndicesOfLane = new int[nLatticeVertices];
+            for (int i = 0; i < nDimensions; i++) {
+                maximizingCoord[i] = maximizingCoords[i][l];
+                startingCoord[i] = startingCoords[i][l];
+                maximizingDerivativeVector[i] = maximizingDerivatives[i][l];
+            }
+            for (int k = 0; k < nLatticeVertices; k++) maximizingGradientIndicesOfLane[k] = maximizingGradientIndices[k][l];
+            offerMax(new MaxRecord(maxValues[l], maximizingCoord, startingCoord, maximizingDerivativeVector, maximizingGradientIndicesOfLane));
+        }
+    }
+    
+    // Mixed-precision batched mode. Advances batchSize walkers in lock-step on this thread like runBatchWalker, but in
+    // single precision (see FloatLaneKernels), until a lane can't move any more at that precision, or its gradient
+    // indices have held for newtonPolishAfterStableSteps steps. The lane is then promoted: a double-precision Walker
+    // polishes it and climbs the rest of the way from there, exactly as a single walker's restart would, and a fresh
+    // starting point takes its place. Nothing computed in single precision is ever merged, so the
+    // maximum is the same double-precision value it would be in any other mode. Falls back to runBatchWalker for
+    // kernels without a single-precision path.
+    private void runMixedPrecisionBatchWalker() {
+        int nLanes = settings.batchSize;
+        NoiseKernel.FloatLaneEvaluator evaluator = kernel.createFloatLaneEvaluator(nLanes);
+        if (evaluator == null) {
+            runBatchWalker();
+            return;
+        }
+        Walker walker = new Walker();
+        
+        StartPointSource.Cursor cursor = startPoints.cursor();
+        float[][] coords = new float[nDimensions][nLanes];
+        double[][] startingCoords = new double[nDimensions][nLanes];
+        float[][] derivatives = new float[nDimensions][nLanes];
+        float[] values = new float[nLanes];
+        int[][] gradientIndices = new int[nLatticeVertices][nLanes], stableGradientIndices = new int[nLatticeVertices][nLanes];
+        boolean[] pending = new boolean[nLanes], idle = new boolean[nLanes];
+        int[] laneSteps = new int[nLanes], stableSteps = new int[nLanes];
+        double[] laneCoord = new double[nDimensions], startingCoord = new double[nDimensions];
+        int nIdle = 0;
+        
+        for (int l = 0; l < nLanes; l++) {
+            if (!fillLane(cursor, walker, coords, startingCoords, idle, laneCoord, l)) return;
+            if (idle[l]) nIdle++;
+        }
+        
+        while (!controller.shouldStop() && nIdle < nLanes) {
+            evaluator.evaluate(coords, values, derivatives, gradientIndices, nLanes);
+            for (int l = 0; l < nLanes; l++) {
+                boolean stable = true;
+                for (int k = 0; k < nLatticeVertices; k++) {
+                    if (gradientIndices[k][l] != stableGradientIndices[k][l]) {
+                        stableGradientIndices[k][l] = gradientIndices[k][l];
+                        stable = false;
+                    }
+                }
+                stableSteps[l] = stable ? stableSteps[l] + 1 : 0;
+            }
+            
+            // Move every lane, doubling the rate only for lanes whose point didn't move, like runBatchWalker does.
+            for (int l = 0; l < nLanes; l++) pending[l] = !idle[l];
+            float rateToTry = (float)settings.convergenceRate;
+            float rateToStopAt = (float)(settings.convergenceRate * maxRateRetryMultiplier);
+            while (evaluator.moveLanes(coords, derivatives, rateToTry, pending, nLanes) > 0 && rateToTry < rateToStopAt) {
+                rateToTry *= 2;
+            }
+            for (int l = 0; l < nLanes; l++) {
+                if (!pending[l]) laneSteps[l]++;
+            }
+            
+            // Lanes that still couldn't move, or that are ready for polishing, get promoted, then replaced.
+            for (int l = 0; l < nLanes; l++) {
+                boolean readyToPolish = settings.newtonPolishAfterStableSteps > 0 && stableSteps[l] >= settings.newtonPolishAfterStableSteps;
+                if (idle[l] || !pending[l] && !readyToPolish) continue;
+                controller.addEvaluations(laneSteps[l] + 1);
+                laneSteps[l] = stableSteps[l] = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    laneCoord[i] = coords[i][l];
+                    startingCoord[i] = startingCoords[i][l];
+                }
+                kernel.project(laneCoord);
+                if (!walker.climb(laneCoord, startingCoord, true)) return;
+                if (!fillLane(cursor, walker, coords, startingCoords, idle, laneCoord, l)) return;
+                if (idle[l]) nIdle++;
+            }
+        }
+    }
+    
+    // Gives a lane of a batched mode its next starting point, or marks it idle if there are none left. Seeds are at a
+    // maximum already, so they go straight to the double-precision walker instead. Returns false if the run was stopped
+    // partway through one.
+    private boolean fillLane(StartPointSource.Cursor cursor, Walker walker, float[][] coords, double[][] startingCoords, boolean[] idle, double[] laneCoord, int lane) {
+        if (!nextLaneStart(cursor, walker, idle, laneCoord, lane)) return false;
+        if (idle[lane]) return true;
+        for (int i = 0; i < nDimensions; i++) {
+            startingCoords[i][lane] = laneCoord[i];
+            coords[i][lane] = (float)laneCoord[i];
+        }
+        return true;
+    }
+    
+    private boolean fillLane(StartPointSource.Cursor cursor, Walker walker, double[][] coords, double[][] startingCoords, boolean[] idle, double[] laneCoord, int lane) {
+        if (!nextLaneStart(cursor, walker, idle, laneCoord, lane)) return false;
+        if (idle[lane]) return true;
+        for (int i = 0; i < nDimensions; i++) startingCoords[i][lane] = coords[i][lane] = laneCoord[i];
+        return true;
+    }
+    
+    private boolean nextLaneStart(StartPointSource.Cursor cursor, Walker walker, boolean[] idle, double[] laneCoord, int lane) {
+        Start start;
+        while ((start = startingCoord(cursor, laneCoord)) == Start.Seed) {
+            if (!walker.climb(laneCoord, laneCoord, true)) return false;
+        }
+        if (start == Start.None) idle[lane] = true;
+        return true;
+    }
+    
+    private void printResults(long restarts) {
+        if (!settings.printResults) return;
+        MaxRecord max = globalMax.get();
+        if (max == noMax) {
+            System.out.println();
+            System.out.println("No restart finished, so there's no maximum to report.");
+            return;
+        }
+        SearchMetrics.Snapshot snapshot = metrics.snapshot();
+        double derivativeMagnitudeSq = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            if (!kernel.isPinned(max.coord, max.derivativeVector, i)) derivativeMagnitudeSq += max.derivativeVector[i] * max.derivativeVector[i];
+        }
+        synchronized (System.out) {
+            System.out.println();
+            System.out.println("Max Value Found: " + max.value);
+            System.out.println("Location: " + Arrays.toString(max.coord));
+            System.out.println("Starting Location: " + Arrays.toString(max.startingCoord));
+            System.out.println("Gradient Indices: " + Arrays.toString(max.gradientIndices));
+            System.out.println("Derivative Vector: " + Arrays.toString(max.derivativeVector));
+            System.out.println("Derivative Magnitude (off the cell boundary): " + Math.sqrt(derivativeMagnitudeSq));
+            System.out.println("Symmetric copies in the cell: " + symmetryGroup.orbit(max.coord).size() + " (symmetry group order " + symmetryGroup.order() + ")");
+            System.out.println("Found after: " + snapshot.bestSeconds + "s");
+            System.out.println("Restarts: " + restarts + " (" + (restarts / snapshot.elapsedSeconds) + "/s on " + settings.nThreads + " threads)");
+            System.out.println("Steps per restart: " + (snapshot.steps / (double)restarts) + ", evaluations per restart: "
+                    + (snapshot.evaluations / (double)restarts) + " (" + settings.stepStrategy + ")");
+            System.out.println("Evaluations per second: " + snapshot.evaluationsPerSecond()
+                    + (Double.isNaN(snapshot.scanShare) ? "" : ", time spent picking gradients: " + (snapshot.scanShare * 100) + "%"));
+            System.out.println("Newton-polished restarts: " + snapshot.polished);
+            if (settings.useBasinCache) System.out.println("Known basins: " + basinCache.size() + ", restarts cut short in one: " + basinCache.cutShort());
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Live measurements of a search run, for both normalizers: restarts, steps and evaluations per second, the share of
+ * evaluation time that goes into picking gradients, a histogram of the values restarts converge to, and how long the
+ * current best value took to find.
+ *
+ * Walkers only bump counters here, which never block them. The numbers get out three ways, none of which a walker waits on:
+ * snapshot(), a reporter thread which prints a summary line every so often, and JFR events. Anything a walker prints by
+ * itself goes through tryLog(), which lets one line through per log interval at most.
+ *
+ * The JFR events are in any recording, e.g. one started with -XX:StartFlightRecording=filename=run.jfr:
+ *     noise.SearchProgress   the counters, once a second
+ *     noise.NewMaximum       every new global maximum
+ *     noise.Restart          every finished restart. Off unless the recording's settings turn it on, since there can be
+ *                            hundreds of thousands a second.
+ *
+ * @author K.jpg
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+public final class SearchMetrics {
+    
+    // Converged values are counted in log-linear buckets: 2^HISTOGRAM_SUB_BUCKET_BITS per power of two, from
+    // 2^HISTOGRAM_MIN_EXPONENT up to 2^(HISTOGRAM_MAX_EXPONENT + 1). Bucket 0 takes everything below that.
+    private static final int HISTOGRAM_SUB_BUCKET_BITS = 3;
+    private static final int HISTOGRAM_MIN_EXPONENT = -32, HISTOGRAM_MAX_EXPONENT = 31;
+    
+    // Each walker times its gradient picks once per this many steps, over this many repeats. The share is published per
+    // window of samples rather than averaged over the run, since the timing code is slow until the JIT gets to it.
+    private static final int SCAN_SAMPLE_INTERVAL = 4096;
+    private static final int SCAN_SAMPLE_REPEATS = 8;
+    private static final int SCAN_SAMPLE_WINDOW = 256;
+    
+    private final RunController controller;
+    private final AtomicLong restarts = new AtomicLong();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder polished = new LongAdder();
+    private final AtomicLongArray histogram = new AtomicLongArray(
+            1 + ((HISTOGRAM_MAX_EXPONENT - HISTOGRAM_MIN_EXPONENT + 1) << HISTOGRAM_SUB_BUCKET_BITS));
+    private volatile double bestValue, bestSeconds;
+    private volatile double scanShare = Double.NaN;
+    
+    private final long logIntervalNanos;
+    private final AtomicLong nextLogNanos = new AtomicLong(System.nanoTime());
+    private ScheduledExecutorService reporter;
+    private Runnable progressEventHook;
+    
+    public SearchMetrics(RunController controller, double logIntervalSeconds) {
+        this.controller = controller;
+        this.logIntervalNanos = (long)(logIntervalSeconds * 1e9);
+    }
+    
+    // Counters at one moment, and the rates that follow from them.
+    public static final class Snapshot {
+        public final long restarts, steps, evaluations, polished;
+        public final double elapsedSeconds, bestValue, bestSeconds;
+        
+        // Share of evaluation time spent picking gradients (the per-vertex argmax), from the latest window of sampled
+        // timings. NaN until a walker has sampled a whole window.
+        public final double scanShare;
+        
+        Snapshot(long restarts, long steps, long evaluations, long polished, double elapsedSeconds, double bestValue, double bestSeconds, double scanShare) {
+            this.restarts = restarts;
+            this.steps = steps;
+            this.evaluations = evaluations;
+            this.polished = polished;
+            this.elapsedSeconds = elapsedSeconds;
+            this.bestValue = bestValue;
+            this.bestSeconds = bestSeconds;
+            this.scanShare = scanShare;
+        }
+        
+        public double restartsPerSecond() {
+            return restarts / elapsedSeconds;
+        }
+        
+        public double evaluationsPerSecond() {
+            return evaluations / elapsedSeconds;
+        }
+        
+        public double stepsPerRestart() {
+            return steps / (double)restarts;
+        }
+        
+        public String toString() {
+            return String.format("[%.0fs] best %s (found at %.1fs), %d restarts (%.1f/s), %.1f steps/restart, %.3g evaluations/s, %.1f%% picking gradients",
+                    elapsedSeconds, bestValue, bestSeconds, restarts, restartsPerSecond(), stepsPerRestart(), evaluationsPerSecond(), scanShare * 100);
+        }
+    }
+    
+    // Starts the JFR progress events, and the reporter thread if reportSeconds is above 0.
+    public void start(double reportSeconds) {
+        progressEventHook = () -> {
+            ProgressEvent event = new ProgressEvent();
+            Snapshot snapshot = snapshot();
+            event.restarts = snapshot.restarts;
+            event.evaluations = snapshot.evaluations;
+            event.restartsPerSecond = snapshot.restartsPerSecond();
+            event.evaluationsPerSecond = snapshot.evaluationsPerSecond();
+            event.stepsPerRestart = snapshot.stepsPerRestart();
+            event.scanShare = snapshot.scanShare;
+            event.bestValue = snapshot.bestValue;
+            event.bestSeconds = snapshot.bestSeconds;
+            event.commit();
+        };
+        FlightRecorder.addPeriodicEvent(ProgressEvent.class, progressEventHook);
+        if (reportSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "search-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long periodNanos = (long)(reportSeconds * 1e9);
+            reporter.scheduleAtFixedRate(() -> System.out.println(snapshot()), periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    public void stop() {
+        FlightRecorder.removePeriodicEvent(progressEventHook);
+        if (reporter != null) reporter.shutdownNow();
+    }
+    
+    // Counts a finished restart, and returns how many there have been.
+    public long restartFinished(double value, long nSteps, boolean wasPolished) {
+        steps.add(nSteps);
+        if (wasPolished) polished.increment();
+        histogram.incrementAndGet(histogramBucket(value));
+        long restart = restarts.incrementAndGet();
+        
+        RestartEvent event = new RestartEvent();
+        if (event.isEnabled()) {
+            event.value = value;
+            event.steps = nSteps;
+            event.polished = wasPolished;
+            event.commit();
+        }
+        return restart;
+    }
+    
+    // Restarts done by an earlier run, which this one carries on from.
+    public void addRestarts(long count) {
+        restarts.addAndGet(count);
+    }
+    
+    // Walkers can find new maxima at the same time, so the highest one wins here too.
+    public synchronized void newMaximum(double value) {
+        if (value <= bestValue) return;
+        bestValue = value;
+        bestSeconds = controller.elapsedSeconds();
+        
+        NewMaximumEvent event = new NewMaximumEvent();
+        if (event.isEnabled()) {
+            event.value = value;
+            event.restarts = restarts.get();
+            event.elapsedSeconds = bestSeconds;
+            event.commit();
+        }
+    }
+    
+    public long restarts() {
+        return restarts.get();
+    }
+    
+    // True if a line may be printed now. At most one caller gets true per log interval, across all threads.
+    public boolean tryLog() {
+        long now = System.nanoTime(), next = nextLogNanos.get();
+        return now - next >= 0 && nextLogNanos.compareAndSet(next, now + logIntervalNanos);
+    }
+    
+    public Snapshot snapshot() {
+        return new Snapshot(restarts.get(), steps.sum(), controller.evaluations(), polished.sum(), controller.elapsedSeconds(),
+                bestValue, bestSeconds, scanShare);
+    }
+    
+    // The highest non-empty histogram buckets, highest first, as "[low, high): count" lines.
+    public List<String> histogramLines(int maxLines) {
+        List<String> lines = new ArrayList<>();
+        for (int b = histogram.length() - 1; b >= 0 && lines.size() < maxLines; b--) {
+            long count = histogram.get(b);
+            if (count == 0) continue;
+            String low = (b == 0) ? "-inf" : Double.toString(bucketLowerBound(b));
+            lines.add("[" + low + ", " + bucketLowerBound(b + 1) + "): " + count);
+        }
+        return lines;
+    }
+    
+    private static int histogramBucket(double value) {
+        if (!(value >= Math.scalb(1.0, HISTOGRAM_MIN_EXPONENT))) return 0;
+        int exponent = Math.min(Math.getExponent(value), HISTOGRAM_MAX_EXPONENT);
+        int subBucket = (exponent == Math.getExponent(value)) ?
+                (int)(Double.doubleToRawLongBits(value) >>> (52 - HISTOGRAM_SUB_BUCKET_BITS)) & ((1 << HISTOGRAM_SUB_BUCKET_BITS) - 1) :
+                (1 << HISTOGRAM_SUB_BUCKET_BITS) - 1;
+        return 1 + ((exponent - HISTOGRAM_MIN_EXPONENT) << HISTOGRAM_SUB_BUCKET_BITS) + subBucket;
+    }
+    
+    private static double bucketLowerBound(int bucket) {
+        int exponent = HISTOGRAM_MIN_EXPONENT + ((bucket - 1) >> HISTOGRAM_SUB_BUCKET_BITS);
+        int subBucket = (bucket - 1) & ((1 << HISTOGRAM_SUB_BUCKET_BITS) - 1);
+        return Math.scalb(1 + subBucket / (double)(1 << HISTOGRAM_SUB_BUCKET_BITS), exponent);
+    }
+    
+    public ScanSampler scanSampler(NoiseKernel kernel) {
+        return new ScanSampler(kernel);
+    }
+    
+    // Estimates how much of an evaluation goes into picking gradients, for one walker. When it's due, it times a few
+    // evaluations at the walker's point, then the same gradient picks on their own. It has its own scalar evaluator,
+    // so batched walkers are measured the same way.
+    public final class ScanSampler {
+        private final NoiseKernel kernel;
+        private final NoiseKernel.Evaluator evaluator;
+        private final GradientIndex gradientIndex;
+        private final double[][] latticeVertices, directions;
+        private final double[] coord, derivative;
+        private final int[] gradientIndices;
+        private int countdown = SCAN_SAMPLE_INTERVAL, nSamples;
+        private long evaluateNanos, scanNanos;
+        private double sink;
+        
+        ScanSampler(NoiseKernel kernel) {
+            this.kernel = kernel;
+            evaluator = kernel.createEvaluator();
+            gradientIndex = kernel.gradientIndex();
+            latticeVertices = kernel.latticeVertices();
+            directions = new double[latticeVertices.length][latticeVertices[0].length];
+            coord = new double[kernel.nDimensions()];
+            derivative = new double[kernel.nDimensions()];
+            gradientIndices = new int[latticeVertices.length];
+        }
+        
+        // Call with the steps taken since the last call. True once every SCAN_SAMPLE_INTERVAL steps.
+        public boolean due(int nSteps) {
+            if ((countdown -= nSteps) > 0) return false;
+            countdown = SCAN_SAMPLE_INTERVAL;
+            return true;
+        }
+        
+        public void sample(double[] walkerCoord) {
+            int nDimensions = coord.length;
+            long start = System.nanoTime();
+            for (int r = 0; r < SCAN_SAMPLE_REPEATS; r++) {
+                System.arraycopy(walkerCoord, 0, coord, 0, nDimensions);
+                sink += evaluator.evaluate(coord, derivative, gradientIndices);
+            }
+            long evaluated = System.nanoTime();
+            
+            // The evaluator has left coord in the cell the lattice vertices are relative to.
+            int nContributing = 0;
+            for (int k = 0; k < latticeVertices.length; k++) {
+                if (gradientIndices[k] < 0) continue;
+                for (int i = 0; i < latticeVertices[k].length; i++) directions[nContributing][i] = coord[i] - latticeVertices[k][i];
+                nContributing++;
+            }
+            long scanStart = System.nanoTime();
+            for (int r = 0; r < SCAN_SAMPLE_REPEATS; r++) {
+                for (int c = 0; c < nContributing; c++) sink += bestGradientIndex(directions[c]);
+            }
+            long scanned = System.nanoTime();
+            evaluateNanos += evaluated - start;
+            scanNanos += scanned - scanStart;
+            if (++nSamples < SCAN_SAMPLE_WINDOW) return;
+            scanShare = scanNanos / (double)evaluateNanos;
+            nSamples = 0;
+            evaluateNanos = scanNanos = 0;
+        }
+        
+        // The same overload the evaluators use for this dimension count.
+        private int bestGradientIndex(double[] direction) {
+            switch (direction.length) {
+                case 2: return gradientIndex.bestGradientIndex(direction[0], direction[1]);
+                case 3: return gradientIndex.bestGradientIndex(direction[0], direction[1], direction[2]);
+                case 4: return gradientIndex.bestGradientIndex(direction[0], direction[1], direction[2], direction[3]);
+                default: return gradientIndex.bestGradientIndex(direction);
+            }
+        }
+    }
+    
+    @Name("noise.SearchProgress")
+    @Label("Search Progress")
+    @Category("Noise Normalizer")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class ProgressEvent extends Event {
+        @Label("Restarts") long restarts;
+        @Label("Evaluations") long evaluations;
+        @Label("Restarts per Second") double restartsPerSecond;
+        @Label("Evaluations per Second") double evaluationsPerSecond;
+        @Label("Steps per Restart") double stepsPerRestart;
+        @Label("Gradient Picking Share") @Description("Share of evaluation time spent picking gradients") double scanShare;
+        @Label("Best Value") double bestValue;
+        @Label("Best Value Found At") @Description("Seconds into the run") double bestSeconds;
+    }
+    
+    @Name("noise.NewMaximum")
+    @Label("New Maximum")
+    @Category("Noise Normalizer")
+    @StackTrace(false)
+    static final class NewMaximumEvent extends Event {
+        @Label("Value") double value;
+        @Label("Restarts") long restarts;
+        @Label("Elapsed Seconds") double elapsedSeconds;
+    }
+    
+    @Name("noise.Restart")
+    @Label("Restart")
+    @Category("Noise Normalizer")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class RestartEvent extends Event {
+        @Label("Converged Value") double value;
+        @Label("Steps") long steps;
+        @Label("Newton Polished") boolean polished;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The outcome of a finished search run: the best maximum found and what produced it, its symmetric copies, how the run went,
+ * the certified bracket [found, bound] on the true maximum if the branch-and-bound ran (null otherwise) and how long that
+ * took (elapsedSeconds is the search alone), and the value and hit count of every basin the basin cache knows of, highest
+ * value first (empty without it). If no restart finished, maxValue is NaN and the location, starting location, gradient
+ * indices and derivative vector are null.
+ * toJson() gives the same thing in machine-readable form, for scripts that compute constants for many configurations.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public final class SearchResult {
+    
+    public final String noiseType;
+    public final double maxValue;
+    public final double[] location, startingLocation, derivativeVector;
+    public final int[] gradientIndices;
+    public final int symmetryGroupOrder;
+    public final double[][] equivalentLocations;
+    public final long restarts, evaluations;
+    public final double elapsedSeconds;
+    public final RunController.StopReason stopReason;
+    public final double[] certifiedBracket;
+    public final boolean certifiedBracketComplete;
+    public final double certificationSeconds;
+    public final double[] basinValues;
+    public final long[] basinHits;
+    
+    public SearchResult(String noiseType, double maxValue, double[] location, double[] startingLocation,
+            int[] gradientIndices, double[] derivativeVector, int symmetryGroupOrder, double[][] equivalentLocations, long restarts, long evaluations,
+            double elapsedSeconds, RunController.StopReason stopReason, double[] certifiedBracket, boolean certifiedBracketComplete,
+            double certificationSeconds, double[] basinValues, long[] basinHits) {
+        this.noiseType = noiseType;
+        this.maxValue = maxValue;
+        this.location = location;
+        this.startingLocation = startingLocation;
+        this.gradientIndices = gradientIndices;
+        this.derivativeVector = derivativeVector;
+        this.symmetryGroupOrder = symmetryGroupOrder;
+        this.equivalentLocations = equivalentLocations;
+        this.restarts = restarts;
+        this.evaluations = evaluations;
+        this.elapsedSeconds = elapsedSeconds;
+        this.stopReason = stopReason;
+        this.certifiedBracket = certifiedBracket;
+        this.certifiedBracketComplete = certifiedBracketComplete;
+        this.certificationSeconds = certificationSeconds;
+        this.basinValues = basinValues;
+        this.basinHits = basinHits;
+    }
+    
+    public String toJson() {
+        return "{\n"
+                + "  \"noiseType\": " + toJson(noiseType) + ",\n"
+                + "  \"maxValue\": " + toJson(maxValue) + ",\n"
+                + "  \"location\": " + toJson(location) + ",\n"
+                + "  \"startingLocation\": " + toJson(startingLocation) + ",\n"
+                + "  \"gradientIndices\": " + (gradientIndices == null ? "null" : Arrays.toString(gradientIndices)) + ",\n"
+                + "  \"derivativeVector\": " + toJson(derivativeVector) + ",\n"
+                + "  \"symmetryGroupOrder\": " + symmetryGroupOrder + ",\n"
+                + "  \"equivalentLocations\": " + Arrays.stream(equivalentLocations).map(SearchResult::toJson).collect(Collectors.joining(", ", "[", "]")) + ",\n"
+                + "  \"restarts\": " + restarts + ",\n"
+                + "  \"evaluations\": " + evaluations + ",\n"
+                + "  \"elapsedSeconds\": " + elapsedSeconds + ",\n"
+                + "  \"stopReason\": " + (stopReason == null ? "null" : "\"" + stopReason + "\"") + ",\n"
+                + "  \"certifiedBracket\": " + toJson(certifiedBracket) + ",\n"
+                + "  \"certifiedBracketComplete\": " + certifiedBracketComplete + ",\n"
+                + "  \"certificationSeconds\": " + certificationSeconds + ",\n"
+                + "  \"basins\": " + IntStream.range(0, basinValues.length)
+                        .mapToObj(b -> "{\"value\": " + basinValues[b] + ", \"hits\": " + basinHits[b] + "}").collect(Collectors.joining(", ", "[", "]")) + "\n"
+                + "}\n";
+    }
+    
+    // A JSON string, quoted and escaped.
+    static String toJson(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int)c));
+            else json.append(c);
+        }
+        return json.append('"').toString();
+    }
+    
+    // Double.toString round-trips exactly, but JSON has no NaN or infinities, so those become null.
+    private static String toJson(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+    
+    private static String toJson(double[] values) {
+        if (values == null) return "null";
+        return Arrays.stream(values).mapToObj(SearchResult::toJson).collect(Collectors.joining(", ", "[", "]"));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Coordinator for one search split over several processes, on one machine or several. Each shard is a normalizer (or
+ * anything else running a SearchEngine) with its own share of the starting points (see StartPointSource). Shards send
+ * every new best maximum they find here, over a ShardLink, and this merges them and sends the best value back out to
+ * all of them, so each shard's stagnation bound counts from the best of them all.
+ *
+ * Usage: java ShardCoordinator shards [port] [bind address]
+ * Listens on PORT of the loopback address by default. Give a bind address, e.g. 0.0.0.0, to take shards from other
+ * machines. Prints the merged result once every shard's run has ended.
+ *
+ * Restarts only depend on their own starting point, so with the same settings and MAX_START_POINTS in every shard, the
+ * merged maximum is the one a single process would find with that MAX_START_POINTS.
+ *
+ * @author K.jpg
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShardCoordinator {
+    
+    public static int PORT = 47100;
+    
+    private final int shardCount;
+    private final List<Writer> shardOutputs = new ArrayList<>();
+    private final String[] stopReasons;
+    private Long fingerprint = null;
+    private int shardsEnded;
+    private long restarts, evaluations;
+    
+    // The merged maximum, and the shard that found it
+    private double maxValue = Double.NEGATIVE_INFINITY;
+    private double[] maxCoord, maxStartingCoord;
+    private int[] maxGradientIndices;
+    private int maxShard = -1;
+    
+    public ShardCoordinator(int shardCount) {
+        this.shardCount = shardCount;
+        stopReasons = new String[shardCount];
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java ShardCoordinator shards [port] [bind address]");
+            return;
+        }
+        int shardCount = Integer.parseInt(args[0]);
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : PORT;
+        InetAddress bindAddress = (args.length > 2) ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        ShardCoordinator coordinator = new ShardCoordinator(shardCount);
+        
+        try (ServerSocket server = new ServerSocket(port, 50, bindAddress)) {
+            System.out.println("Waiting for " + shardCount + " shards on " + bindAddress.getHostAddress() + ":" + port);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        Thread shard = new Thread(() -> coordinator.serve(socket), "Shard connection");
+                        shard.setDaemon(true);
+                        shard.start();
+                    }
+                } catch (IOException e) {
+                    // The server socket was closed, once every shard had ended.
+                }
+            }, "Shard acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            coordinator.awaitShards();
+        }
+        coordinator.print();
+    }
+    
+    public synchronized void awaitShards() throws InterruptedException {
+        while (shardsEnded < shardCount) wait();
+    }
+    
+    // Handles one shard's connection, until its run ends or the connection is lost.
+    private void serve(Socket socket) {
+        int shardIndex = -1;
+        boolean ended = false;
+        Writer out = null;
+        try (socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            for (String line; !ended && (line = in.readLine()) != null; ) {
+                String[] fields = line.split(" ");
+                switch (fields[0]) {
+                    case "hello":
+                        shardIndex = join(out, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3]));
+                        if (shardIndex < 0) return;
+                        break;
+                    case "max":
+                        if (shardIndex < 0) throw new IOException("max before hello");
+                        merge(shardIndex, Double.parseDouble(fields[1]), ShardLink.parseDoubles(fields[2]), ShardLink.parseDoubles(fields[3]), ShardLink.parseInts(fields[4]));
+                        break;
+                    case "done":
+                        if (shardIndex < 0) throw new IOException("done before hello");
+                        end(shardIndex, out, Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+                        ended = true;
+                        break;
+                    default:
+                        throw new IOException("Unknown message: " + line);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Shard " + (shardIndex < 0 ? "connection" : Integer.toString(shardIndex)) + ": " + e);
+        }
+        
+        // A shard whose connection was lost partway counts as ended, but the starting points it had left aren't covered.
+        if (shardIndex >= 0 && !ended) end(shardIndex, out, 0, 0, "ConnectionLost");
+    }
+    
+    // Admits a shard, and sends it the best value so far. Returns its index, or -1 if it doesn't belong to this search.
+    // Either way, the shard's waiting for the answer before it starts searching.
+    private synchronized int join(Writer out, int shardIndex, int shardCount, long fingerprint) throws IOException {
+        String error = null;
+        if (shardCount != this.shardCount) error = "This search has " + this.shardCount + " shards, not " + shardCount;
+        else if (shardIndex < 0 || shardIndex >= shardCount) error = "No shard " + shardIndex;
+        else if (stopReasons[shardIndex] != null) error = "Shard " + shardIndex + " has already joined";
+        else if (this.fingerprint != null && fingerprint != this.fingerprint) error = "Shard " + shardIndex + " is searching a different noise configuration";
+        if (error != null) {
+            System.err.println(error);
+            send(out, "error " + error);
+            return -1;
+        }
+        this.fingerprint = fingerprint;
+        stopReasons[shardIndex] = "Running";
+        shardOutputs.add(out);
+        System.out.println("Shard " + shardIndex + " joined");
+        send(out, "joined");
+        if (maxShard >= 0) send(out, "best " + maxValue);
+        return shardIndex;
+    }
+    
+    private synchronized void merge(int shardIndex, double value, double[] coord, double[] startingCoord, int[] gradientIndices) {
+        if (value <= maxValue) return;
+        maxValue = value;
+        maxCoord = coord;
+        maxStartingCoord = startingCoord;
+        maxGradientIndices = gradientIndices;
+        maxShard = shardIndex;
+        System.out.println("Shard " + shardIndex + " found " + value);
+        for (Writer out : shardOutputs) {
+            try {
+                send(out, "best " + value);
+            } catch (IOException e) {
+                // That shard's own connection handler will find out.
+            }
+        }
+    }
+    
+    private synchronized void end(int shardIndex, Writer out, long restarts, long evaluations, String stopReason) {
+        this.restarts += restarts;
+        this.evaluations += evaluations;
+        stopReasons[shardIndex] = stopReason;
+        shardOutputs.remove(out);
+        shardsEnded++;
+        System.out.println("Shard " + shardIndex + " ended: " + stopReason);
+        notifyAll();
+    }
+    
+    public synchronized void print() {
+        System.out.println();
+        System.out.println("Merged Max Value Found: " + maxValue);
+        System.out.println("Location: " + Arrays.toString(maxCoord));
+        System.out.println("Starting Location: " + Arrays.toString(maxStartingCoord));
+        System.out.println("Gradient Indices: " + Arrays.toString(maxGradientIndices));
+        System.out.println("Found by shard: " + maxShard);
+        System.out.println("Restarts: " + restarts + ", evaluations: " + evaluations + " (all shards)");
+        System.out.println("Shards stopped: " + Arrays.toString(stopReasons));
+    }
+    
+    private static void send(Writer out, String line) throws IOException {
+        synchronized (out) {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+    }
+}
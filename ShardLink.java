@@ -0,0 +1,123 @@
+/*
+ * A shard's connection to its ShardCoordinator, for one search split over several processes. See SearchEngine.
+ *
+ * Everything goes over one TCP connection, as lines of text. The shard introduces itself, and waits to be let in or
+ * turned away before it starts its search. It then sends every new best maximum as soon as it finds it, and sends a
+ * summary when its run ends. The coordinator sends back the best value of all the shards whenever that goes up. Doubles
+ * are written with Double.toString, which round-trips exactly, so the coordinator merges the very same values the
+ * shards found.
+ *
+ *     shard to coordinator:   hello <shard index> <shard count> <fingerprint>
+ *                             max <value> <coord> <starting coord> <gradient indices>    (arrays comma-separated)
+ *                             done <restarts> <evaluations> <stop reason>
+ *     coordinator to shard:   joined, or error <message>        (the answer to hello)
+ *                             best <value>
+ *
+ * @author K.jpg
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collectors;
+
+public final class ShardLink implements AutoCloseable {
+    
+    // A shard started before its coordinator keeps trying to connect for this long.
+    private static double CONNECT_TIMEOUT_SECONDS = 30;
+    private static long CONNECT_RETRY_MILLIS = 250;
+    
+    private final Socket socket;
+    private final Writer out;
+    
+    private ShardLink(Socket socket) throws IOException {
+        this.socket = socket;
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+    
+    // Connects to the coordinator at address ("host:port"), and introduces this shard. The best values the coordinator
+    // sends back go to bestFoundElsewhere, on a thread of the link's own. The fingerprint identifies the noise
+    // configuration, so the coordinator can turn away a shard that's searching a different one. Throws if it does.
+    public static ShardLink connect(String address, int shardIndex, int shardCount, long fingerprint, DoubleConsumer bestFoundElsewhere) throws IOException {
+        int colon = address.lastIndexOf(':');
+        String host = address.substring(0, colon);
+        int port = Integer.parseInt(address.substring(colon + 1));
+        long deadlineNanos = System.nanoTime() + (long)(CONNECT_TIMEOUT_SECONDS * 1e9);
+        Socket socket;
+        while (true) {
+            try {
+                socket = new Socket(host, port);
+                break;
+            } catch (ConnectException e) {
+                if (System.nanoTime() > deadlineNanos) throw e;
+                try {
+                    Thread.sleep(CONNECT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+        ShardLink link = new ShardLink(socket);
+        link.send("hello " + shardIndex + " " + shardCount + " " + fingerprint);
+        
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String answer = in.readLine();
+        if (!"joined".equals(answer)) {
+            socket.close();
+            if (answer != null && answer.startsWith("error ")) throw new IOException("Shard coordinator: " + answer.substring(6));
+            throw new IOException("Shard coordinator didn't let shard " + shardIndex + " join: " + answer);
+        }
+        Thread reader = new Thread(() -> {
+            try {
+                for (String line; (line = in.readLine()) != null; ) {
+                    if (line.startsWith("best ")) bestFoundElsewhere.accept(Double.parseDouble(line.substring(5)));
+                }
+            } catch (IOException e) {
+                // The link was closed.
+            }
+        }, "Shard link");
+        reader.setDaemon(true);
+        reader.start();
+        return link;
+    }
+    
+    public synchronized void pushMax(double value, double[] coord, double[] startingCoord, int[] gradientIndices) throws IOException {
+        send("max " + value + " " + join(coord) + " " + join(startingCoord) + " "
+                + Arrays.stream(gradientIndices).mapToObj(Integer::toString).collect(Collectors.joining(",")));
+    }
+    
+    public synchronized void finish(long restarts, long evaluations, RunController.StopReason stopReason) throws IOException {
+        send("done " + restarts + " " + evaluations + " " + stopReason);
+    }
+    
+    public void close() throws IOException {
+        socket.close();
+    }
+    
+    private void send(String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+    
+    static String join(double[] values) {
+        return Arrays.stream(values).mapToObj(Double::toString).collect(Collectors.joining(","));
+    }
+    
+    static double[] parseDoubles(String values) {
+        return Arrays.stream(values.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+    
+    static int[] parseInts(String values) {
+        return Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+}
@@ -0,0 +1,859 @@
+/*
+ * Simplex-type noise kernel: OpenSimplex2(F/S), Simplex, and others on a skewed cubic lattice with a radial falloff.
+ *
+ * Each lattice vertex contributes (FALLOFF_RADIUS_SQ - |d|^2)^4 * dot(d, g) within the falloff radius, where d is the
+ * vertex-to-point vector and g is whichever gradient in the set makes that dot product largest. The noise is the same in
+ * every cell, so points get re-centred into the base cell, which is all the search domain there is. No clamping needed.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+public final class SimplexKernel implements NoiseKernel {
+    
+    private final int nDimensions;
+    private final double unskewConstant;
+    private final double falloffRadiusSq;
+    private final double[][] gradients;
+    
+    // Picks the best gradient for each vertex without scanning the whole set.
+    private final GradientIndex gradientIndex;
+    
+    // Surrounding vertices on lattice, range (-1, -1, ..., -1) to (2, 2, ..., 2) in skew (cube) space.
+    private final int nLatticeVertices;
+    private final int[][] latticePointsCubespace;
+    private final double[][] latticePoints;
+    
+    // Inverse of the unskew transform: cube-space coordinate = coordinate + skewConstant * (sum of the coordinate's components)
+    private final double skewConstant;
+    
+    // The unit cell splits into N! simplices, one per ordering of the point's cube-space fractional components.
+    // For each of them, this lists the lattice vertices (indices into latticePoints) which come within the falloff radius
+    // of any point inside that simplex. Indexed by the bits of the pairwise component comparisons, see simplexRegionKey.
+    private final int nRegionKeyBits;
+    private final int[][] contributingVertices;
+    private final int[] allContributingVertices; // Union over all sub-regions, for the batched mode
+    
+    // Symmetries of the noise about the lattice origin. The lattice basis is the unit cube's edges, skewed.
+    private final SymmetryGroup symmetryGroup;
+    
+    public SimplexKernel(int nDimensions, double unskewConstant, double falloffRadiusSq, double[][] gradients) {
+        this.nDimensions = nDimensions;
+        this.unskewConstant = unskewConstant;
+        this.falloffRadiusSq = falloffRadiusSq;
+        this.gradients = gradients;
+        gradientIndex = new GradientIndex(gradients);
+        
+        nLatticeVertices = 1 << (2 * nDimensions);
+        latticePointsCubespace = new int[nLatticeVertices][];
+        latticePoints = new double[nLatticeVertices][];
+        for (int k = 0; k < nLatticeVertices; k++) {
+            int kk = k;
+            latticePointsCubespace[k] = IntStream.range(0, nDimensions).map(i -> ((kk >> (i * 2)) & 3) - 1).toArray();
+        }
+        for (int k = 0; k < nLatticeVertices; k++) {
+            double skew = unskewConstant * Arrays.stream(latticePointsCubespace[k]).sum();
+            latticePoints[k] = Arrays.stream(latticePointsCubespace[k]).mapToDouble(v -> v + skew).toArray();
+        }
+        skewConstant = -unskewConstant / (1 + nDimensions * unskewConstant);
+        
+        nRegionKeyBits = nDimensions * (nDimensions - 1) / 2;
+        contributingVertices = new int[1 << nRegionKeyBits][];
+        for (int key = 0; key < contributingVertices.length; key++) {
+            
+            // Recover the ordering of the components that this key stands for. Keys that can't occur stay null.
+            int[] axisAtPosition = new int[nDimensions];
+            Arrays.fill(axisAtPosition, -1);
+            boolean consistent = true;
+            for (int i = 0; i < nDimensions && consistent; i++) {
+                int position = 0;
+                for (int j = 0; j < nDimensions; j++) {
+                    if (j != i && comesBefore(key, j, i)) position++;
+                }
+                if (axisAtPosition[position] != -1) consistent = false;
+                else axisAtPosition[position] = i;
+            }
+            if (!consistent) continue;
+            
+            // Simplex vertices, walking from (0, 0, ..., 0) to (1, 1, ..., 1) one axis at a time, largest component first.
+            double[][] simplexVertices = new double[nDimensions + 1][];
+            int[] cubeVertex = new int[nDimensions];
+            for (int m = 0; m <= nDimensions; m++) {
+                if (m > 0) cubeVertex[axisAtPosition[m - 1]] = 1;
+                double skew = unskewConstant * Arrays.stream(cubeVertex).sum();
+                simplexVertices[m] = Arrays.stream(cubeVertex).mapToDouble(v -> v + skew).toArray();
+            }
+            
+            // A small tolerance keeps this conservative. Vertices that turn out not to contribute are skipped by the falloff check anyway.
+            int[] contributing = IntStream.range(0, nLatticeVertices)
+                    .filter(k -> squaredDistanceToSimplex(latticePoints[k], simplexVertices) < falloffRadiusSq + 1e-9).toArray();
+            contributingVertices[key] = contributing;
+        }
+        allContributingVertices = Arrays.stream(contributingVertices).filter(v -> v != null).flatMapToInt(Arrays::stream).distinct().sorted().toArray();
+        
+        double[][] latticeBasis = new double[nDimensions][nDimensions];
+        for (int j = 0; j < nDimensions; j++) {
+            for (int i = 0; i < nDimensions; i++) latticeBasis[j][i] = (i == j ? 1 : 0) + unskewConstant;
+        }
+        symmetryGroup = SymmetryGroup.detect(gradients, latticeBasis, new double[nDimensions],
+                coord -> recenterIntoBaseCell(coord, new double[nDimensions], new double[nDimensions]));
+    }
+    
+    public String name() {
+        return "Simplex";
+    }
+    
+    public int nDimensions() {
+        return nDimensions;
+    }
+    
+    public double[][] latticeVertices() {
+        return latticePoints;
+    }
+    
+    public GradientIndex gradientIndex() {
+        return gradientIndex;
+    }
+    
+    public SymmetryGroup symmetryGroup() {
+        return symmetryGroup;
+    }
+    
+    // Unit cube in cube space, unskewed into one grid cell
+    public void mapFromUnitCube(double[] coord) {
+        double startCoordSkew = 0;
+        for (int i = 0; i < nDimensions; i++) startCoordSkew += coord[i];
+        startCoordSkew *= unskewConstant;
+        for (int i = 0; i < nDimensions; i++) coord[i] += startCoordSkew;
+    }
+    
+    // Same as recenterIntoBaseCell, without the vertex table.
+    public void wrapIntoCell(double[] coord) {
+        double coordSum = 0;
+        for (int i = 0; i < nDimensions; i++) coordSum += coord[i];
+        double cubeSkew = skewConstant * coordSum;
+        double cellOffsetSum = 0;
+        for (int i = 0; i < nDimensions; i++) cellOffsetSum += Math.floor(coord[i] + cubeSkew);
+        double cellOffsetSkew = unskewConstant * cellOffsetSum;
+        for (int i = 0; i < nDimensions; i++) coord[i] -= Math.floor(coord[i] + cubeSkew) + cellOffsetSkew;
+    }
+    
+    // The evaluator re-centres points by itself, so any point is fine.
+    public void project(double[] coord) {
+    }
+    
+    public boolean isPinned(double[] coord, double[] derivative, int axis) {
+        return false;
+    }
+    
+    public BranchAndBound.BoxObjective boxObjective() {
+        return new CellBoxBound();
+    }
+    
+    // Whether axis i comes before axis j when sorting fractional components in descending order, ties going to the lower axis.
+    private boolean comesBefore(int key, int i, int j) {
+        if (i < j) return ((key >> pairBit(i, j)) & 1) != 0;
+        return ((key >> pairBit(j, i)) & 1) == 0;
+    }
+    
+    private int pairBit(int i, int j) {
+        return i * (2 * nDimensions - i - 1) / 2 + (j - i - 1);
+    }
+    
+    // Key into contributingVertices for a point with the given cube-space fractional components.
+    private int simplexRegionKey(double[] fractional) {
+        int key = 0;
+        for (int i = 0; i < nDimensions; i++) {
+            for (int j = i + 1; j < nDimensions; j++) {
+                if (fractional[i] >= fractional[j]) key |= 1 << pairBit(i, j);
+            }
+        }
+        return key;
+    }
+    
+    // Exact squared distance from a point to a simplex: the closest point lies in the relative interior of one of its faces,
+    // so project onto every face's affine hull and keep the projections that land inside their face.
+    private double squaredDistanceToSimplex(double[] point, double[][] simplexVertices) {
+        int nVertices = simplexVertices.length;
+        double minDistanceSq = Double.POSITIVE_INFINITY;
+        for (int faceMask = 1; faceMask < (1 << nVertices); faceMask++) {
+            int faceMaskFinal = faceMask;
+            int[] face = IntStream.range(0, nVertices).filter(m -> ((faceMaskFinal >> m) & 1) != 0).toArray();
+            double[] base = simplexVertices[face[0]];
+            int nEdges = face.length - 1;
+            
+            // Solve the normal equations for the projection, relative to the first vertex of the face
+            double[][] system = new double[nEdges][nEdges + 1];
+            for (int a = 0; a < nEdges; a++) {
+                double[] edgeA = simplexVertices[face[a + 1]];
+                for (int b = 0; b < nEdges; b++) {
+                    double[] edgeB = simplexVertices[face[b + 1]];
+                    system[a][b] = IntStream.range(0, nDimensions).mapToDouble(i -> (edgeA[i] - base[i]) * (edgeB[i] - base[i])).sum();
+                }
+                system[a][nEdges] = IntStream.range(0, nDimensions).mapToDouble(i -> (edgeA[i] - base[i]) * (point[i] - base[i])).sum();
+            }
+            double[] weights = solveLinearSystem(system);
+            
+            // Barycentric coordinates must all be non-negative for the projection to be inside the face
+            double weightSum = Arrays.stream(weights).sum();
+            if (weightSum > 1 || Arrays.stream(weights).anyMatch(w -> w < 0)) continue;
+            
+            double distanceSq = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                double projected = base[i];
+                for (int a = 0; a < nEdges; a++) projected += weights[a] * (simplexVertices[face[a + 1]][i] - base[i]);
+                distanceSq += (point[i] - projected) * (point[i] - projected);
+            }
+            if (distanceSq < minDistanceSq) minDistanceSq = distanceSq;
+        }
+        return minDistanceSq;
+    }
+    
+    // Gaussian elimination with partial pivoting on an augmented matrix. Consumes the matrix.
+    private double[] solveLinearSystem(double[][] augmented) {
+        int n = augmented.length;
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(augmented[row][col]) > Math.abs(augmented[pivot][col])) pivot = row;
+            }
+            double[] swap = augmented[col]; augmented[col] = augmented[pivot]; augmented[pivot] = swap;
+            for (int row = col + 1; row < n; row++) {
+                double factor = augmented[row][col] / augmented[col][col];
+                for (int c = col; c <= n; c++) augmented[row][c] -= factor * augmented[col][c];
+            }
+        }
+        double[] solution = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = augmented[row][n];
+            for (int c = row + 1; c < n; c++) sum -= augmented[row][c] * solution[c];
+            solution[row] = sum / augmented[row][row];
+        }
+        return solution;
+    }
+    
+    // Re-centre the point into the base cell, in place. The best-gradient noise is the same in every cell, so this
+    // doesn't change anything about the value, but it means the same vertex table applies everywhere.
+    // Returns the vertices which can contribute at the point. The two scratch arrays are overwritten.
+    private int[] recenterIntoBaseCell(double[] coord, double[] cellOffset, double[] fractionalCubeCoord) {
+        double coordSum = 0;
+        for (int i = 0; i < nDimensions; i++) coordSum += coord[i];
+        double cubeSkew = skewConstant * coordSum;
+        double cellOffsetSum = 0;
+        boolean outsideBaseCell = false;
+        for (int i = 0; i < nDimensions; i++) {
+            double cubeCoord = coord[i] + cubeSkew;
+            cellOffset[i] = Math.floor(cubeCoord);
+            fractionalCubeCoord[i] = cubeCoord - cellOffset[i];
+            cellOffsetSum += cellOffset[i];
+            if (cellOffset[i] != 0) outsideBaseCell = true;
+        }
+        if (outsideBaseCell) {
+            double cellOffsetSkew = unskewConstant * cellOffsetSum;
+            for (int i = 0; i < nDimensions; i++) coord[i] -= cellOffset[i] + cellOffsetSkew;
+        }
+        return contributingVertices[simplexRegionKey(fractionalCubeCoord)];
+    }
+    
+    // Computes the noise value, derivative vector and best vertex gradients at a point, without allocating.
+    // There are hand-unrolled versions for 2D, 3D and 4D, and a loop-based one for any other dimension count.
+    private abstract class CellEvaluator implements NoiseKernel.Evaluator, NoiseKernel.SlopeEvaluator {
+        protected final double falloffRadiusSq = SimplexKernel.this.falloffRadiusSq;
+        protected final double[][] latticePoints = SimplexKernel.this.latticePoints;
+        protected final double[][] gradients = SimplexKernel.this.gradients;
+        protected final GradientIndex gradientIndex = SimplexKernel.this.gradientIndex;
+        private final double[] cellOffset = new double[nDimensions];
+        private final double[] fractionalCubeCoord = new double[nDimensions];
+        
+        // Re-centres coord into the base cell (in place), then returns the value and fills in the derivative vector and the
+        // gradient index of every lattice vertex. Vertices which don't contribute get a gradient index of -1.
+        public final double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            Arrays.fill(gradientIndicesOut, -1);
+            return evaluateVertices(coord, recenterIntoBaseCell(coord, cellOffset, fractionalCubeCoord), derivativeOut, gradientIndicesOut);
+        }
+        
+        protected abstract double evaluateVertices(double[] coord, int[] contributingVertices, double[] derivativeOut, int[] gradientIndicesOut);
+        
+        private final double[] pieceDisplacement = new double[nDimensions];
+        
+        // Value, derivative vector and Hessian with every vertex's gradient held at gradientIndices, as filled in by evaluate.
+        // coord isn't re-centred, so it has to stay near the base cell evaluate left it in. Returns NaN if it strays too far
+        // for latticePoints to cover, or if any vertex in range is missing from gradientIndices or would pick another gradient.
+        public final double evaluateSmoothPiece(double[] coord, int[] gradientIndices, double[] derivativeOut, double[][] hessianOut) {
+            double coordSum = 0;
+            for (int i = 0; i < nDimensions; i++) coordSum += coord[i];
+            double cubeSkew = skewConstant * coordSum;
+            for (int i = 0; i < nDimensions; i++) {
+                double cubeCoord = coord[i] + cubeSkew;
+                if (cubeCoord < -0.25 || cubeCoord > 1.25) return Double.NaN;
+            }
+            
+            double value = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                derivativeOut[i] = 0;
+                for (int j = 0; j < nDimensions; j++) hessianOut[i][j] = 0;
+            }
+            double[] a = pieceDisplacement;
+            for (int k = 0; k < latticePoints.length; k++) {
+                double[] latticePoint = latticePoints[k];
+                double falloff = falloffRadiusSq;
+                for (int i = 0; i < nDimensions; i++) {
+                    a[i] = coord[i] - latticePoint[i];
+                    falloff -= a[i] * a[i];
+                }
+                if (falloff <= 0) continue;
+                
+                int gradientIndex = gradientIndices[k];
+                if (gradientIndex < 0 || this.gradientIndex.bestGradientIndex(a) != gradientIndex) return Double.NaN;
+                double[] gradient = gradients[gradientIndex];
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += a[i] * gradient[i];
+                
+                // d/dx_i of falloff^4 * dot is -8 falloff^3 dot a_i + falloff^4 g_i. Differentiating again gives
+                // 48 falloff^2 dot a_i a_j - 8 falloff^3 (a_i g_j + g_i a_j) - 8 falloff^3 dot (i == j).
+                double attnSq = falloff * falloff;
+                double attn3 = attnSq * falloff;
+                double attn4 = attnSq * attnSq;
+                value += attn4 * dot;
+                for (int i = 0; i < nDimensions; i++) {
+                    derivativeOut[i] += -8 * attn3 * dot * a[i] + attn4 * gradient[i];
+                    for (int j = 0; j < nDimensions; j++) {
+                        hessianOut[i][j] += 48 * attnSq * dot * a[i] * a[j] - 8 * attn3 * (a[i] * gradient[j] + gradient[i] * a[j]);
+                    }
+                    hessianOut[i][i] -= 8 * attn3 * dot;
+                }
+            }
+            return value;
+        }
+        
+        private final double[] slopeDirection = new double[nDimensions];
+        
+        // Vertex k's slope along u is g . v, with v = (u . dw) a + w u for its falloff w = (r^2 - |a|^2)^4, whose
+        // derivative vector dw is -8 (r^2 - |a|^2)^3 a. So each vertex takes the gradient that's best for v. With respect
+        // to u, the slope's derivative vector is the noise's (with those gradients), and with respect to coord it's the
+        // Hessian times u, the same terms as in evaluateSmoothPiece.
+        public final double evaluateSlope(double[] coord, double[] direction, double[] coordDerivativeOut, double[] directionDerivativeOut, int[] gradientIndicesOut) {
+            Arrays.fill(gradientIndicesOut, -1);
+            Arrays.fill(coordDerivativeOut, 0);
+            Arrays.fill(directionDerivativeOut, 0);
+            double slope = 0;
+            double[] a = pieceDisplacement, v = slopeDirection;
+            for (int k : recenterIntoBaseCell(coord, cellOffset, fractionalCubeCoord)) {
+                double[] latticePoint = latticePoints[k];
+                double falloff = falloffRadiusSq;
+                double aDotU = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    a[i] = coord[i] - latticePoint[i];
+                    falloff -= a[i] * a[i];
+                    aDotU += a[i] * direction[i];
+                }
+                if (falloff <= 0) continue;
+                
+                double attnSq = falloff * falloff;
+                double attn3 = attnSq * falloff;
+                double attn4 = attnSq * attnSq;
+                double uDotDw = -8 * attn3 * aDotU;
+                for (int i = 0; i < nDimensions; i++) v[i] = uDotDw * a[i] + attn4 * direction[i];
+                int gradientIndex = this.gradientIndex.bestGradientIndex(v);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double dot = 0, gDotU = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    dot += a[i] * gradient[i];
+                    gDotU += gradient[i] * direction[i];
+                }
+                slope += uDotDw * dot + attn4 * gDotU;
+                for (int i = 0; i < nDimensions; i++) {
+                    directionDerivativeOut[i] += -8 * attn3 * dot * a[i] + attn4 * gradient[i];
+                    coordDerivativeOut[i] += (48 * attnSq * aDotU * a[i] - 8 * attn3 * direction[i]) * dot - 8 * attn3 * gDotU * a[i] + uDotDw * gradient[i];
+                }
+            }
+            return slope;
+        }
+    }
+    
+    public NoiseKernel.Evaluator createEvaluator() {
+        return createCellEvaluator();
+    }
+    
+    public NoiseKernel.SlopeEvaluator createSlopeEvaluator() {
+        return createCellEvaluator();
+    }
+    
+    private CellEvaluator createCellEvaluator() {
+        switch (nDimensions) {
+            case 2: return new Evaluator2D();
+            case 3: return new Evaluator3D();
+            case 4: return new Evaluator4D();
+            default: return new EvaluatorND();
+        }
+    }
+    
+    private final class Evaluator2D extends CellEvaluator {
+        protected double evaluateVertices(double[] coord, int[] contributingVertices, double[] derivativeOut, int[] gradientIndicesOut) {
+            double x = coord[0], y = coord[1];
+            double value = 0, dx = 0, dy = 0;
+            for (int k : contributingVertices) {
+                double[] latticePoint = latticePoints[k];
+                double ax = x - latticePoint[0], ay = y - latticePoint[1];
+                
+                // Radial falloff function
+                double falloff = falloffRadiusSq - ax * ax - ay * ay;
+                if (falloff <= 0) continue;
+                
+                // Pick best vertex gradient
+                int gradientIndex = this.gradientIndex.bestGradientIndex(ax, ay);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double gx = gradient[0], gy = gradient[1];
+                double dot = ax * gx + ay * gy;
+                
+                // Add value and derivative vector
+                double attnSq = falloff * falloff;
+                double attn4 = attnSq * attnSq;
+                value += attn4 * dot;
+                double dAttnDot = -8 * attnSq * falloff * dot;
+                dx += dAttnDot * ax + attn4 * gx;
+                dy += dAttnDot * ay + attn4 * gy;
+            }
+            derivativeOut[0] = dx;
+            derivativeOut[1] = dy;
+            return value;
+        }
+    }
+    
+    private final class Evaluator3D extends CellEvaluator {
+        protected double evaluateVertices(double[] coord, int[] contributingVertices, double[] derivativeOut, int[] gradientIndicesOut) {
+            double x = coord[0], y = coord[1], z = coord[2];
+            double value = 0, dx = 0, dy = 0, dz = 0;
+            for (int k : contributingVertices) {
+                double[] latticePoint = latticePoints[k];
+                double ax = x - latticePoint[0], ay = y - latticePoint[1], az = z - latticePoint[2];
+                
+                // Radial falloff function
+                double falloff = falloffRadiusSq - ax * ax - ay * ay - az * az;
+                if (falloff <= 0) continue;
+                
+                // Pick best vertex gradient
+                int gradientIndex = this.gradientIndex.bestGradientIndex(ax, ay, az);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double gx = gradient[0], gy = gradient[1], gz = gradient[2];
+                double dot = ax * gx + ay * gy + az * gz;
+                
+                // Add value and derivative vector
+                double attnSq = falloff * falloff;
+                double attn4 = attnSq * attnSq;
+                value += attn4 * dot;
+                double dAttnDot = -8 * attnSq * falloff * dot;
+                dx += dAttnDot * ax + attn4 * gx;
+                dy += dAttnDot * ay + attn4 * gy;
+                dz += dAttnDot * az + attn4 * gz;
+            }
+            derivativeOut[0] = dx;
+            derivativeOut[1] = dy;
+            derivativeOut[2] = dz;
+            return value;
+        }
+    }
+    
+    private final class Evaluator4D extends CellEvaluator {
+        protected double evaluateVertices(double[] coord, int[] contributingVertices, double[] derivativeOut, int[] gradientIndicesOut) {
+            double x = coord[0], y = coord[1], z = coord[2], w = coord[3];
+            double value = 0, dx = 0, dy = 0, dz = 0, dw = 0;
+            for (int k : contributingVertices) {
+                double[] latticePoint = latticePoints[k];
+                double ax = x - latticePoint[0], ay = y - latticePoint[1], az = z - latticePoint[2], aw = w - latticePoint[3];
+                
+                // Radial falloff function
+                double falloff = falloffRadiusSq - ax * ax - ay * ay - az * az - aw * aw;
+                if (falloff <= 0) continue;
+                
+                // Pick best vertex gradient
+                int gradientIndex = this.gradientIndex.bestGradientIndex(ax, ay, az, aw);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double gx = gradient[0], gy = gradient[1], gz = gradient[2], gw = gradient[3];
+                double dot = ax * gx + ay * gy + az * gz + aw * gw;
+                
+                // Add value and derivative vector
+                double attnSq = falloff * falloff;
+                double attn4 = attnSq * attnSq;
+                value += attn4 * dot;
+                double dAttnDot = -8 * attnSq * falloff * dot;
+                dx += dAttnDot * ax + attn4 * gx;
+                dy += dAttnDot * ay + attn4 * gy;
+                dz += dAttnDot * az + attn4 * gz;
+                dw += dAttnDot * aw + attn4 * gw;
+            }
+            derivativeOut[0] = dx;
+            derivativeOut[1] = dy;
+            derivativeOut[2] = dz;
+            derivativeOut[3] = dw;
+            return value;
+        }
+    }
+    
+    private final class EvaluatorND extends CellEvaluator {
+        private final double[] displacement = new double[nDimensions];
+        
+        protected double evaluateVertices(double[] coord, int[] contributingVertices, double[] derivativeOut, int[] gradientIndicesOut) {
+            double value = 0;
+            for (int i = 0; i < nDimensions; i++) derivativeOut[i] = 0;
+            for (int k : contributingVertices) {
+                double[] latticePoint = latticePoints[k];
+                
+                // Radial falloff function
+                double falloff = falloffRadiusSq;
+                for (int i = 0; i < nDimensions; i++) {
+                    displacement[i] = coord[i] - latticePoint[i];
+                    falloff -= displacement[i] * displacement[i];
+                }
+                if (falloff <= 0) continue;
+                
+                // Pick best vertex gradient
+                int gradientIndex = this.gradientIndex.bestGradientIndex(displacement);
+                gradientIndicesOut[k] = gradientIndex;
+                double[] gradient = gradients[gradientIndex];
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += displacement[i] * gradient[i];
+                
+                // Add value and derivative vector
+                double attnSq = falloff * falloff;
+                double attn4 = attnSq * attnSq;
+                value += attn4 * dot;
+                double dAttnDot = -8 * attnSq * falloff * dot;
+                for (int i = 0; i < nDimensions; i++) derivativeOut[i] += dAttnDot * displacement[i] + attn4 * gradient[i];
+            }
+            return value;
+        }
+    }
+    
+    // Upper bounds for the branch-and-bound (see BranchAndBound), on boxes of the base cell in cube space. Over a box,
+    // each real-space coordinate is a linear function of the cube coordinates, so its range is exact. Only vertices
+    // whose falloff radius reaches that range are bounded. The bound is the lower of two:
+    //  - Interval bounds. Each vertex contributes at most falloff^4 * dot, with the falloff bounded from the per-axis
+    //    ranges of the displacement, and the dot bounded exactly for each gradient (also linear in the cube
+    //    coordinates), taking the best gradient. Loose on small boxes, where the falloff and the dot are bounded
+    //    separately.
+    //  - A second-order bound about the box centre c. For any one gradient, a vertex's contribution at x is at most its
+    //    value at c, plus its derivative vector at c dotted with x - c, plus half a bound on its Hessian's norm over
+    //    the box times |x - c|^2. The best gradient at x is one of them, so each vertex's contribution is at most the
+    //    largest of those over the gradients. Summed over the vertices that's convex in x - c, apart from the Hessian
+    //    terms, so its largest value over the box is at one of the corners. Near a maximum the derivative vectors
+    //    nearly cancel in the sum, so the excess shrinks with the square of the box width.
+    private final class CellBoxBound implements BranchAndBound.BoxObjective {
+        private final ThreadLocal<NoiseKernel.Evaluator> evaluators = ThreadLocal.withInitial(SimplexKernel.this::createEvaluator);
+        private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+        private final double[][] gradientCubeCoefficients = new double[gradients.length][nDimensions];
+        private final double[][] gradientDotVertex = new double[nLatticeVertices][gradients.length];
+        private final double maxGradientLength;
+        
+        CellBoxBound() {
+            for (int g = 0; g < gradients.length; g++) {
+                double gradientSum = Arrays.stream(gradients[g]).sum();
+                for (int j = 0; j < nDimensions; j++) gradientCubeCoefficients[g][j] = gradients[g][j] + unskewConstant * gradientSum;
+                for (int k = 0; k < nLatticeVertices; k++) {
+                    for (int i = 0; i < nDimensions; i++) gradientDotVertex[k][g] += gradients[g][i] * latticePoints[k][i];
+                }
+            }
+            maxGradientLength = Arrays.stream(gradients).mapToDouble(g -> Math.sqrt(Arrays.stream(g).map(c -> c * c).sum())).max().orElse(0);
+        }
+        
+        // Per-thread buffers, so bounding a box doesn't allocate.
+        private final class Scratch {
+            final double[] coordLo = new double[nDimensions], coordHi = new double[nDimensions];
+            final double[] maxGradientDotCoord = new double[gradients.length];
+            final double[] cubeCentre = new double[nDimensions], cubeHalfWidth = new double[nDimensions];
+            final double[] centre = new double[nDimensions], a = new double[nDimensions], aCube = new double[nDimensions];
+            final double[] corner = new double[nDimensions];
+            
+            // For each vertex in range, the gradients that can be its best one somewhere in the box, with the value at
+            // c and the derivative vector at c in cube space (so it dots with the cube-space offset from c).
+            final int[] nCandidates = new int[nLatticeVertices];
+            final double[][] candidateValues = new double[nLatticeVertices][gradients.length];
+            final double[][][] candidateSlopes = new double[nLatticeVertices][gradients.length][nDimensions];
+            final double[] candidateReach = new double[gradients.length];
+            final double[] evaluateDerivative = new double[nDimensions];
+            final int[] evaluateGradientIndices = new int[nLatticeVertices];
+        }
+        
+        public double upperBound(double[] lo, double[] hi) {
+            Scratch scratch = scratches.get();
+            double[] coordLo = scratch.coordLo, coordHi = scratch.coordHi;
+            
+            // Range of each real-space coordinate, x_i = c_i + unskewConstant * sum(c).
+            for (int i = 0; i < nDimensions; i++) {
+                coordLo[i] = coordHi[i] = 0;
+                for (int j = 0; j < nDimensions; j++) {
+                    double coefficient = (i == j ? 1 : 0) + unskewConstant;
+                    coordLo[i] += coefficient * (coefficient >= 0 ? lo[j] : hi[j]);
+                    coordHi[i] += coefficient * (coefficient >= 0 ? hi[j] : lo[j]);
+                }
+            }
+            
+            // Largest value of gradient . coord over the box, for each gradient.
+            double[] maxGradientDotCoord = scratch.maxGradientDotCoord;
+            for (int g = 0; g < gradients.length; g++) {
+                maxGradientDotCoord[g] = 0;
+                for (int j = 0; j < nDimensions; j++) {
+                    double coefficient = gradientCubeCoefficients[g][j];
+                    maxGradientDotCoord[g] += coefficient * (coefficient >= 0 ? hi[j] : lo[j]);
+                }
+            }
+            
+            // The centre, in both spaces, and how far the box reaches from it.
+            double[] cubeCentre = scratch.cubeCentre, cubeHalfWidth = scratch.cubeHalfWidth, centre = scratch.centre;
+            double centreSum = 0, reachSq = 0;
+            for (int j = 0; j < nDimensions; j++) {
+                cubeCentre[j] = (lo[j] + hi[j]) * 0.5;
+                cubeHalfWidth[j] = (hi[j] - lo[j]) * 0.5;
+                centreSum += cubeCentre[j];
+            }
+            for (int i = 0; i < nDimensions; i++) {
+                centre[i] = cubeCentre[i] + unskewConstant * centreSum;
+                double halfWidth = (coordHi[i] - coordLo[i]) * 0.5;
+                reachSq += halfWidth * halfWidth;
+            }
+            
+            double intervalBound = 0, curvatureBound = 0;
+            int nInRange = 0;
+            for (int k = 0; k < nLatticeVertices; k++) {
+                double distanceSqLo = 0, distanceSqHi = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    double a0 = coordLo[i] - latticePoints[k][i], a1 = coordHi[i] - latticePoints[k][i];
+                    if (a0 > 0) distanceSqLo += a0 * a0;
+                    else if (a1 < 0) distanceSqLo += a1 * a1;
+                    distanceSqHi += Math.max(a0 * a0, a1 * a1);
+                }
+                if (distanceSqLo >= falloffRadiusSq) continue;
+                double attnHi = falloffRadiusSq - distanceSqLo;
+                double attnLo = Math.max(falloffRadiusSq - distanceSqHi, 0);
+                
+                double dotHi = Double.NEGATIVE_INFINITY;
+                for (int g = 0; g < gradients.length; g++) dotHi = Math.max(dotHi, maxGradientDotCoord[g] - gradientDotVertex[k][g]);
+                double attn = (dotHi >= 0) ? attnHi : attnLo;
+                attn *= attn;
+                intervalBound += attn * attn * dotHi;
+                
+                // The Hessian of falloff^4 * (a . g) is 48 falloff^2 (a . g) a a^T - 8 falloff^3 (a g^T + g a^T)
+                // - 8 falloff^3 (a . g) I, so its norm is at most |g| |a| (48 falloff^2 |a|^2 + 24 falloff^3).
+                double distanceHi = Math.sqrt(distanceSqHi);
+                double attnHiSq = attnHi * attnHi;
+                curvatureBound += 0.5 * maxGradientLength * distanceHi * (48 * attnHiSq * distanceSqHi + 24 * attnHiSq * attnHi) * reachSq;
+                collectCandidates(scratch, k, nInRange++);
+            }
+            
+            // The largest sum over the corners, of each vertex's largest first-order estimate among its candidates.
+            double firstOrderBound = Double.NEGATIVE_INFINITY;
+            double[] corner = scratch.corner;
+            for (int c = 0; c < (1 << nDimensions); c++) {
+                for (int j = 0; j < nDimensions; j++) corner[j] = ((c >> j) & 1) == 0 ? -cubeHalfWidth[j] : cubeHalfWidth[j];
+                double sum = 0;
+                for (int v = 0; v < nInRange; v++) {
+                    double best = Double.NEGATIVE_INFINITY;
+                    for (int m = 0; m < scratch.nCandidates[v]; m++) {
+                        double estimate = scratch.candidateValues[v][m];
+                        double[] slope = scratch.candidateSlopes[v][m];
+                        for (int j = 0; j < nDimensions; j++) estimate += slope[j] * corner[j];
+                        best = Math.max(best, estimate);
+                    }
+                    sum += best;
+                }
+                firstOrderBound = Math.max(firstOrderBound, sum);
+            }
+            return Math.min(intervalBound, firstOrderBound + curvatureBound);
+        }
+        
+        // Fills in vertex k's candidate gradients, as the v-th vertex in range. A gradient whose estimate can't reach
+        // above another's anywhere in the box is left out.
+        private void collectCandidates(Scratch scratch, int k, int v) {
+            double[] a = scratch.a, aCube = scratch.aCube, cubeHalfWidth = scratch.cubeHalfWidth;
+            double falloff = falloffRadiusSq, aSum = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                a[i] = scratch.centre[i] - latticePoints[k][i];
+                falloff -= a[i] * a[i];
+                aSum += a[i];
+            }
+            
+            // Outside the falloff radius at c, every gradient's value and derivative vector there are 0.
+            if (falloff <= 0) {
+                scratch.nCandidates[v] = 1;
+                scratch.candidateValues[v][0] = 0;
+                Arrays.fill(scratch.candidateSlopes[v][0], 0);
+                return;
+            }
+            for (int j = 0; j < nDimensions; j++) aCube[j] = a[j] + unskewConstant * aSum;
+            double attnSq = falloff * falloff;
+            double attn3 = attnSq * falloff;
+            double attn4 = attnSq * attnSq;
+            
+            // Each gradient's estimate stays within its reach of its value at c, over the box.
+            double floor = Double.NEGATIVE_INFINITY;
+            for (int g = 0; g < gradients.length; g++) {
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += a[i] * gradients[g][i];
+                double reach = 0;
+                for (int j = 0; j < nDimensions; j++) reach += Math.abs(-8 * attn3 * dot * aCube[j] + attn4 * gradientCubeCoefficients[g][j]) * cubeHalfWidth[j];
+                scratch.candidateReach[g] = reach;
+                double value = attn4 * dot;
+                floor = Math.max(floor, value - reach);
+                scratch.candidateValues[v][g] = value;
+            }
+            int nCandidates = 0;
+            for (int g = 0; g < gradients.length; g++) {
+                double value = scratch.candidateValues[v][g];
+                if (value + scratch.candidateReach[g] < floor) continue;
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += a[i] * gradients[g][i];
+                double[] slope = scratch.candidateSlopes[v][nCandidates];
+                for (int j = 0; j < nDimensions; j++) slope[j] = -8 * attn3 * dot * aCube[j] + attn4 * gradientCubeCoefficients[g][j];
+                scratch.candidateValues[v][nCandidates++] = value;
+            }
+            scratch.nCandidates[v] = nCandidates;
+        }
+        
+        public double valueAt(double[] cubeCoord) {
+            Scratch scratch = scratches.get();
+            return evaluators.get().evaluate(coordAt(cubeCoord), scratch.evaluateDerivative, scratch.evaluateGradientIndices);
+        }
+        
+        public double[] coordAt(double[] cubeCoord) {
+            double[] coord = new double[nDimensions];
+            double skew = unskewConstant * Arrays.stream(cubeCoord).sum();
+            for (int i = 0; i < nDimensions; i++) coord[i] = cubeCoord[i] + skew;
+            return coord;
+        }
+    }
+    
+    public NoiseKernel.HashedEvaluator createHashedEvaluator(long seed) {
+        return new HashedEvaluator(new LatticeHash(seed, gradients.length));
+    }
+    
+    // Actual noise: the same vertices and falloff as the cell evaluators, with the gradients picked by the hash of each
+    // vertex's cube-space lattice coordinates.
+    private final class HashedEvaluator implements NoiseKernel.HashedEvaluator {
+        private final LatticeHash hash;
+        private final double[] coord = new double[nDimensions];
+        private final double[] cellOffset = new double[nDimensions];
+        private final double[] fractionalCubeCoord = new double[nDimensions];
+        private final double[] displacement = new double[nDimensions];
+        private final int[] vertex = new int[nDimensions];
+        
+        HashedEvaluator(LatticeHash hash) {
+            this.hash = hash;
+        }
+        
+        public double evaluate(double[] point) {
+            System.arraycopy(point, 0, coord, 0, nDimensions);
+            int[] contributing = recenterIntoBaseCell(coord, cellOffset, fractionalCubeCoord);
+            double value = 0;
+            for (int k : contributing) {
+                double[] latticePoint = latticePoints[k];
+                double falloff = falloffRadiusSq;
+                for (int i = 0; i < nDimensions; i++) {
+                    displacement[i] = coord[i] - latticePoint[i];
+                    falloff -= displacement[i] * displacement[i];
+                }
+                if (falloff <= 0) continue;
+                
+                for (int i = 0; i < nDimensions; i++) vertex[i] = (int)cellOffset[i] + latticePointsCubespace[k][i];
+                double[] gradient = gradients[hash.gradientIndex(vertex)];
+                double dot = 0;
+                for (int i = 0; i < nDimensions; i++) dot += displacement[i] * gradient[i];
+                falloff *= falloff;
+                value += falloff * falloff * dot;
+            }
+            return value;
+        }
+    }
+    
+    public NoiseKernel.LaneEvaluator createLaneEvaluator(int nLanes) {
+        return new CellLaneEvaluator(nLanes);
+    }
+    
+    // Batched evaluation. Every lane gets re-centred, then the lanes go through every vertex that any sub-region can reach.
+    // Lanes out of range of a vertex have a non-positive falloff and get nothing from it.
+    private final class CellLaneEvaluator implements NoiseKernel.LaneEvaluator {
+        private final LaneKernels kernels;
+        private final double[][] displacements, laneGradients;
+        private final double[] falloffs;
+        private final double[] laneCoord = new double[nDimensions];
+        private final double[] cellOffset = new double[nDimensions];
+        private final double[] fractionalCubeCoord = new double[nDimensions];
+        private final double[] displacement = new double[nDimensions];
+        
+        CellLaneEvaluator(int nLanes) {
+            kernels = LaneKernels.create(nDimensions, nLanes);
+            displacements = new double[nDimensions][nLanes];
+            laneGradients = new double[nDimensions][nLanes];
+            falloffs = new double[nLanes];
+        }
+        
+        public void evaluate(double[][] coords, double[] valuesOut, double[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            for (int l = 0; l < nLanes; l++) {
+                for (int i = 0; i < nDimensions; i++) laneCoord[i] = coords[i][l];
+                recenterIntoBaseCell(laneCoord, cellOffset, fractionalCubeCoord);
+                for (int i = 0; i < nDimensions; i++) coords[i][l] = laneCoord[i];
+            }
+            
+            Arrays.fill(valuesOut, 0);
+            for (int i = 0; i < nDimensions; i++) Arrays.fill(derivativesOut[i], 0);
+            for (int k : allContributingVertices) {
+                kernels.displacement(coords, latticePoints[k], displacements, nLanes);
+                kernels.radialFalloff(displacements, falloffRadiusSq, falloffs, nLanes);
+                gradientIndex.selectLaneGradients(displacements, falloffs, gradientIndicesOut[k], laneGradients, displacement, nLanes);
+                kernels.accumulateRadial(displacements, falloffs, laneGradients, valuesOut, derivativesOut, nLanes);
+            }
+        }
+        
+        public int moveLanes(double[][] coords, double[][] derivatives, double rate, boolean[] pending, int nLanes) {
+            return kernels.moveLanes(coords, derivatives, rate, false, pending, nLanes);
+        }
+    }
+    
+    public NoiseKernel.FloatLaneEvaluator createFloatLaneEvaluator(int nLanes) {
+        return new FloatCellLaneEvaluator(nLanes);
+    }
+    
+    // CellLaneEvaluator in single precision. The re-centring stays in double precision, one lane at a time.
+    private final class FloatCellLaneEvaluator implements NoiseKernel.FloatLaneEvaluator {
+        private final FloatLaneKernels kernels;
+        private final float[][] displacements, laneGradients;
+        private final float[] falloffs;
+        private final double[] laneCoord = new double[nDimensions];
+        private final double[] cellOffset = new double[nDimensions];
+        private final double[] fractionalCubeCoord = new double[nDimensions];
+        private final float[] displacement = new float[nDimensions];
+        
+        FloatCellLaneEvaluator(int nLanes) {
+            kernels = FloatLaneKernels.create(nDimensions, nLanes);
+            displacements = new float[nDimensions][nLanes];
+            laneGradients = new float[nDimensions][nLanes];
+            falloffs = new float[nLanes];
+        }
+        
+        public void evaluate(float[][] coords, float[] valuesOut, float[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            for (int l = 0; l < nLanes; l++) {
+                for (int i = 0; i < nDimensions; i++) laneCoord[i] = coords[i][l];
+                recenterIntoBaseCell(laneCoord, cellOffset, fractionalCubeCoord);
+                for (int i = 0; i < nDimensions; i++) coords[i][l] = (float)laneCoord[i];
+            }
+            
+            Arrays.fill(valuesOut, 0);
+            for (int i = 0; i < nDimensions; i++) Arrays.fill(derivativesOut[i], 0);
+            for (int k : allContributingVertices) {
+                kernels.displacement(coords, latticePoints[k], displacements, nLanes);
+                kernels.radialFalloff(displacements, (float)falloffRadiusSq, falloffs, nLanes);
+                gradientIndex.selectLaneGradients(displacements, falloffs, gradientIndicesOut[k], laneGradients, displacement, nLanes);
+                kernels.accumulateRadial(displacements, falloffs, laneGradients, valuesOut, derivativesOut, nLanes);
+            }
+        }
+        
+        public int moveLanes(float[][] coords, float[][] derivatives, float rate, boolean[] pending, int nLanes) {
+            return kernels.moveLanes(coords, derivatives, rate, false, pending, nLanes);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Slope kernel: searches for the steepest the noise can get, instead of its highest value, for a bound on the length of
+ * its derivative vector (its Lipschitz constant), e.g. for safe step sizes when raymarching or sphere tracing it.
+ *
+ * The gradients that make the value largest aren't the ones that make it steepest, so the slope of the best-value field
+ * doesn't bound anything. Along a unit direction u, vertex k adds g . v_k to the slope, with v_k = (u . dw_k) a_k + w_k u
+ * for its falloff w_k and the vector a_k from the vertex to the point. So each vertex can take the gradient that's best
+ * for v_k, the same way it takes the one best for a_k for the value, and the largest of those sums over every point and
+ * every unit direction bounds the derivative length of any noise made from the gradient set.
+ *
+ * That's searched over the point and the direction together, with the same restarts and ascent as the value. The first N
+ * coordinates are the point, in the other kernel's domain, and the last N are the direction. The ascent only has to move
+ * the point, though. With the gradients held, the slope is steepest along the noise's derivative vector, so turning u
+ * that way and picking the gradients again never lowers it, and evaluate repeats that until the picks stop changing,
+ * leaving the direction part of coord at the result. Stepping u along its own derivative vector instead converges far
+ * more slowly than the point does, at any one rate. The derivative vector with respect to the point is then the Hessian
+ * times u, for the gradients picked, and with respect to the direction it's zero: nudging the direction part of coord
+ * still turns it to the same place.
+ *
+ * There's no Newton polish (it would need third derivatives), no symmetry reduction, and no branch-and-bound.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+
+public final class SlopeKernel implements NoiseKernel {
+    
+    // Central difference step for the hashed evaluator's derivative vector.
+    private static final double DIFFERENCE_STEP = 1e-6;
+    
+    // Every turn of the direction raises the slope, so this is only a backstop.
+    private static final int MAX_DIRECTION_TURNS = 64;
+    
+    // project() leaves directions this close to unit length alone, so the ones evaluate wrote don't keep moving by an ulp.
+    private static final double UNIT_LENGTH_TOLERANCE = 1e-12;
+    
+    // A turn that raises the slope by less than this, relatively, is rounding: the picks didn't change.
+    private static final double TURN_TOLERANCE = 1e-14;
+    
+    private final NoiseKernel noiseKernel;
+    private final int nNoiseDimensions, nDimensions;
+    private final SymmetryGroup symmetryGroup;
+    
+    public SlopeKernel(NoiseKernel noiseKernel) {
+        if (noiseKernel.createSlopeEvaluator() == null) throw new IllegalArgumentException(noiseKernel.name() + " has no slope to search for");
+        this.noiseKernel = noiseKernel;
+        nNoiseDimensions = noiseKernel.nDimensions();
+        nDimensions = nNoiseDimensions * 2;
+        symmetryGroup = SymmetryGroup.identity(nDimensions);
+    }
+    
+    public String name() {
+        return noiseKernel.name() + " slope";
+    }
+    
+    public int nDimensions() {
+        return nDimensions;
+    }
+    
+    public double[][] latticeVertices() {
+        return noiseKernel.latticeVertices();
+    }
+    
+    public GradientIndex gradientIndex() {
+        return noiseKernel.gradientIndex();
+    }
+    
+    public SymmetryGroup symmetryGroup() {
+        return symmetryGroup;
+    }
+    
+    // The direction part goes from the unit cube to [-1, 1] along each axis, then onto the unit sphere.
+    public void mapFromUnitCube(double[] coord) {
+        double[] point = Arrays.copyOf(coord, nNoiseDimensions);
+        noiseKernel.mapFromUnitCube(point);
+        System.arraycopy(point, 0, coord, 0, nNoiseDimensions);
+        for (int i = nNoiseDimensions; i < nDimensions; i++) coord[i] = coord[i] * 2 - 1;
+        double lengthSq = 0;
+        for (int i = nNoiseDimensions; i < nDimensions; i++) lengthSq += coord[i] * coord[i];
+        normalizeDirection(coord, lengthSq);
+    }
+    
+    public void wrapIntoCell(double[] coord) {
+        double[] point = Arrays.copyOf(coord, nNoiseDimensions);
+        noiseKernel.wrapIntoCell(point);
+        System.arraycopy(point, 0, coord, 0, nNoiseDimensions);
+    }
+    
+    public void project(double[] coord) {
+        double[] point = Arrays.copyOf(coord, nNoiseDimensions);
+        noiseKernel.project(point);
+        System.arraycopy(point, 0, coord, 0, nNoiseDimensions);
+        double lengthSq = 0;
+        for (int i = nNoiseDimensions; i < nDimensions; i++) lengthSq += coord[i] * coord[i];
+        if (Math.abs(lengthSq - 1) > UNIT_LENGTH_TOLERANCE) normalizeDirection(coord, lengthSq);
+    }
+    
+    private void normalizeDirection(double[] coord, double lengthSq) {
+        if (lengthSq == 0) {
+            coord[nNoiseDimensions] = 1;
+            return;
+        }
+        double scale = 1 / Math.sqrt(lengthSq);
+        for (int i = nNoiseDimensions; i < nDimensions; i++) coord[i] *= scale;
+    }
+    
+    // The direction is never pinned, since it only ever moves along the sphere.
+    public boolean isPinned(double[] coord, double[] derivative, int axis) {
+        if (axis >= nNoiseDimensions) return false;
+        return noiseKernel.isPinned(Arrays.copyOf(coord, nNoiseDimensions), Arrays.copyOf(derivative, nNoiseDimensions), axis);
+    }
+    
+    public NoiseKernel.Evaluator createEvaluator() {
+        return new Evaluator();
+    }
+    
+    private final class Evaluator implements NoiseKernel.Evaluator {
+        private final NoiseKernel.SlopeEvaluator noiseEvaluator = noiseKernel.createSlopeEvaluator();
+        private final double[] point = new double[nNoiseDimensions], direction = new double[nNoiseDimensions];
+        private final double[] pointDerivative = new double[nNoiseDimensions], directionDerivative = new double[nNoiseDimensions];
+        
+        // Turns the direction part of coord to the steepest direction it leads to. The point part stays where it is, even
+        // if the other kernel's evaluator would move it: the slope often peaks right on a lattice vertex, on the edge of
+        // the cell, and a step there could otherwise be moved straight back, over and over.
+        public double evaluate(double[] coord, double[] derivativeOut, int[] gradientIndicesOut) {
+            System.arraycopy(coord, 0, point, 0, nNoiseDimensions);
+            double directionLengthSq = 0;
+            for (int i = 0; i < nNoiseDimensions; i++) directionLengthSq += coord[nNoiseDimensions + i] * coord[nNoiseDimensions + i];
+            double directionLength = Math.sqrt(directionLengthSq);
+            for (int i = 0; i < nNoiseDimensions; i++) direction[i] = coord[nNoiseDimensions + i] / directionLength;
+            
+            double slope = 0;
+            for (int turn = 0; turn < MAX_DIRECTION_TURNS; turn++) {
+                slope = noiseEvaluator.evaluateSlope(point, direction, pointDerivative, directionDerivative, gradientIndicesOut);
+                double steepestSq = 0;
+                for (int i = 0; i < nNoiseDimensions; i++) steepestSq += directionDerivative[i] * directionDerivative[i];
+                double steepest = Math.sqrt(steepestSq);
+                if (steepest <= slope * (1 + TURN_TOLERANCE)) break;
+                for (int i = 0; i < nNoiseDimensions; i++) direction[i] = directionDerivative[i] / steepest;
+            }
+            System.arraycopy(direction, 0, coord, nNoiseDimensions, nNoiseDimensions);
+            System.arraycopy(pointDerivative, 0, derivativeOut, 0, nNoiseDimensions);
+            Arrays.fill(derivativeOut, nNoiseDimensions, nDimensions, 0);
+            return slope;
+        }
+        
+        // The slope's Hessian would need the falloff's third derivatives, so there's nothing to polish with.
+        public double evaluateSmoothPiece(double[] coord, int[] gradientIndices, double[] derivativeOut, double[][] hessianOut) {
+            return Double.NaN;
+        }
+    }
+    
+    public NoiseKernel.LaneEvaluator createLaneEvaluator(int nLanes) {
+        return new LaneEvaluator();
+    }
+    
+    // Batched evaluation, one lane at a time through the scalar evaluator, for batch mode to work at all.
+    private final class LaneEvaluator implements NoiseKernel.LaneEvaluator {
+        private final Evaluator evaluator = new Evaluator();
+        private final double[] laneCoord = new double[nDimensions], laneDerivative = new double[nDimensions];
+        private final double[] proposed = new double[nDimensions];
+        private final int[] laneGradientIndices = new int[noiseKernel.latticeVertices().length];
+        
+        public void evaluate(double[][] coords, double[] valuesOut, double[][] derivativesOut, int[][] gradientIndicesOut, int nLanes) {
+            for (int l = 0; l < nLanes; l++) {
+                for (int i = 0; i < nDimensions; i++) laneCoord[i] = coords[i][l];
+                valuesOut[l] = evaluator.evaluate(laneCoord, laneDerivative, laneGradientIndices);
+                for (int i = 0; i < nDimensions; i++) {
+                    coords[i][l] = laneCoord[i];
+                    derivativesOut[i][l] = laneDerivative[i];
+                }
+                for (int k = 0; k < laneGradientIndices.length; k++) gradientIndicesOut[k][l] = laneGradientIndices[k];
+            }
+        }
+        
+        public int moveLanes(double[][] coords, double[][] derivatives, double rate, boolean[] pending, int nLanes) {
+            int nPending = 0;
+            for (int l = 0; l < nLanes; l++) {
+                if (!pending[l]) continue;
+                for (int i = 0; i < nDimensions; i++) proposed[i] = coords[i][l] + derivatives[i][l] * rate;
+                project(proposed);
+                boolean changed = false;
+                for (int i = 0; i < nDimensions; i++) {
+                    if (proposed[i] != coords[i][l]) changed = true;
+                    coords[i][l] = proposed[i];
+                }
+                if (changed) pending[l] = false;
+                else nPending++;
+            }
+            return nPending;
+        }
+    }
+    
+    // There's no single-precision path, which would need a single-precision evaluateSlope too.
+    public NoiseKernel.FloatLaneEvaluator createFloatLaneEvaluator(int nLanes) {
+        return null;
+    }
+    
+    // The length of actual noise's derivative vector at the point part of coord, by central differences, for checking
+    // the bound with NoiseValidator. The direction part isn't used.
+    public NoiseKernel.HashedEvaluator createHashedEvaluator(long seed) {
+        NoiseKernel.HashedEvaluator noiseEvaluator = noiseKernel.createHashedEvaluator(seed);
+        double[] point = new double[nNoiseDimensions];
+        return coord -> {
+            System.arraycopy(coord, 0, point, 0, nNoiseDimensions);
+            double lengthSq = 0;
+            for (int i = 0; i < nNoiseDimensions; i++) {
+                point[i] = coord[i] + DIFFERENCE_STEP;
+                double above = noiseEvaluator.evaluate(point);
+                point[i] = coord[i] - DIFFERENCE_STEP;
+                double below = noiseEvaluator.evaluate(point);
+                point[i] = coord[i];
+                double derivative = (above - below) / (2 * DIFFERENCE_STEP);
+                lengthSq += derivative * derivative;
+            }
+            return Math.sqrt(lengthSq);
+        };
+    }
+    
+    // The slope of the slope would need the falloff's third derivatives too.
+    public NoiseKernel.SlopeEvaluator createSlopeEvaluator() {
+        return null;
+    }
+    
+    // There's no branch-and-bound for the slope.
+    public BranchAndBound.BoxObjective boxObjective() {
+        return null;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Sources of starting points for the restarts, shared by both normalizers.
+ *
+ * Starting points are numbered, and each one only depends on the seed and its number. Walkers take the numbers in blocks
+ * from a shared counter, through their own Cursor, so with the same seed the same starting points get used whatever the
+ * thread count is. Points are in the unit cube, and the normalizer maps them into its cell.
+ *
+ * A search split over several processes (see ShardCoordinator) gives each shard every shardCount-th block, so shards with
+ * the same seed never share a starting point, and between them they take the same points one process would. With a
+ * limit, the points numbered below it get used exactly once, by one shard or another.
+ *
+ * Random is a SplittableRandom stream, one per block, so walkers never contend over it. The others are low-discrepancy
+ * sequences, which cover the cube far more evenly than random points do, especially in 4D: Sobol (up to 10 dimensions,
+ * R2 above that), Halton, and R2, the Kronecker sequence on the generalized golden ratio. Those get shifted by a random
+ * offset from the seed (mod 1), so different seeds still give different points.
+ *
+ * @author K.jpg
+ */
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class StartPointSource {
+    
+    public enum Type {
+        Random, Sobol, Halton, R2
+    }
+    
+    // Starting points a cursor takes at a time
+    private static int BLOCK_SIZE = 64;
+    
+    protected final int nDimensions;
+    protected final long seed;
+    private final AtomicLong nextBlock = new AtomicLong();
+    private int shardIndex = 0, shardCount = 1;
+    private long limit = 0;
+    
+    protected StartPointSource(int nDimensions, long seed) {
+        this.nDimensions = nDimensions;
+        this.seed = seed;
+    }
+    
+    public static StartPointSource create(Type type, int nDimensions, long seed) {
+        switch (type) {
+            default:
+            case Random: return new RandomPoints(nDimensions, seed);
+            case Sobol: return (nDimensions <= Sobol.MAX_DIMENSIONS) ? new Sobol(nDimensions, seed) : new R2(nDimensions, seed);
+            case Halton: return new Halton(nDimensions, seed);
+            case R2: return new R2(nDimensions, seed);
+        }
+    }
+    
+    // How many blocks of starting points cursors have taken, for checkpoints.
+    public long blocksTaken() {
+        return nextBlock.get();
+    }
+    
+    // Resumes the sequence after the blocks a previous run took. Points those cursors hadn't got to yet are skipped.
+    public void skipBlocks(long blocks) {
+        nextBlock.accumulateAndGet(blocks, Math::max);
+    }
+    
+    // Takes only the blocks whose number is shardIndex mod shardCount. Call before any cursor takes a block.
+    public void shard(int shardIndex, int shardCount) {
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+    }
+    
+    // No starting points numbered limit or above, or no limit at 0.
+    public void limit(long limit) {
+        this.limit = limit;
+    }
+    
+    // One per walker. Not thread-safe on its own.
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    public final class Cursor {
+        private long index, blockEnd;
+        private SplittableRandom blockRandom;
+        
+        // Fills coordOut with the next starting point in the unit cube, and returns its number. Returns -1 and leaves
+        // coordOut as it was once the limit is reached.
+        public long next(double[] coordOut) {
+            if (index == blockEnd) {
+                long block = nextBlock.getAndIncrement() * shardCount + shardIndex;
+                index = block * BLOCK_SIZE;
+                blockEnd = index + BLOCK_SIZE;
+                blockRandom = new SplittableRandom(mix(seed + block * 0x9E3779B97F4A7C15L));
+            }
+            if (limit > 0 && index >= limit) return -1;
+            point(index, blockRandom, coordOut);
+            return index++;
+        }
+    }
+    
+    // Point number index, into coordOut. blockRandom is the random stream of the block the index is in, for sources that
+    // need one. It's only ever advanced from the start of the block, in order.
+    protected abstract void point(long index, SplittableRandom blockRandom, double[] coordOut);
+    
+    // Random offset (mod 1) for the low-discrepancy sequences, the same for every point
+    protected double[] randomShift() {
+        SplittableRandom random = new SplittableRandom(mix(seed));
+        double[] shift = new double[nDimensions];
+        for (int i = 0; i < nDimensions; i++) shift[i] = random.nextDouble();
+        return shift;
+    }
+    
+    protected static double wrap(double value) {
+        value -= Math.floor(value);
+        return (value < 1) ? value : 0;
+    }
+    
+    // Stafford's variant 13 of the MurmurHash3 finalizer. Spreads nearby seeds apart, so their streams don't overlap.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    private static final class RandomPoints extends StartPointSource {
+        RandomPoints(int nDimensions, long seed) {
+            super(nDimensions, seed);
+        }
+        
+        protected void point(long index, SplittableRandom blockRandom, double[] coordOut) {
+            for (int i = 0; i < nDimensions; i++) coordOut[i] = blockRandom.nextDouble();
+        }
+    }
+    
+    // Sobol sequence, with the Joe-Kuo direction numbers (new-joe-kuo-6.21201) for the axes after the first.
+    // Point n is the XOR of the direction numbers picked out by the bits of the Gray code of n.
+    private static final class Sobol extends StartPointSource {
+        static final int MAX_DIMENSIONS = 10;
+        private static final int N_BITS = 52;
+        private static final int[][] PRIMITIVE_POLYNOMIALS = { // degree, coefficients, initial direction numbers
+            { 1, 0, 1 },
+            { 2, 1, 1, 3 },
+            { 3, 1, 1, 3, 1 },
+            { 3, 2, 1, 1, 1 },
+            { 4, 1, 1, 1, 3, 3 },
+            { 4, 4, 1, 3, 5, 13 },
+            { 5, 2, 1, 1, 5, 5, 17 },
+            { 5, 4, 1, 1, 5, 5, 5 },
+            { 5, 7, 1, 1, 7, 11, 19 }
+        };
+        
+        private final long[][] directions = new long[nDimensions][N_BITS];
+        private final double[] shift = randomShift();
+        
+        Sobol(int nDimensions, long seed) {
+            super(nDimensions, seed);
+            for (int b = 0; b < N_BITS; b++) directions[0][b] = 1L << (N_BITS - 1 - b);
+            for (int i = 1; i < nDimensions; i++) {
+                int[] polynomial = PRIMITIVE_POLYNOMIALS[i - 1];
+                int degree = polynomial[0], coefficients = polynomial[1];
+                long[] v = directions[i];
+                for (int b = 0; b < degree; b++) v[b] = (long)polynomial[2 + b] << (N_BITS - 1 - b);
+                for (int b = degree; b < N_BITS; b++) {
+                    v[b] = v[b - degree] ^ (v[b - degree] >>> degree);
+                    for (int c = 1; c < degree; c++) {
+                        if (((coefficients >> (degree - 1 - c)) & 1) != 0) v[b] ^= v[b - c];
+                    }
+                }
+            }
+        }
+        
+        protected void point(long index, SplittableRandom blockRandom, double[] coordOut) {
+            long gray = index ^ (index >>> 1);
+            for (int i = 0; i < nDimensions; i++) {
+                long x = 0;
+                for (int b = 0; gray >>> b != 0 && b < N_BITS; b++) {
+                    if (((gray >>> b) & 1) != 0) x ^= directions[i][b];
+                }
+                coordOut[i] = wrap(x * 0x1p-52 + shift[i]);
+            }
+        }
+    }
+    
+    // Halton sequence: the radical inverse of the point number, in the i-th prime base on the i-th axis.
+    private static final class Halton extends StartPointSource {
+        private final int[] bases = new int[nDimensions];
+        private final double[] shift = randomShift();
+        
+        Halton(int nDimensions, long seed) {
+            super(nDimensions, seed);
+            int candidate = 2;
+            for (int i = 0; i < nDimensions; candidate++) {
+                boolean isPrime = true;
+                for (int p = 2; p * p <= candidate && isPrime; p++) isPrime = (candidate % p != 0);
+                if (isPrime) bases[i++] = candidate;
+            }
+        }
+        
+        protected void point(long index, SplittableRandom blockRandom, double[] coordOut) {
+            for (int i = 0; i < nDimensions; i++) {
+                int base = bases[i];
+                double inverse = 0, digitScale = 1.0 / base;
+                for (long n = index + 1; n > 0; n /= base) {
+                    inverse += (n % base) * digitScale;
+                    digitScale /= base;
+                }
+                coordOut[i] = wrap(inverse + shift[i]);
+            }
+        }
+    }
+    
+    // R2: point n is n * alpha (mod 1), with alpha_i = phi^-(i + 1), where phi is the root of x^(N + 1) = x + 1.
+    private static final class R2 extends StartPointSource {
+        private final double[] alpha = new double[nDimensions];
+        private final double[] shift = randomShift();
+        
+        R2(int nDimensions, long seed) {
+            super(nDimensions, seed);
+            double phi = 2;
+            for (int iteration = 0; iteration < 64; iteration++) phi = Math.pow(1 + phi, 1.0 / (nDimensions + 1));
+            for (int i = 0; i < nDimensions; i++) alpha[i] = wrap(Math.pow(phi, -(i + 1)));
+        }
+        
+        protected void point(long index, SplittableRandom blockRandom, double[] coordOut) {
+            for (int i = 0; i < nDimensions; i++) coordOut[i] = wrap(index * alpha[i] + shift[i]);
+        }
+    }
+}
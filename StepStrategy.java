@@ -0,0 +1,225 @@
+/*
+ * Step strategies for the gradient ascent, shared by both normalizers.
+ *
+ * The original ascent moves by the derivative vector times a fixed CONVERGENCE_RATE, and only doubles the rate (up to
+ * MAX_RATE_RETRY_MULTIPLIER times) when the point fails to move at all. That's FixedRateDoubling here, and it's still
+ * the default. The others adapt the step size, so they need far fewer steps to cross the cell, at the cost of some
+ * extra evaluations per step. Every strategy converges the same way: when it can't move the point any more.
+ *
+ * @author K.jpg
+ */
+
+import java.util.Arrays;
+
+public abstract class StepStrategy {
+    
+    public enum Type {
+        FixedRateDoubling, Armijo, Adam, BarzilaiBorwein
+    }
+    
+    // What a strategy may evaluate: the noise value and derivative vector at a point, plus the domain rule
+    // (e.g. clamping to the unit cell) which gets applied to every point a strategy proposes.
+    public interface Objective {
+        double evaluate(double[] coord, double[] derivativeOut);
+        void project(double[] coord);
+    }
+    
+    // Sufficient-increase constant for the line searches
+    private static double ARMIJO_CONSTANT = 1e-4;
+    
+    protected final int nDimensions;
+    protected final double baseRate;
+    protected final int maxRateRetryMultiplier;
+    protected final double[] proposedCoord, proposedDerivative;
+    protected int evaluations;
+    
+    protected StepStrategy(int nDimensions, double baseRate, int maxRateRetryMultiplier) {
+        this.nDimensions = nDimensions;
+        this.baseRate = baseRate;
+        this.maxRateRetryMultiplier = maxRateRetryMultiplier;
+        proposedCoord = new double[nDimensions];
+        proposedDerivative = new double[nDimensions];
+    }
+    
+    public static StepStrategy create(Type type, int nDimensions, double baseRate, int maxRateRetryMultiplier) {
+        switch (type) {
+            default:
+            case FixedRateDoubling: return new FixedRateDoubling(nDimensions, baseRate, maxRateRetryMultiplier);
+            case Armijo: return new Armijo(nDimensions, baseRate, maxRateRetryMultiplier);
+            case Adam: return new Adam(nDimensions, baseRate, maxRateRetryMultiplier);
+            case BarzilaiBorwein: return new BarzilaiBorwein(nDimensions, baseRate, maxRateRetryMultiplier);
+        }
+    }
+    
+    // Call at the start of every restart.
+    public void reset() {
+        evaluations = 0;
+    }
+    
+    // Moves coord uphill, given the value and derivative vector there. Returns false, leaving coord alone, if it couldn't
+    // move the point any more. That's the convergence condition.
+    public abstract boolean step(double[] coord, double value, double[] derivative, Objective objective);
+    
+    // Evaluations the strategy made itself (line search trials) since the last reset.
+    public int extraEvaluations() {
+        return evaluations;
+    }
+    
+    // Fills proposedCoord with the projected coord + direction * rate. Returns whether that differs from coord.
+    protected boolean propose(double[] coord, double[] direction, double rate, Objective objective) {
+        for (int i = 0; i < nDimensions; i++) proposedCoord[i] = coord[i] + direction[i] * rate;
+        objective.project(proposedCoord);
+        for (int i = 0; i < nDimensions; i++) {
+            if (proposedCoord[i] != coord[i]) return true;
+        }
+        return false;
+    }
+    
+    // Backtracking line search from the given rate along the derivative vector: halves the rate until the value
+    // increases enough. Returns the accepted rate, or 0 if the point stopped moving first. The value has to actually go
+    // up: near a peak that's flat to rounding, a step that leaves it the same could go on forever, since the derivative
+    // vector is still long enough to move the point.
+    protected double lineSearch(double[] coord, double value, double[] derivative, double rate, Objective objective) {
+        while (propose(coord, derivative, rate, objective)) {
+            double expectedIncrease = 0;
+            for (int i = 0; i < nDimensions; i++) expectedIncrease += derivative[i] * (proposedCoord[i] - coord[i]);
+            double proposedValue = objective.evaluate(proposedCoord, proposedDerivative);
+            evaluations++;
+            if (proposedValue > value && proposedValue >= value + ARMIJO_CONSTANT * expectedIncrease) {
+                System.arraycopy(proposedCoord, 0, coord, 0, nDimensions);
+                return rate;
+            }
+            rate *= 0.5;
+        }
+        return 0;
+    }
+    
+    // The original strategy: try the base rate, and if the point doesn't move, keep doubling it up to the max multiplier.
+    private static final class FixedRateDoubling extends StepStrategy {
+        FixedRateDoubling(int nDimensions, double baseRate, int maxRateRetryMultiplier) {
+            super(nDimensions, baseRate, maxRateRetryMultiplier);
+        }
+        
+        public boolean step(double[] coord, double value, double[] derivative, Objective objective) {
+            double rateToTry = baseRate;
+            double rateToStopAt = baseRate * maxRateRetryMultiplier;
+            while (true) {
+                if (propose(coord, derivative, rateToTry, objective)) {
+                    System.arraycopy(proposedCoord, 0, coord, 0, nDimensions);
+                    return true;
+                }
+                if (rateToTry >= rateToStopAt) return false;
+                rateToTry *= 2;
+            }
+        }
+    }
+    
+    // Backtracking (Armijo) line search. Each step starts from double the last accepted rate, so the rate can grow
+    // as well as shrink.
+    private static final class Armijo extends StepStrategy {
+        private double rate;
+        
+        Armijo(int nDimensions, double baseRate, int maxRateRetryMultiplier) {
+            super(nDimensions, baseRate, maxRateRetryMultiplier);
+        }
+        
+        public void reset() {
+            super.reset();
+            rate = baseRate;
+        }
+        
+        public boolean step(double[] coord, double value, double[] derivative, Objective objective) {
+            double acceptedRate = lineSearch(coord, value, derivative, rate * 2, objective);
+            if (acceptedRate == 0) return false;
+            rate = acceptedRate;
+            return true;
+        }
+    }
+    
+    // Adam (momentum with per-axis scaling). Steps are about learningRate long regardless of the derivative magnitude,
+    // so whenever a step lowers the value, the learning rate is halved. It converges once steps are too small to move.
+    private static final class Adam extends StepStrategy {
+        private static double BETA1 = 0.9, BETA2 = 0.999, EPSILON = 1e-30;
+        
+        private final double[] firstMoment, secondMoment, adamStep;
+        private double learningRate, previousValue;
+        private int iteration;
+        
+        Adam(int nDimensions, double baseRate, int maxRateRetryMultiplier) {
+            super(nDimensions, baseRate, maxRateRetryMultiplier);
+            firstMoment = new double[nDimensions];
+            secondMoment = new double[nDimensions];
+            adamStep = new double[nDimensions];
+        }
+        
+        public void reset() {
+            super.reset();
+            Arrays.fill(firstMoment, 0);
+            Arrays.fill(secondMoment, 0);
+            learningRate = baseRate * maxRateRetryMultiplier;
+            previousValue = Double.NEGATIVE_INFINITY;
+            iteration = 0;
+        }
+        
+        public boolean step(double[] coord, double value, double[] derivative, Objective objective) {
+            if (value < previousValue) learningRate *= 0.5;
+            previousValue = value;
+            
+            iteration++;
+            double firstMomentCorrection = 1 / (1 - Math.pow(BETA1, iteration));
+            double secondMomentCorrection = 1 / (1 - Math.pow(BETA2, iteration));
+            for (int i = 0; i < nDimensions; i++) {
+                firstMoment[i] = BETA1 * firstMoment[i] + (1 - BETA1) * derivative[i];
+                secondMoment[i] = BETA2 * secondMoment[i] + (1 - BETA2) * derivative[i] * derivative[i];
+                adamStep[i] = firstMoment[i] * firstMomentCorrection / (Math.sqrt(secondMoment[i] * secondMomentCorrection) + EPSILON);
+            }
+            if (!propose(coord, adamStep, learningRate, objective)) return false;
+            System.arraycopy(proposedCoord, 0, coord, 0, nDimensions);
+            return true;
+        }
+    }
+    
+    // Barzilai-Borwein step sizes, from the change in position and derivative over the last step, safeguarded by the
+    // same backtracking line search as Armijo.
+    private static final class BarzilaiBorwein extends StepStrategy {
+        private final double[] previousCoord, previousDerivative;
+        private boolean hasPrevious;
+        private double rate;
+        
+        BarzilaiBorwein(int nDimensions, double baseRate, int maxRateRetryMultiplier) {
+            super(nDimensions, baseRate, maxRateRetryMultiplier);
+            previousCoord = new double[nDimensions];
+            previousDerivative = new double[nDimensions];
+        }
+        
+        public void reset() {
+            super.reset();
+            hasPrevious = false;
+            rate = baseRate;
+        }
+        
+        public boolean step(double[] coord, double value, double[] derivative, Objective objective) {
+            if (hasPrevious) {
+                
+                // We're maximizing, so the curvature term uses the negated change in derivative.
+                double ss = 0, sy = 0;
+                for (int i = 0; i < nDimensions; i++) {
+                    double s = coord[i] - previousCoord[i];
+                    double y = previousDerivative[i] - derivative[i];
+                    ss += s * s;
+                    sy += s * y;
+                }
+                if (sy > 0) rate = ss / sy;
+                else rate *= 2;
+            }
+            System.arraycopy(coord, 0, previousCoord, 0, nDimensions);
+            System.arraycopy(derivative, 0, previousDerivative, 0, nDimensions);
+            hasPrevious = true;
+            
+            double acceptedRate = lineSearch(coord, value, derivative, rate, objective);
+            if (acceptedRate == 0) return false;
+            rate = acceptedRate;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Sweep mode: runs a whole list of noise configurations in one JVM, on one shared thread pool, and writes one row per
+ * configuration. Saves recompiling and warming up the JVM again for every gradient set or constant you want to try.
+ *
+ * Usage: java SweepRunner sweep.txt [results.csv | results.json]
+ * Results go to the console as CSV when no output file is given. Rows are written as configurations finish.
+ *
+ * Each non-empty line of the sweep file describes a configuration, as space-separated key=value pairs. A value with
+ * commas in it expands into one configuration per value, and several of those give every combination, so
+ *     noise=Simplex unskew=-0.5 falloff=0.5,0.6,0.75 gradients=gradients3d.txt
+ * is three configurations. Lines starting with # are comments. Keys:
+ *     noise          Simplex or Perlin (required)
+ *     gradients      gradient set file (required), relative to the sweep file. One gradient per line, with the
+ *                    components separated by commas or spaces. Anything else on the line, like braces, is ignored,
+ *                    so gradient tables can be pasted straight from the normalizer sources. The dimension count
+ *                    comes from the gradients.
+ *     unskew         UNSKEW_CONSTANT (Simplex, required)
+ *     falloff        FALLOFF_RADIUS_SQ (Simplex, required)
+ *     fade           Quintic, Cubic or None (Perlin, default Quintic)
+ *     multiplier     GRADIENT_MULTIPLIER (default 1)
+ *     octaves, lacunarity, gain          FBM_OCTAVES, FBM_LACUNARITY and FBM_GAIN (defaults 1, 2 and 0.5)
+ *     slope          true to search for the steepest slope instead of the maximum, see SEARCH_SLOPE
+ *     rate, retries  CONVERGENCE_RATE and MAX_RATE_RETRY_MULTIPLIER_EXPONENT (defaults as in each normalizer)
+ *     step           STEP_STRATEGY (default FixedRateDoubling, or Armijo for an fBm or the slope)
+ *     seconds, evaluations, stagnation   the run budgets below, for this configuration
+ *     points         MAX_START_POINTS, for this configuration (default 0, off)
+ *     startPoints, seed                  START_POINT_SOURCE and START_POINT_SEED
+ *     certify        true to bracket the maximum by branch-and-bound, see CERTIFY_UPPER_BOUND. Not for the slope, or
+ *                    for an fBm whose lacunarity isn't a whole number
+ *     continuation   K, to warm-start from the previous configuration, see below (default 0, off)
+ *     explore        budget fraction for warm-started configurations (default WARM_START_EXPLORATION)
+ *
+ * Continuation is for sweeping a constant in small steps, e.g. falloff=0.5,0.51,0.52,... The maxima hardly move from
+ * one value to the next, so each configuration starts from the K highest maxima the previous one found (if it was the
+ * same noise, gradient set, fBm and slope mode, see CONTINUATION_KEYS), and polishes those first. Its budgets are then
+ * scaled down by the explore fraction, since the fresh restarts are only there to catch a maximum that has overtaken
+ * the old ones.
+ *
+ * @author K.jpg
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class SweepRunner {
+    
+    // Shared by every configuration in the sweep.
+    private static int N_THREADS = Runtime.getRuntime().availableProcessors();
+    
+    // Default budgets for each configuration. A sweep needs at least one of them, or the first configuration never ends.
+    private static double MAX_RUN_SECONDS = 60;
+    private static long MAX_EVALUATIONS = 0;
+    private static long MAX_RESTARTS_WITHOUT_IMPROVEMENT = 2000;
+    private static double WARM_START_EXPLORATION = 0.1;
+    
+    // Keys which decide what the search domain is, or which noise is on it. Continuation only carries maxima over between
+    // configurations which agree on all of them, e.g. not from a 2D noise into its 4-coordinate slope search.
+    private static final List<String> CONTINUATION_KEYS = Arrays.asList("noise", "gradients", "multiplier", "fade", "octaves", "lacunarity", "gain", "slope");
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java SweepRunner sweep.txt [results.csv | results.json]");
+            return;
+        }
+        Path sweepPath = Paths.get(args[0]);
+        List<Map<String, String>> configurations = readSweep(sweepPath);
+        boolean json = args.length > 1 && args[1].endsWith(".json");
+        
+        // A configuration that can't run stops the sweep before any of them do, not partway.
+        for (Map<String, String> configuration : configurations) settings(configuration);
+        
+        PrintStream out = (args.length > 1) ? new PrintStream(Files.newOutputStream(Paths.get(args[1])), true, "UTF-8") : System.out;
+        out.println(json ? "[" : csvHeader());
+        ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+        SearchEngine previous = null;
+        for (int c = 0; c < configurations.size(); c++) {
+            Map<String, String> configuration = configurations.get(c);
+            System.err.println("Configuration " + (c + 1) + " of " + configurations.size() + ": " + describe(configuration));
+            SearchEngine.Settings settings = settings(configuration);
+            int continuation = (int)longValue(configuration, "continuation", 0);
+            if (continuation > 0 && previous != null && continuesFrom(configuration, configurations.get(c - 1))) {
+                warmStart(settings, previous.bestLocations(continuation), doubleValue(configuration, "explore", WARM_START_EXPLORATION));
+            }
+            
+            previous = new SearchEngine(createKernel(configuration, sweepPath), settings);
+            SearchResult result = previous.run(pool);
+            if (json) {
+                out.println("{\"configuration\": " + SearchResult.toJson(describe(configuration)) + ", \"seeds\": " + settings.seedCoords.length
+                        + ", \"result\": " + result.toJson().trim() + "}" + (c + 1 < configurations.size() ? "," : ""));
+            } else out.println(csvRow(configuration, settings.seedCoords.length, result));
+        }
+        pool.shutdown();
+        if (json) out.println("]");
+        if (out != System.out) out.close();
+    }
+    
+    // Reads the sweep file, expanding comma-separated values into every combination.
+    static List<Map<String, String>> readSweep(Path sweepPath) throws IOException {
+        List<Map<String, String>> configurations = new ArrayList<>();
+        List<String> lines = Files.readAllLines(sweepPath, StandardCharsets.UTF_8);
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            List<Map<String, String>> expanded = new ArrayList<>();
+            expanded.add(new LinkedHashMap<>());
+            for (String pair : line.split("\\s+")) {
+                int equals = pair.indexOf('=');
+                if (equals <= 0) throw new IllegalArgumentException("Line " + (n + 1) + " of " + sweepPath + ": expected key=value, got " + pair);
+                String key = pair.substring(0, equals);
+                List<Map<String, String>> next = new ArrayList<>();
+                for (Map<String, String> partial : expanded) {
+                    for (String value : pair.substring(equals + 1).split(",")) {
+                        Map<String, String> configuration = new LinkedHashMap<>(partial);
+                        configuration.put(key, value);
+                        next.add(configuration);
+                    }
+                }
+                expanded = next;
+            }
+            configurations.addAll(expanded);
+        }
+        return configurations;
+    }
+    
+    // One gradient per line: every number on the line is a component. Lines without numbers, and // comments, are skipped.
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+    static double[][] readGradients(Path path) throws IOException {
+        return Files.readAllLines(path, StandardCharsets.UTF_8).stream()
+                .map(line -> NUMBER.matcher(line.replaceAll("//.*", "")).results().mapToDouble(match -> Double.parseDouble(match.group())).toArray())
+                .filter(gradient -> gradient.length > 0)
+                .toArray(double[][]::new);
+    }
+    
+    static NoiseKernel createKernel(Map<String, String> configuration, Path sweepPath) throws IOException {
+        Path gradientPath = sweepPath.resolveSibling(required(configuration, "gradients"));
+        double[][] gradients = readGradients(gradientPath);
+        int nDimensions = gradients[0].length;
+        if (Arrays.stream(gradients).anyMatch(gradient -> gradient.length != nDimensions)) {
+            throw new IllegalArgumentException("Gradients in " + gradientPath + " don't all have the same number of components");
+        }
+        double multiplier = doubleValue(configuration, "multiplier", 1);
+        for (double[] gradient : gradients) {
+            for (int i = 0; i < nDimensions; i++) gradient[i] *= multiplier;
+        }
+        
+        NoiseKernel kernel;
+        switch (required(configuration, "noise")) {
+            case "Simplex":
+                kernel = new SimplexKernel(nDimensions, Double.parseDouble(required(configuration, "unskew")),
+                        Double.parseDouble(required(configuration, "falloff")), gradients);
+                break;
+            case "Perlin":
+                kernel = new PerlinKernel(nDimensions, PerlinKernel.FadeCurveType.valueOf(configuration.getOrDefault("fade", "Quintic")), gradients);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown noise " + configuration.get("noise") + ", expected Simplex or Perlin");
+        }
+        int nOctaves = (int)longValue(configuration, "octaves", 1);
+        if (nOctaves > 1) kernel = new FractalKernel(kernel, nOctaves, doubleValue(configuration, "lacunarity", 2), doubleValue(configuration, "gain", 0.5));
+        return Boolean.parseBoolean(configuration.get("slope")) ? new SlopeKernel(kernel) : kernel;
+    }
+    
+    static SearchEngine.Settings settings(Map<String, String> configuration) {
+        boolean perlin = "Perlin".equals(configuration.get("noise"));
+        SearchEngine.Settings settings = new SearchEngine.Settings();
+        settings.convergenceRate = doubleValue(configuration, "rate", perlin ? 1.0 / 131072 : 1.0 / 512);
+        settings.maxRateRetryMultiplierExponent = (int)longValue(configuration, "retries", perlin ? 7 : 4);
+        boolean armijo = longValue(configuration, "octaves", 1) > 1 || Boolean.parseBoolean(configuration.get("slope"));
+        StepStrategy.Type defaultStepStrategy = armijo ? StepStrategy.Type.Armijo : settings.stepStrategy;
+        settings.stepStrategy = StepStrategy.Type.valueOf(configuration.getOrDefault("step", defaultStepStrategy.name()));
+        settings.nThreads = N_THREADS;
+        settings.printResults = false;
+        settings.maxRunSeconds = doubleValue(configuration, "seconds", MAX_RUN_SECONDS);
+        settings.maxEvaluations = longValue(configuration, "evaluations", MAX_EVALUATIONS);
+        settings.maxRestartsWithoutImprovement = longValue(configuration, "stagnation", MAX_RESTARTS_WITHOUT_IMPROVEMENT);
+        settings.maxStartPoints = longValue(configuration, "points", 0);
+        settings.startPointSource = StartPointSource.Type.valueOf(configuration.getOrDefault("startPoints", settings.startPointSource.name()));
+        settings.startPointSeed = longValue(configuration, "seed", 0);
+        settings.certifyUpperBound = Boolean.parseBoolean(configuration.getOrDefault("certify", "false"));
+        if (settings.certifyUpperBound && Boolean.parseBoolean(configuration.get("slope"))) throw new IllegalArgumentException("There's no branch-and-bound for the slope, so slope=true can't take certify=true");
+        return settings;
+    }
+    
+    // Seeds must come from the same noise, on the same domain. The constants being swept can differ.
+    private static boolean continuesFrom(Map<String, String> configuration, Map<String, String> previous) {
+        return CONTINUATION_KEYS.stream().allMatch(key -> Objects.equals(configuration.get(key), previous.get(key)));
+    }
+    
+    // Starts from the seeds, and cuts each budget that's on down to the exploration fraction. Every seed still gets its restart.
+    private static void warmStart(SearchEngine.Settings settings, double[][] seedCoords, double exploration) {
+        settings.seedCoords = seedCoords;
+        settings.maxRunSeconds *= exploration;
+        settings.maxEvaluations = (long)Math.ceil(settings.maxEvaluations * exploration);
+        settings.maxStartPoints = (long)Math.ceil(settings.maxStartPoints * exploration);
+        if (settings.maxRestartsWithoutImprovement > 0) {
+            settings.maxRestartsWithoutImprovement = Math.max((long)Math.ceil(settings.maxRestartsWithoutImprovement * exploration), seedCoords.length);
+        }
+    }
+    
+    private static double doubleValue(Map<String, String> configuration, String key, double defaultValue) {
+        return configuration.containsKey(key) ? Double.parseDouble(configuration.get(key)) : defaultValue;
+    }
+    
+    private static long longValue(Map<String, String> configuration, String key, long defaultValue) {
+        return configuration.containsKey(key) ? Long.parseLong(configuration.get(key)) : defaultValue;
+    }
+    
+    private static String required(Map<String, String> configuration, String key) {
+        String value = configuration.get(key);
+        if (value == null) throw new IllegalArgumentException("Configuration " + describe(configuration) + " has no " + key);
+        return value;
+    }
+    
+    static String describe(Map<String, String> configuration) {
+        return configuration.entrySet().stream().map(entry -> entry.getKey() + "=" + entry.getValue()).collect(Collectors.joining(" "));
+    }
+    
+    private static String csvHeader() {
+        return "configuration,seeds,noiseType,maxValue,location,restarts,evaluations,elapsedSeconds,stopReason,boundLow,boundHigh,certificationSeconds";
+    }
+    
+    // Vectors are space-separated inside one field, so the columns stay fixed whatever the dimension count. A run with no
+    // maximum has NaN for it and an empty location.
+    private static String csvRow(Map<String, String> configuration, int nSeeds, SearchResult result) {
+        return "\"" + describe(configuration).replace("\"", "\"\"") + "\"," + nSeeds + "," + result.noiseType + "," + result.maxValue + ","
+                + (result.location == null ? "" : Arrays.stream(result.location).mapToObj(Double::toString).collect(Collectors.joining(" "))) + ","
+                + result.restarts + "," + result.evaluations + "," + result.elapsedSeconds + "," + result.stopReason + ","
+                + (result.certifiedBracket == null ? "," : result.certifiedBracket[0] + "," + result.certifiedBracket[1]) + "," + result.certificationSeconds;
+    }
+}
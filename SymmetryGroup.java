@@ -0,0 +1,291 @@
+/*
+ * Symmetries of the noise, shared by both normalizers.
+ *
+ * The candidates are the signed permutations of the axes (the hyperoctahedral group, 2^N N! of them), acting about a
+ * centre point. One is a symmetry of the best-gradient noise if it maps the gradient set onto itself and the lattice onto
+ * itself. The falloffs used here only depend on per-axis magnitudes or on distance, so those are left alone by any of them.
+ *
+ * Every point in an orbit has the same noise value, so the search only has to start from one point per orbit: the
+ * lexicographically smallest image, within the cell. Those points make up the fundamental domain of the cell, and it's
+ * 1/order() the size of the cell. orbit() maps a point back out to all of its copies.
+ *
+ * @author K.jpg
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+public final class SymmetryGroup {
+    
+    // Relative tolerance for matching up transformed gradients and lattice vectors
+    private static double TOLERANCE = 1e-9;
+    
+    private final int nDimensions;
+    private final int[][] permutations;
+    private final double[][] signs;
+    private final double[] centre;
+    private final Consumer<double[]> wrapIntoCell;
+    
+    // Each transform in lattice coordinates (coordinates in the lattice basis, where the cell is the unit cube), before
+    // wrapping: x -> latticeMatrices[t] x + latticeOffsets[t]. Both are integral, since the lattice maps onto itself.
+    private final double[][][] latticeMatrices;
+    private final double[][] latticeOffsets;
+    
+    private SymmetryGroup(int nDimensions, List<int[]> permutations, List<double[]> signs, double[] centre, Consumer<double[]> wrapIntoCell, double[][] latticeBasis) {
+        this.nDimensions = nDimensions;
+        this.permutations = permutations.toArray(new int[0][]);
+        this.signs = signs.toArray(new double[0][]);
+        this.centre = centre;
+        this.wrapIntoCell = wrapIntoCell;
+        
+        // Column j of the matrix is where basis vector j goes, less where the origin goes.
+        latticeMatrices = new double[this.permutations.length][nDimensions][nDimensions];
+        latticeOffsets = new double[this.permutations.length][];
+        double[] image = new double[nDimensions];
+        for (int t = 0; t < this.permutations.length; t++) {
+            transformUnwrapped(t, new double[nDimensions], image);
+            latticeOffsets[t] = latticeCoordinates(latticeBasis, image);
+            for (int i = 0; i < nDimensions; i++) latticeOffsets[t][i] = Math.rint(latticeOffsets[t][i]);
+            for (int j = 0; j < nDimensions; j++) {
+                transformUnwrapped(t, latticeBasis[j], image);
+                double[] column = latticeCoordinates(latticeBasis, image);
+                for (int i = 0; i < nDimensions; i++) latticeMatrices[t][i][j] = Math.rint(column[i]) - latticeOffsets[t][i];
+            }
+        }
+    }
+    
+    // Finds every signed permutation T for which x -> centre + T (x - centre) maps the gradient set onto itself and the
+    // lattice (integer combinations of latticeBasis) onto itself. wrapIntoCell moves a point back into the cell in place,
+    // keeping its value, or can be null if the transforms already map the cell onto itself.
+    public static SymmetryGroup detect(double[][] gradients, double[][] latticeBasis, double[] centre, Consumer<double[]> wrapIntoCell) {
+        int nDimensions = centre.length;
+        double gradientScale = Arrays.stream(gradients).flatMapToDouble(Arrays::stream).map(Math::abs).max().orElse(1);
+        Set<String> gradientKeys = new HashSet<>();
+        for (double[] gradient : gradients) gradientKeys.add(roundedKey(gradient, gradientScale));
+        
+        List<int[]> permutations = new ArrayList<>();
+        List<double[]> signs = new ArrayList<>();
+        int[] permutation = new int[nDimensions];
+        for (int i = 0; i < nDimensions; i++) permutation[i] = i;
+        double[] transformed = new double[nDimensions];
+        do {
+            for (int signBits = 0; signBits < (1 << nDimensions); signBits++) {
+                double[] sign = new double[nDimensions];
+                for (int i = 0; i < nDimensions; i++) sign[i] = ((signBits >> i) & 1) == 0 ? 1 : -1;
+                
+                boolean isSymmetry = true;
+                for (double[] gradient : gradients) {
+                    apply(permutation, sign, gradient, transformed);
+                    if (!containsGradient(gradients, gradientKeys, transformed, gradientScale)) {
+                        isSymmetry = false;
+                        break;
+                    }
+                }
+                if (isSymmetry) isSymmetry = preservesLattice(permutation, sign, latticeBasis, centre);
+                if (isSymmetry) {
+                    permutations.add(permutation.clone());
+                    signs.add(sign);
+                }
+            }
+        } while (nextPermutation(permutation));
+        
+        return new SymmetryGroup(nDimensions, permutations, signs, centre, wrapIntoCell, latticeBasis);
+    }
+    
+    // Only the identity, for noise without any symmetries that are known to map the search domain onto itself.
+    public static SymmetryGroup identity(int nDimensions) {
+        List<int[]> permutations = new ArrayList<>();
+        List<double[]> signs = new ArrayList<>();
+        permutations.add(IntStream.range(0, nDimensions).toArray());
+        double[] sign = new double[nDimensions];
+        Arrays.fill(sign, 1);
+        signs.add(sign);
+        double[][] latticeBasis = new double[nDimensions][nDimensions];
+        for (int i = 0; i < nDimensions; i++) latticeBasis[i][i] = 1;
+        return new SymmetryGroup(nDimensions, permutations, signs, new double[nDimensions], null, latticeBasis);
+    }
+    
+    public int order() {
+        return permutations.length;
+    }
+    
+    // Replaces coord (already in the cell) with the lexicographically smallest of its images, which lies in the fundamental domain.
+    public void canonicalize(double[] coord) {
+        double[] image = new double[nDimensions];
+        double[] best = coord.clone();
+        for (int t = 0; t < permutations.length; t++) {
+            transformPoint(t, coord, image);
+            if (compareLexicographically(image, best) < 0) System.arraycopy(image, 0, best, 0, nDimensions);
+        }
+        System.arraycopy(best, 0, coord, 0, nDimensions);
+    }
+    
+    // Every distinct image of coord in the cell, including coord itself. All of them have the same noise value.
+    public List<double[]> orbit(double[] coord) {
+        List<double[]> images = new ArrayList<>();
+        for (int t = 0; t < permutations.length; t++) {
+            double[] image = new double[nDimensions];
+            transformPoint(t, coord, image);
+            boolean isNew = true;
+            for (double[] other : images) {
+                double distanceSq = 0;
+                for (int i = 0; i < nDimensions; i++) distanceSq += (image[i] - other[i]) * (image[i] - other[i]);
+                if (distanceSq <= TOLERANCE * TOLERANCE) {
+                    isNew = false;
+                    break;
+                }
+            }
+            if (isNew) images.add(image);
+        }
+        return images;
+    }
+    
+    // Whether the box [lo, hi] of lattice coordinates holds no point of the fundamental domain, taken by the
+    // lexicographic order of lattice coordinates: some transform takes every point of the box to a copy in the cell
+    // that comes before it. A search that only needs one copy of each point, like the branch-and-bound, can leave the
+    // box out. False when it can't tell, e.g. when a transformed box straddles a cell boundary.
+    public boolean outsideFundamentalDomain(double[] lo, double[] hi) {
+        for (int t = 0; t < latticeMatrices.length; t++) {
+            double[][] matrix = latticeMatrices[t];
+            for (int i = 0; i < nDimensions; i++) {
+                
+                // Component i of the image is linear over the box, as long as it stays in one cell, so wrapping it is a
+                // constant shift. The difference from component i of the point is then linear too.
+                double imageLo = latticeOffsets[t][i], imageHi = latticeOffsets[t][i];
+                for (int j = 0; j < nDimensions; j++) {
+                    double coefficient = matrix[i][j];
+                    imageLo += coefficient * (coefficient >= 0 ? lo[j] : hi[j]);
+                    imageHi += coefficient * (coefficient >= 0 ? hi[j] : lo[j]);
+                }
+                double cell = Math.floor(imageLo);
+                if (imageHi > cell + 1) break;
+                double differenceLo = latticeOffsets[t][i] - cell, differenceHi = differenceLo;
+                boolean identical = (differenceLo == 0);
+                for (int j = 0; j < nDimensions; j++) {
+                    double coefficient = matrix[i][j] - (i == j ? 1 : 0);
+                    differenceLo += coefficient * (coefficient >= 0 ? lo[j] : hi[j]);
+                    differenceHi += coefficient * (coefficient >= 0 ? hi[j] : lo[j]);
+                    if (coefficient != 0) identical = false;
+                }
+                
+                // The same component everywhere leaves it to the next one.
+                if (identical) continue;
+                if (differenceHi < 0) return true;
+                break;
+            }
+        }
+        return false;
+    }
+    
+    private void transformPoint(int t, double[] coord, double[] imageOut) {
+        transformUnwrapped(t, coord, imageOut);
+        if (wrapIntoCell != null) wrapIntoCell.accept(imageOut);
+    }
+    
+    private void transformUnwrapped(int t, double[] coord, double[] imageOut) {
+        for (int i = 0; i < nDimensions; i++) {
+            imageOut[i] = centre[i] + signs[t][i] * (coord[permutations[t][i]] - centre[permutations[t][i]]);
+        }
+    }
+    
+    private static void apply(int[] permutation, double[] sign, double[] vector, double[] out) {
+        for (int i = 0; i < vector.length; i++) out[i] = sign[i] * vector[permutation[i]];
+    }
+    
+    // Hash lookup on rounded components, with a tolerance scan as the fallback for values that round the other way.
+    private static boolean containsGradient(double[][] gradients, Set<String> gradientKeys, double[] vector, double scale) {
+        if (gradientKeys.contains(roundedKey(vector, scale))) return true;
+        for (double[] gradient : gradients) {
+            boolean matches = true;
+            for (int i = 0; i < vector.length; i++) {
+                if (Math.abs(gradient[i] - vector[i]) > TOLERANCE * scale) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) return true;
+        }
+        return false;
+    }
+    
+    private static String roundedKey(double[] vector, double scale) {
+        long[] rounded = new long[vector.length];
+        for (int i = 0; i < vector.length; i++) rounded[i] = Math.round(vector[i] / (scale * TOLERANCE * 16));
+        return Arrays.toString(rounded);
+    }
+    
+    // The linear part has to map every basis vector to a lattice vector, and the translation centre - T centre has to be
+    // a lattice vector too. Lattice vectors are the ones with integer coordinates in the basis.
+    private static boolean preservesLattice(int[] permutation, double[] sign, double[][] latticeBasis, double[] centre) {
+        int n = centre.length;
+        double[] transformed = new double[n];
+        for (double[] basisVector : latticeBasis) {
+            apply(permutation, sign, basisVector, transformed);
+            if (!isLatticeVector(latticeBasis, transformed)) return false;
+        }
+        apply(permutation, sign, centre, transformed);
+        for (int i = 0; i < n; i++) transformed[i] = centre[i] - transformed[i];
+        return isLatticeVector(latticeBasis, transformed);
+    }
+    
+    private static boolean isLatticeVector(double[][] latticeBasis, double[] vector) {
+        for (double c : latticeCoordinates(latticeBasis, vector)) {
+            if (Math.abs(c - Math.rint(c)) > TOLERANCE) return false;
+        }
+        return true;
+    }
+    
+    // Solves sum_j c_j basis_j = vector by Gaussian elimination with partial pivoting.
+    private static double[] latticeCoordinates(double[][] latticeBasis, double[] vector) {
+        int n = vector.length;
+        double[][] augmented = new double[n][n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) augmented[i][j] = latticeBasis[j][i];
+            augmented[i][n] = vector[i];
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(augmented[row][col]) > Math.abs(augmented[pivot][col])) pivot = row;
+            }
+            double[] swap = augmented[col]; augmented[col] = augmented[pivot]; augmented[pivot] = swap;
+            for (int row = col + 1; row < n; row++) {
+                double factor = augmented[row][col] / augmented[col][col];
+                for (int c = col; c <= n; c++) augmented[row][c] -= factor * augmented[col][c];
+            }
+        }
+        double[] solution = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = augmented[row][n];
+            for (int c = row + 1; c < n; c++) sum -= augmented[row][c] * solution[c];
+            solution[row] = sum / augmented[row][row];
+        }
+        return solution;
+    }
+    
+    private static int compareLexicographically(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+        }
+        return 0;
+    }
+    
+    // Steps to the next permutation in lexicographic order. Returns false after the last one.
+    private static boolean nextPermutation(int[] permutation) {
+        int i = permutation.length - 2;
+        while (i >= 0 && permutation[i] >= permutation[i + 1]) i--;
+        if (i < 0) return false;
+        int j = permutation.length - 1;
+        while (permutation[j] <= permutation[i]) j--;
+        int swap = permutation[i]; permutation[i] = permutation[j]; permutation[j] = swap;
+        for (int a = i + 1, b = permutation.length - 1; a < b; a++, b--) {
+            swap = permutation[a]; permutation[a] = permutation[b]; permutation[b] = swap;
+        }
+        return true;
+    }
+}
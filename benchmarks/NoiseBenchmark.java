@@ -0,0 +1,173 @@
+/*
+ * Benchmarks for the hot paths of both normalizers, over every shipped configuration (see configurations.txt):
+ *     gradientScan        picking the best gradient for a direction, through the GradientIndex
+ *     gradientScanBrute   the same by trying every gradient, for reference
+ *     evaluate            noise value and derivative vector at one point
+ *     restarts            whole gradient ascent restarts, through the SearchEngine on BENCHMARK_THREADS threads
+ *
+ * Each benchmark runs WARMUP_ITERATIONS iterations which are thrown away, then MEASUREMENT_ITERATIONS which are reported
+ * as operations per second (mean and standard deviation). Compile and run from the repository root:
+ *     javac -cp . -d . benchmarks/NoiseBenchmark.java
+ *     java -cp . NoiseBenchmark benchmarks/configurations.txt [results.csv] [baseline.csv]
+ *
+ * Give the results file of an earlier run as the baseline to see the change from it on every row. Changes bigger than
+ * the spread of both measurements are marked, so a change to either normalizer can be checked for what it actually does.
+ *
+ * @author K.jpg
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+public class NoiseBenchmark {
+    
+    private static int WARMUP_ITERATIONS = 3;
+    private static int MEASUREMENT_ITERATIONS = 5;
+    private static double ITERATION_SECONDS = 1;
+    
+    // Restarts are timed on this many threads. At 1, the numbers don't depend on the core count.
+    private static int BENCHMARK_THREADS = 1;
+    
+    // Directions and points are drawn once from a fixed seed, then cycled through. Keep this a power of two.
+    private static int N_SAMPLES = 4096;
+    private static long SAMPLE_SEED = 0;
+    
+    // Every result is added up into this, so the JIT can't drop the work that produced it.
+    private static volatile double sink;
+    
+    private interface Operation {
+        double run(int sample);
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java NoiseBenchmark configurations.txt [results.csv] [baseline.csv]");
+            return;
+        }
+        Path configurationPath = Paths.get(args[0]);
+        List<Map<String, String>> configurations = SweepRunner.readSweep(configurationPath);
+        Map<String, double[]> baseline = (args.length > 2) ? readResults(Paths.get(args[2])) : Collections.emptyMap();
+        PrintStream out = (args.length > 1) ? new PrintStream(Files.newOutputStream(Paths.get(args[1])), true, "UTF-8") : null;
+        if (out != null) out.println("configuration,benchmark,opsPerSecond,stddev");
+        
+        ForkJoinPool pool = new ForkJoinPool(BENCHMARK_THREADS);
+        for (Map<String, String> configuration : configurations) {
+            String name = SweepRunner.describe(configuration);
+            System.out.println(name);
+            NoiseKernel kernel = SweepRunner.createKernel(configuration, configurationPath);
+            GradientIndex index = new GradientIndex(SweepRunner.readGradients(configurationPath.resolveSibling(configuration.get("gradients"))));
+            double[][] directions = directions(kernel.nDimensions());
+            double[][] points = points(kernel);
+            
+            NoiseKernel.Evaluator evaluator = kernel.createEvaluator();
+            double[] derivative = new double[kernel.nDimensions()];
+            int[] gradientIndices = new int[kernel.latticeVertices().length];
+            report(out, baseline, name, "gradientScan", measure(sample -> index.bestGradientIndex(directions[sample])));
+            report(out, baseline, name, "gradientScanBrute", measure(sample -> index.bestGradientIndexBruteForce(directions[sample])));
+            report(out, baseline, name, "evaluate", measure(sample -> evaluator.evaluate(points[sample], derivative, gradientIndices) + derivative[0]));
+            report(out, baseline, name, "restarts", measureRestarts(kernel, configuration, pool));
+        }
+        pool.shutdown();
+        if (out != null) out.close();
+    }
+    
+    // Runs the operation over and over for each iteration, and returns how many times a second it ran in each measured one.
+    private static double[] measure(Operation operation) {
+        double[] rates = new double[MEASUREMENT_ITERATIONS];
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++) {
+            long count = 0, now;
+            double sum = 0;
+            long start = System.nanoTime(), end = start + (long)(ITERATION_SECONDS * 1e9);
+            do {
+                for (int sample = 0; sample < N_SAMPLES; sample++) sum += operation.run(sample);
+                count += N_SAMPLES;
+            } while ((now = System.nanoTime()) < end);
+            sink += sum;
+            if (iteration >= 0) rates[iteration] = count / ((now - start) * 1e-9);
+        }
+        return rates;
+    }
+    
+    // A fresh search for each iteration, with only a time budget. The same seed gives each one the same start points.
+    private static double[] measureRestarts(NoiseKernel kernel, Map<String, String> configuration, ForkJoinPool pool) {
+        double[] rates = new double[MEASUREMENT_ITERATIONS];
+        for (int iteration = -WARMUP_ITERATIONS; iteration < MEASUREMENT_ITERATIONS; iteration++) {
+            SearchEngine.Settings settings = SweepRunner.settings(configuration);
+            settings.nThreads = BENCHMARK_THREADS;
+            settings.maxRunSeconds = ITERATION_SECONDS;
+            settings.maxEvaluations = 0;
+            settings.maxRestartsWithoutImprovement = 0;
+            settings.certifyUpperBound = false;
+            settings.startPointSeed = SAMPLE_SEED;
+            SearchResult result = new SearchEngine(kernel, settings).run(pool);
+            sink += result.maxValue;
+            if (iteration >= 0) rates[iteration] = result.restarts / result.elapsedSeconds;
+        }
+        return rates;
+    }
+    
+    // Uniformly distributed unit vectors.
+    private static double[][] directions(int nDimensions) {
+        SplittableRandom random = new SplittableRandom(SAMPLE_SEED);
+        double[][] directions = new double[N_SAMPLES][nDimensions];
+        for (double[] direction : directions) {
+            double lengthSq = 0;
+            for (int i = 0; i < nDimensions; i++) {
+                double u = random.nextDouble(), v = random.nextDouble();
+                direction[i] = Math.sqrt(-2 * Math.log(1 - u)) * Math.cos(2 * Math.PI * v);
+                lengthSq += direction[i] * direction[i];
+            }
+            for (int i = 0; i < nDimensions; i++) direction[i] /= Math.sqrt(lengthSq);
+        }
+        return directions;
+    }
+    
+    // Points spread over the kernel's cell, the same way the search picks its starting points.
+    private static double[][] points(NoiseKernel kernel) {
+        SplittableRandom random = new SplittableRandom(SAMPLE_SEED);
+        double[][] points = new double[N_SAMPLES][kernel.nDimensions()];
+        for (double[] point : points) {
+            for (int i = 0; i < point.length; i++) point[i] = random.nextDouble();
+            kernel.mapFromUnitCube(point);
+        }
+        return points;
+    }
+    
+    private static void report(PrintStream out, Map<String, double[]> baseline, String configuration, String benchmark, double[] rates) {
+        double mean = Arrays.stream(rates).average().orElse(0);
+        double stddev = Math.sqrt(Arrays.stream(rates).map(rate -> (rate - mean) * (rate - mean)).sum() / Math.max(rates.length - 1, 1));
+        String line = String.format("    %-18s %16.1f +- %12.1f ops/s", benchmark, mean, stddev);
+        
+        // Marked when the means are further apart than both standard deviations put together.
+        double[] previous = baseline.get(configuration + "," + benchmark);
+        if (previous != null) {
+            line += String.format("   %+7.1f%%", (mean / previous[0] - 1) * 100);
+            if (Math.abs(mean - previous[0]) > stddev + previous[1]) line += (mean > previous[0]) ? "  faster" : "  SLOWER";
+        }
+        System.out.println(line);
+        if (out != null) out.println("\"" + configuration + "\"," + benchmark + "," + mean + "," + stddev);
+    }
+    
+    // The configuration is quoted, and has no commas in it once it's been expanded.
+    private static Map<String, double[]> readResults(Path path) throws IOException {
+        Map<String, double[]> results = new HashMap<>();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            if (fields.length < 4) continue;
+            results.put(fields[0].replace("\"", "") + "," + fields[1], new double[] { Double.parseDouble(fields[2]), Double.parseDouble(fields[3]) });
+        }
+        return results;
+    }
+}
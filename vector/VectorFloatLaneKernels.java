@@ -0,0 +1,152 @@
+/*
+ * Vector API implementation of FloatLaneKernels, for the mixed-precision batched mode.
+ *
+ * Uses the preferred float species of the host, twice as many lanes as VectorLaneKernels gets, e.g. 16 on AVX-512. Lanes
+ * past the last full vector go through the scalar kernels. Compile and run with `--add-modules jdk.incubator.vector`, e.g.
+ *     javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorFloatLaneKernels.java
+ *
+ * @author K.jpg
+ */
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class VectorFloatLaneKernels implements FloatLaneKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final int nDimensions;
+    private final float[][] fades, dFades;
+    private final FloatLaneKernels.ScalarFloatLaneKernels scalar;
+
+    public VectorFloatLaneKernels(int nDimensions, int nLanes) {
+        this.nDimensions = nDimensions;
+        fades = new float[nDimensions][nLanes];
+        dFades = new float[nDimensions][nLanes];
+        scalar = new FloatLaneKernels.ScalarFloatLaneKernels(nDimensions, nLanes);
+    }
+
+    public void displacement(float[][] coords, double[] latticePoint, float[][] displacementOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        for (int i = 0; i < nDimensions; i++) {
+            float[] coord = coords[i], out = displacementOut[i];
+            float p = (float)latticePoint[i];
+            int l = 0;
+            for (; l < bound; l += SPECIES.length()) {
+                FloatVector.fromArray(SPECIES, coord, l).sub(p).intoArray(out, l);
+            }
+            for (; l < nLanes; l++) out[l] = coord[l] - p;
+        }
+    }
+
+    public void radialFalloff(float[][] displacement, float falloffRadiusSq, float[] falloffOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        int l = 0;
+        for (; l < bound; l += SPECIES.length()) {
+            FloatVector falloff = FloatVector.broadcast(SPECIES, falloffRadiusSq);
+            for (int i = 0; i < nDimensions; i++) {
+                FloatVector a = FloatVector.fromArray(SPECIES, displacement[i], l);
+                falloff = falloff.sub(a.mul(a));
+            }
+            falloff.intoArray(falloffOut, l);
+        }
+        for (; l < nLanes; l++) {
+            float falloff = falloffRadiusSq;
+            for (int i = 0; i < nDimensions; i++) falloff -= displacement[i][l] * displacement[i][l];
+            falloffOut[l] = falloff;
+        }
+    }
+
+    public void accumulateRadial(float[][] displacement, float[] falloff, float[][] gradients,
+            float[] valueOut, float[][] derivativeOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        for (int l = 0; l < bound; l += SPECIES.length()) {
+
+            // Clamping the falloff to zero zeroes both the value and the derivative for lanes out of range.
+            FloatVector attn = FloatVector.fromArray(SPECIES, falloff, l).max(0.0f);
+            if (!attn.compare(VectorOperators.GT, 0.0f).anyTrue()) continue;
+            FloatVector dot = FloatVector.zero(SPECIES);
+            for (int i = 0; i < nDimensions; i++) {
+                dot = dot.add(FloatVector.fromArray(SPECIES, displacement[i], l).mul(FloatVector.fromArray(SPECIES, gradients[i], l)));
+            }
+            FloatVector attnSq = attn.mul(attn);
+            FloatVector attn4 = attnSq.mul(attnSq);
+            FloatVector.fromArray(SPECIES, valueOut, l).add(attn4.mul(dot)).intoArray(valueOut, l);
+            FloatVector dAttnDot = attnSq.mul(attn).mul(dot).mul(-8.0f);
+            for (int i = 0; i < nDimensions; i++) {
+                FloatVector derivative = FloatVector.fromArray(SPECIES, derivativeOut[i], l)
+                        .add(dAttnDot.mul(FloatVector.fromArray(SPECIES, displacement[i], l)))
+                        .add(attn4.mul(FloatVector.fromArray(SPECIES, gradients[i], l)));
+                derivative.intoArray(derivativeOut[i], l);
+            }
+        }
+        scalar.accumulateRadialRange(displacement, falloff, gradients, valueOut, derivativeOut, bound, nLanes);
+    }
+
+    public void accumulateFade(float[][] displacement, float[] fadePolynomial, float[][] gradients,
+            float[] valueOut, float[][] derivativeOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+
+        // Fade curve and its derivative, per axis
+        for (int i = 0; i < nDimensions; i++) {
+            float[] a = displacement[i], fade = fades[i], dFade = dFades[i];
+            for (int l = 0; l < bound; l += SPECIES.length()) {
+                FloatVector av = FloatVector.fromArray(SPECIES, a, l);
+                FloatVector t = FloatVector.broadcast(SPECIES, 1.0f).sub(av.abs());
+                VectorMask<Float> outside = t.compare(VectorOperators.LE, 0.0f);
+                FloatVector value = FloatVector.zero(SPECIES), derivative = FloatVector.zero(SPECIES);
+                for (int c = fadePolynomial.length - 1; c >= 0; c--) {
+                    derivative = derivative.mul(t).add(value);
+                    value = value.mul(t).add(fadePolynomial[c]);
+                }
+                derivative = derivative.blend(derivative.neg(), av.compare(VectorOperators.GE, 0.0f));
+                value.blend(0.0f, outside).intoArray(fade, l);
+                derivative.blend(0.0f, outside).intoArray(dFade, l);
+            }
+        }
+
+        // Falloff, value and derivative
+        for (int l = 0; l < bound; l += SPECIES.length()) {
+            FloatVector falloff = FloatVector.broadcast(SPECIES, 1.0f), dot = FloatVector.zero(SPECIES);
+            for (int i = 0; i < nDimensions; i++) {
+                falloff = falloff.mul(FloatVector.fromArray(SPECIES, fades[i], l));
+                dot = dot.add(FloatVector.fromArray(SPECIES, displacement[i], l).mul(FloatVector.fromArray(SPECIES, gradients[i], l)));
+            }
+            FloatVector.fromArray(SPECIES, valueOut, l).add(falloff.mul(dot)).intoArray(valueOut, l);
+            for (int j = 0; j < nDimensions; j++) {
+                FloatVector dFalloff = FloatVector.fromArray(SPECIES, dFades[j], l);
+                for (int i = 0; i < nDimensions; i++) {
+                    if (i != j) dFalloff = dFalloff.mul(FloatVector.fromArray(SPECIES, fades[i], l));
+                }
+                FloatVector derivative = FloatVector.fromArray(SPECIES, derivativeOut[j], l)
+                        .add(FloatVector.fromArray(SPECIES, gradients[j], l).mul(falloff))
+                        .add(dot.mul(dFalloff));
+                derivative.intoArray(derivativeOut[j], l);
+            }
+        }
+        scalar.accumulateFadeRange(displacement, fadePolynomial, gradients, valueOut, derivativeOut, bound, nLanes);
+    }
+
+    public int moveLanes(float[][] coords, float[][] derivative, float rate, boolean clampToUnitCell, boolean[] pending, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        int nPending = 0;
+        for (int l = 0; l < bound; l += SPECIES.length()) {
+            VectorMask<Float> pendingMask = VectorMask.fromArray(SPECIES, pending, l);
+            if (!pendingMask.anyTrue()) continue;
+            VectorMask<Float> moved = SPECIES.maskAll(false);
+            for (int i = 0; i < nDimensions; i++) {
+                FloatVector coord = FloatVector.fromArray(SPECIES, coords[i], l);
+                FloatVector newValue = coord.add(FloatVector.fromArray(SPECIES, derivative[i], l).mul(rate));
+                if (clampToUnitCell) newValue = newValue.max(0.0f).min(1.0f);
+                moved = moved.or(newValue.compare(VectorOperators.NE, coord));
+                coord.blend(newValue, pendingMask).intoArray(coords[i], l);
+            }
+            VectorMask<Float> stillPending = pendingMask.andNot(moved);
+            stillPending.intoArray(pending, l);
+            nPending += stillPending.trueCount();
+        }
+        return nPending + scalar.moveLanesRange(coords, derivative, rate, clampToUnitCell, pending, bound, nLanes);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Vector API implementation of LaneKernels, for the batched walker mode.
+ *
+ * Uses the preferred (widest) double species of the host, e.g. 8 lanes on AVX-512. Lanes past the last full vector
+ * go through the scalar kernels. Compile and run with `--add-modules jdk.incubator.vector`, e.g.
+ *     javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorLaneKernels.java
+ *
+ * @author K.jpg
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class VectorLaneKernels implements LaneKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final int nDimensions;
+    private final double[][] fades, dFades;
+    private final LaneKernels.ScalarLaneKernels scalar;
+
+    public VectorLaneKernels(int nDimensions, int nLanes) {
+        this.nDimensions = nDimensions;
+        fades = new double[nDimensions][nLanes];
+        dFades = new double[nDimensions][nLanes];
+        scalar = new LaneKernels.ScalarLaneKernels(nDimensions, nLanes);
+    }
+
+    public void displacement(double[][] coords, double[] latticePoint, double[][] displacementOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        for (int i = 0; i < nDimensions; i++) {
+            double[] coord = coords[i], out = displacementOut[i];
+            double p = latticePoint[i];
+            int l = 0;
+            for (; l < bound; l += SPECIES.length()) {
+                DoubleVector.fromArray(SPECIES, coord, l).sub(p).intoArray(out, l);
+            }
+            for (; l < nLanes; l++) out[l] = coord[l] - p;
+        }
+    }
+
+    public void radialFalloff(double[][] displacement, double falloffRadiusSq, double[] falloffOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        int l = 0;
+        for (; l < bound; l += SPECIES.length()) {
+            DoubleVector falloff = DoubleVector.broadcast(SPECIES, falloffRadiusSq);
+            for (int i = 0; i < nDimensions; i++) {
+                DoubleVector a = DoubleVector.fromArray(SPECIES, displacement[i], l);
+                falloff = falloff.sub(a.mul(a));
+            }
+            falloff.intoArray(falloffOut, l);
+        }
+        for (; l < nLanes; l++) {
+            double falloff = falloffRadiusSq;
+            for (int i = 0; i < nDimensions; i++) falloff -= displacement[i][l] * displacement[i][l];
+            falloffOut[l] = falloff;
+        }
+    }
+
+    public void accumulateRadial(double[][] displacement, double[] falloff, double[][] gradients,
+            double[] valueOut, double[][] derivativeOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        for (int l = 0; l < bound; l += SPECIES.length()) {
+
+            // Clamping the falloff to zero zeroes both the value and the derivative for lanes out of range.
+            DoubleVector attn = DoubleVector.fromArray(SPECIES, falloff, l).max(0.0);
+            if (!attn.compare(VectorOperators.GT, 0.0).anyTrue()) continue;
+            DoubleVector dot = DoubleVector.zero(SPECIES);
+            for (int i = 0; i < nDimensions; i++) {
+                dot = dot.add(DoubleVector.fromArray(SPECIES, displacement[i], l).mul(DoubleVector.fromArray(SPECIES, gradients[i], l)));
+            }
+            DoubleVector attnSq = attn.mul(attn);
+            DoubleVector attn4 = attnSq.mul(attnSq);
+            DoubleVector.fromArray(SPECIES, valueOut, l).add(attn4.mul(dot)).intoArray(valueOut, l);
+            DoubleVector dAttnDot = attnSq.mul(attn).mul(dot).mul(-8.0);
+            for (int i = 0; i < nDimensions; i++) {
+                DoubleVector derivative = DoubleVector.fromArray(SPECIES, derivativeOut[i], l)
+                        .add(dAttnDot.mul(DoubleVector.fromArray(SPECIES, displacement[i], l)))
+                        .add(attn4.mul(DoubleVector.fromArray(SPECIES, gradients[i], l)));
+                derivative.intoArray(derivativeOut[i], l);
+            }
+        }
+        scalar.accumulateRadialRange(displacement, falloff, gradients, valueOut, derivativeOut, bound, nLanes);
+    }
+
+    public void accumulateFade(double[][] displacement, double[] fadePolynomial, double[][] gradients,
+            double[] valueOut, double[][] derivativeOut, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+
+        // Fade curve and its derivative, per axis
+        for (int i = 0; i < nDimensions; i++) {
+            double[] a = displacement[i], fade = fades[i], dFade = dFades[i];
+            for (int l = 0; l < bound; l += SPECIES.length()) {
+                DoubleVector av = DoubleVector.fromArray(SPECIES, a, l);
+                DoubleVector t = DoubleVector.broadcast(SPECIES, 1.0).sub(av.abs());
+                VectorMask<Double> outside = t.compare(VectorOperators.LE, 0.0);
+                DoubleVector value = DoubleVector.zero(SPECIES), derivative = DoubleVector.zero(SPECIES);
+                for (int c = fadePolynomial.length - 1; c >= 0; c--) {
+                    derivative = derivative.mul(t).add(value);
+                    value = value.mul(t).add(fadePolynomial[c]);
+                }
+                derivative = derivative.blend(derivative.neg(), av.compare(VectorOperators.GE, 0.0));
+                value.blend(0.0, outside).intoArray(fade, l);
+                derivative.blend(0.0, outside).intoArray(dFade, l);
+            }
+        }
+
+        // Falloff, value and derivative
+        for (int l = 0; l < bound; l += SPECIES.length()) {
+            DoubleVector falloff = DoubleVector.broadcast(SPECIES, 1.0), dot = DoubleVector.zero(SPECIES);
+            for (int i = 0; i < nDimensions; i++) {
+                falloff = falloff.mul(DoubleVector.fromArray(SPECIES, fades[i], l));
+                dot = dot.add(DoubleVector.fromArray(SPECIES, displacement[i], l).mul(DoubleVector.fromArray(SPECIES, gradients[i], l)));
+            }
+            DoubleVector.fromArray(SPECIES, valueOut, l).add(falloff.mul(dot)).intoArray(valueOut, l);
+            for (int j = 0; j < nDimensions; j++) {
+                DoubleVector dFalloff = DoubleVector.fromArray(SPECIES, dFades[j], l);
+                for (int i = 0; i < nDimensions; i++) {
+                    if (i != j) dFalloff = dFalloff.mul(DoubleVector.fromArray(SPECIES, fades[i], l));
+                }
+                DoubleVector derivative = DoubleVector.fromArray(SPECIES, derivativeOut[j], l)
+                        .add(DoubleVector.fromArray(SPECIES, gradients[j], l).mul(falloff))
+                        .add(dot.mul(dFalloff));
+                derivative.intoArray(derivativeOut[j], l);
+            }
+        }
+        scalar.accumulateFadeRange(displacement, fadePolynomial, gradients, valueOut, derivativeOut, bound, nLanes);
+    }
+
+    public int moveLanes(double[][] coords, double[][] derivative, double rate, boolean clampToUnitCell, boolean[] pending, int nLanes) {
+        int bound = SPECIES.loopBound(nLanes);
+        int nPending = 0;
+        for (int l = 0; l < bound; l += SPECIES.length()) {
+            VectorMask<Double> pendingMask = VectorMask.fromArray(SPECIES, pending, l);
+            if (!pendingMask.anyTrue()) continue;
+            VectorMask<Double> moved = SPECIES.maskAll(false);
+            for (int i = 0; i < nDimensions; i++) {
+                DoubleVector coord = DoubleVector.fromArray(SPECIES, coords[i], l);
+                DoubleVector newValue = coord.add(DoubleVector.fromArray(SPECIES, derivative[i], l).mul(rate));
+                if (clampToUnitCell) newValue = newValue.max(0.0).min(1.0);
+                moved = moved.or(newValue.compare(VectorOperators.NE, coord));
+                coord.blend(newValue, pendingMask).intoArray(coords[i], l);
+            }
+            VectorMask<Double> stillPending = pendingMask.andNot(moved);
+            stillPending.intoArray(pending, l);
+            nPending += stillPending.trueCount();
+        }
+        return nPending + scalar.moveLanesRange(coords, derivative, rate, clampToUnitCell, pending, bound, nLanes);
+    }
+}